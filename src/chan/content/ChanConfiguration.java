@@ -74,6 +74,7 @@ public class ChanConfiguration implements Chan.Linked {
 	@Public public static final String OPTION_READ_SINGLE_POST = "read_single_post";
 	@Public public static final String OPTION_READ_POSTS_COUNT = "read_posts_count";
 	@Public public static final String OPTION_READ_USER_BOARDS = "read_user_boards";
+	@Public public static final String OPTION_READ_ACTIVE_THREAD_SUMMARIES = "read_active_thread_summaries";
 	@Public public static final String OPTION_ALLOW_CAPTCHA_PASS = "allow_captcha_pass";
 	@Public public static final String OPTION_ALLOW_USER_AUTHORIZATION = "allow_user_authorization";
 	@Public public static final String OPTION_LOCAL_MODE = "local_mode";
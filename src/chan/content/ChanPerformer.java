@@ -521,6 +521,9 @@ public class ChanPerformer implements Chan.Linked {
 	@Public
 	public static class ReadThreadSummariesData implements HttpRequest.Preset {
 		@Public public static final int TYPE_ARCHIVED_THREADS = 0;
+		// Requested only if OPTION_READ_ACTIVE_THREAD_SUMMARIES is set, all active threads of the board
+		// should be returned in one request with last post numbers or last modified times
+		@Public public static final int TYPE_ACTIVE_THREADS = 1;
 
 		@Public public final String boardName;
 		@Public public final int pageNumber;
@@ -10,6 +10,8 @@ public final class ThreadSummary {
 	private final String description;
 
 	private int postsCount = -1;
+	private String lastPostNumber;
+	private long lastModified;
 
 	@Public
 	public ThreadSummary(String boardName, String threadNumber, String description) {
@@ -44,4 +46,26 @@ public final class ThreadSummary {
 		this.postsCount = postsCount;
 		return this;
 	}
+
+	@Public
+	public String getLastPostNumber() {
+		return lastPostNumber;
+	}
+
+	@Public
+	public ThreadSummary setLastPostNumber(String lastPostNumber) {
+		this.lastPostNumber = lastPostNumber;
+		return this;
+	}
+
+	@Public
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Public
+	public ThreadSummary setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+		return this;
+	}
 }
@@ -0,0 +1,32 @@
+package chan.http;
+
+import java.util.ArrayList;
+
+// Shares I/O buffers between responses, so reading doesn't allocate new buffers for every request
+final class BufferPool {
+	public static final int BUFFER_SIZE = 8192;
+	private static final int MAX_BUFFERS = 16;
+
+	private static final ArrayList<byte[]> BUFFERS = new ArrayList<>();
+
+	private BufferPool() {}
+
+	public static byte[] obtain() {
+		synchronized (BUFFERS) {
+			if (!BUFFERS.isEmpty()) {
+				return BUFFERS.remove(BUFFERS.size() - 1);
+			}
+		}
+		return new byte[BUFFER_SIZE];
+	}
+
+	public static void release(byte[] buffer) {
+		if (buffer != null && buffer.length == BUFFER_SIZE) {
+			synchronized (BUFFERS) {
+				if (BUFFERS.size() < MAX_BUFFERS) {
+					BUFFERS.add(buffer);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package chan.http;
+
+import android.os.SystemClock;
+import java.util.HashMap;
+
+// Collects connection usage per chan since application start
+public class ConnectionStatistics {
+	private static final ConnectionStatistics INSTANCE = new ConnectionStatistics();
+
+	public static ConnectionStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private ConnectionStatistics() {}
+
+	public static class Item {
+		public int secureRequests;
+		public int reusedConnections;
+		public int handshakes;
+		public int resumedHandshakes;
+		public long handshakeTime;
+		public long bytesIn;
+		public long bytesOut;
+
+		private Item() {}
+
+		private Item(Item item) {
+			secureRequests = item.secureRequests;
+			reusedConnections = item.reusedConnections;
+			handshakes = item.handshakes;
+			resumedHandshakes = item.resumedHandshakes;
+			handshakeTime = item.handshakeTime;
+			bytesIn = item.bytesIn;
+			bytesOut = item.bytesOut;
+		}
+
+		public long getMeanHandshakeTime() {
+			return handshakes > 0 ? handshakeTime / handshakes : 0;
+		}
+
+		private void add(Item item) {
+			secureRequests += item.secureRequests;
+			reusedConnections += item.reusedConnections;
+			handshakes += item.handshakes;
+			resumedHandshakes += item.resumedHandshakes;
+			handshakeTime += item.handshakeTime;
+			bytesIn += item.bytesIn;
+			bytesOut += item.bytesOut;
+		}
+	}
+
+	private final HashMap<String, Item> items = new HashMap<>();
+	private long startTime = SystemClock.elapsedRealtime();
+
+	private Item obtainItem(String chanName) {
+		Item item = items.get(chanName);
+		if (item == null) {
+			item = new Item();
+			items.put(chanName, item);
+		}
+		return item;
+	}
+
+	synchronized void addHandshake(String chanName, long time, boolean resumed) {
+		Item item = obtainItem(chanName);
+		item.handshakes++;
+		item.handshakeTime += time;
+		if (resumed) {
+			item.resumedHandshakes++;
+		}
+	}
+
+	synchronized void addSecureRequest(String chanName, boolean reused) {
+		Item item = obtainItem(chanName);
+		item.secureRequests++;
+		if (reused) {
+			item.reusedConnections++;
+		}
+	}
+
+	synchronized void addBytes(String chanName, long bytesIn, long bytesOut) {
+		Item item = obtainItem(chanName);
+		item.bytesIn += bytesIn;
+		item.bytesOut += bytesOut;
+	}
+
+	public synchronized HashMap<String, Item> getItems() {
+		HashMap<String, Item> items = new HashMap<>();
+		for (HashMap.Entry<String, Item> entry : this.items.entrySet()) {
+			items.put(entry.getKey(), new Item(entry.getValue()));
+		}
+		return items;
+	}
+
+	public static Item getTotal(HashMap<String, Item> items) {
+		Item total = new Item();
+		for (Item item : items.values()) {
+			total.add(item);
+		}
+		return total;
+	}
+
+	// Elapsed realtime
+	public synchronized long getStartTime() {
+		return startTime;
+	}
+
+	public synchronized void clear() {
+		items.clear();
+		startTime = SystemClock.elapsedRealtime();
+	}
+}
@@ -0,0 +1,333 @@
+package chan.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// HTTP/2 header compression, see RFC 7541
+final class Hpack {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private Hpack() {}
+
+	private static final String[][] STATIC_TABLE = {
+		{":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+		{":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+		{":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+		{"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+		{"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+		{"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+		{"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+		{"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+		{"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+		{"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+		{"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+		{"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+		{"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+	};
+
+	private static final HashMap<String, Integer> STATIC_NAME_INDEXES = new HashMap<>();
+
+	static {
+		for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+			STATIC_NAME_INDEXES.put(STATIC_TABLE[i][0], i + 1);
+		}
+	}
+
+	// Code lengths of canonical Huffman code from RFC 7541 Appendix B, the last symbol is EOS
+	private static final byte[] HUFFMAN_CODE_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30
+	};
+
+	private static final int HUFFMAN_EOS = 256;
+
+	// Binary tree where node children are stored at [2 * node] and [2 * node + 1],
+	// leaves are stored as negative values: -1 - symbol
+	private static final int[] HUFFMAN_TREE;
+
+	static {
+		int symbols = HUFFMAN_CODE_LENGTHS.length;
+		int[] tree = new int[2 * symbols];
+		int nodes = 1;
+		int code = 0;
+		int lastLength = 0;
+		for (int length = 1; length <= 30; length++) {
+			for (int symbol = 0; symbol < symbols; symbol++) {
+				if (HUFFMAN_CODE_LENGTHS[symbol] == length) {
+					code <<= length - lastLength;
+					lastLength = length;
+					int node = 0;
+					for (int i = length - 1; i > 0; i--) {
+						int index = 2 * node + (code >>> i & 1);
+						if (tree[index] == 0) {
+							tree[index] = nodes++;
+						}
+						node = tree[index];
+					}
+					tree[2 * node + (code & 1)] = -1 - symbol;
+					code++;
+				}
+			}
+		}
+		HUFFMAN_TREE = tree;
+	}
+
+	static final class HeaderException extends IOException {
+		public HeaderException(String message) {
+			super(message);
+		}
+	}
+
+	static void writeInteger(ByteArrayOutputStream output, int prefix, int prefixBits, int value) {
+		int max = (1 << prefixBits) - 1;
+		if (value < max) {
+			output.write(prefix | value);
+		} else {
+			output.write(prefix | max);
+			value -= max;
+			while (value >= 0x80) {
+				output.write(value & 0x7f | 0x80);
+				value >>>= 7;
+			}
+			output.write(value);
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream output, String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		writeInteger(output, 0x00, 7, bytes.length);
+		output.write(bytes, 0, bytes.length);
+	}
+
+	// Writes literals without indexing, so the encoder doesn't need a dynamic table
+	static byte[] encode(List<String> namesAndValues) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (int i = 0; i < namesAndValues.size(); i += 2) {
+			String name = namesAndValues.get(i);
+			String value = namesAndValues.get(i + 1);
+			Integer index = STATIC_NAME_INDEXES.get(name);
+			if (index != null) {
+				writeInteger(output, 0x00, 4, index);
+			} else {
+				writeInteger(output, 0x00, 4, 0);
+				writeString(output, name);
+			}
+			writeString(output, value);
+		}
+		return output.toByteArray();
+	}
+
+	static final class Decoder {
+		private static final int ENTRY_OVERHEAD = 32;
+
+		private static class Entry {
+			public final String name;
+			public final String value;
+			public final int size;
+
+			public Entry(String name, String value, int size) {
+				this.name = name;
+				this.value = value;
+				this.size = size;
+			}
+		}
+
+		private final int maxTableSize;
+		private final ArrayList<Entry> entries = new ArrayList<>();
+		private int tableSize;
+		private int currentMaxTableSize;
+
+		private byte[] input;
+		private int position;
+		private int end;
+		private int lastStringLength;
+
+		public Decoder(int maxTableSize) {
+			this.maxTableSize = maxTableSize;
+			currentMaxTableSize = maxTableSize;
+		}
+
+		private int readByte() throws HeaderException {
+			if (position >= end) {
+				throw new HeaderException("Unexpected end of header block");
+			}
+			return input[position++] & 0xff;
+		}
+
+		private int readInteger(int first, int prefixBits) throws HeaderException {
+			int max = (1 << prefixBits) - 1;
+			int value = first & max;
+			if (value < max) {
+				return value;
+			}
+			for (int shift = 0; shift < 28; shift += 7) {
+				int b = readByte();
+				value += (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					if (value < 0) {
+						break;
+					}
+					return value;
+				}
+			}
+			throw new HeaderException("Invalid integer");
+		}
+
+		private String readString() throws HeaderException {
+			int first = readByte();
+			int length = readInteger(first, 7);
+			if (length > end - position) {
+				throw new HeaderException("Unexpected end of header block");
+			}
+			byte[] bytes;
+			if ((first & 0x80) != 0) {
+				bytes = decodeHuffman(input, position, length);
+			} else {
+				bytes = new byte[length];
+				System.arraycopy(input, position, bytes, 0, length);
+			}
+			position += length;
+			lastStringLength = bytes.length;
+			return new String(bytes, UTF_8);
+		}
+
+		private Entry getEntry(int index) throws HeaderException {
+			if (index <= 0) {
+				throw new HeaderException("Invalid index");
+			}
+			if (index <= STATIC_TABLE.length) {
+				String[] entry = STATIC_TABLE[index - 1];
+				return new Entry(entry[0], entry[1], 0);
+			}
+			int dynamicIndex = index - STATIC_TABLE.length - 1;
+			if (dynamicIndex >= entries.size()) {
+				throw new HeaderException("Invalid index");
+			}
+			return entries.get(entries.size() - 1 - dynamicIndex);
+		}
+
+		private void evict(int maxSize) {
+			int count = 0;
+			while (tableSize > maxSize && count < entries.size()) {
+				tableSize -= entries.get(count++).size;
+			}
+			entries.subList(0, count).clear();
+		}
+
+		private void addEntry(String name, int nameSize, String value, int valueSize) {
+			int size = nameSize + valueSize + ENTRY_OVERHEAD;
+			evict(currentMaxTableSize - size);
+			if (size <= currentMaxTableSize) {
+				entries.add(new Entry(name, value, size));
+				tableSize += size;
+			}
+		}
+
+		private static int getSize(String value) {
+			return value.getBytes(UTF_8).length;
+		}
+
+		// Returns the list of names and values
+		public List<String> decode(byte[] input, int offset, int length) throws HeaderException {
+			this.input = input;
+			position = offset;
+			end = offset + length;
+			ArrayList<String> namesAndValues = new ArrayList<>();
+			try {
+				while (position < end) {
+					int first = readByte();
+					if ((first & 0x80) != 0) {
+						Entry entry = getEntry(readInteger(first, 7));
+						namesAndValues.add(entry.name);
+						namesAndValues.add(entry.value);
+					} else if ((first & 0x40) != 0) {
+						int index = readInteger(first, 6);
+						String name;
+						int nameSize;
+						if (index != 0) {
+							name = getEntry(index).name;
+							nameSize = getSize(name);
+						} else {
+							name = readString();
+							nameSize = lastStringLength;
+						}
+						String value = readString();
+						addEntry(name, nameSize, value, lastStringLength);
+						namesAndValues.add(name);
+						namesAndValues.add(value);
+					} else if ((first & 0x20) != 0) {
+						int size = readInteger(first, 5);
+						if (size > maxTableSize) {
+							throw new HeaderException("Invalid table size");
+						}
+						currentMaxTableSize = size;
+						evict(size);
+					} else {
+						int index = readInteger(first, 4);
+						String name = index != 0 ? getEntry(index).name : readString();
+						namesAndValues.add(name);
+						namesAndValues.add(readString());
+					}
+				}
+			} finally {
+				this.input = null;
+			}
+			return namesAndValues;
+		}
+	}
+
+	static byte[] decodeHuffman(byte[] input, int offset, int length) throws HeaderException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(length * 8 / 5);
+		int[] tree = HUFFMAN_TREE;
+		int node = 0;
+		int depth = 0;
+		boolean ones = true;
+		for (int i = offset; i < offset + length; i++) {
+			int b = input[i] & 0xff;
+			for (int bit = 7; bit >= 0; bit--) {
+				int value = b >>> bit & 1;
+				int next = tree[2 * node + value];
+				depth++;
+				ones &= value == 1;
+				if (next < 0) {
+					int symbol = -1 - next;
+					if (symbol == HUFFMAN_EOS) {
+						throw new HeaderException("Invalid Huffman string");
+					}
+					output.write(symbol);
+					node = 0;
+					depth = 0;
+					ones = true;
+				} else if (next == 0) {
+					throw new HeaderException("Invalid Huffman string");
+				} else {
+					node = next;
+				}
+			}
+		}
+		// Padding must be the most significant bits of EOS
+		if (depth > 7 || !ones) {
+			throw new HeaderException("Invalid Huffman padding");
+		}
+		return output.toByteArray();
+	}
+}
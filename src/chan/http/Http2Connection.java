@@ -0,0 +1,779 @@
+package chan.http;
+
+import android.os.SystemClock;
+import com.mishiranu.dashchan.util.IOUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Multiplexed HTTP/2 connection, see RFC 7540
+final class Http2Connection implements Runnable {
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(ISO_8859_1);
+	private static final byte[] EMPTY = new byte[0];
+
+	private interface FrameType {
+		int DATA = 0;
+		int HEADERS = 1;
+		int RST_STREAM = 3;
+		int SETTINGS = 4;
+		int PUSH_PROMISE = 5;
+		int PING = 6;
+		int GOAWAY = 7;
+		int WINDOW_UPDATE = 8;
+		int CONTINUATION = 9;
+	}
+
+	private interface Flag {
+		int END_STREAM = 0x01;
+		int ACK = 0x01;
+		int END_HEADERS = 0x04;
+		int PADDED = 0x08;
+		int PRIORITY = 0x20;
+	}
+
+	private interface Setting {
+		int ENABLE_PUSH = 2;
+		int MAX_CONCURRENT_STREAMS = 3;
+		int INITIAL_WINDOW_SIZE = 4;
+		int MAX_FRAME_SIZE = 5;
+	}
+
+	private interface ErrorCode {
+		int NO_ERROR = 0;
+		int REFUSED_STREAM = 7;
+		int CANCEL = 8;
+	}
+
+	private static final int DEFAULT_WINDOW_SIZE = 65535;
+	private static final int DEFAULT_FRAME_SIZE = 16384;
+	private static final int MAX_FRAME_SIZE = 16777215;
+	private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+	private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+	private static final int HEADER_TABLE_SIZE = 4096;
+	private static final int IDLE_TIMEOUT = 60000;
+
+	final SSLSocketFactory sslSocketFactory;
+	final HostnameVerifier hostnameVerifier;
+
+	private final SSLSocket socket;
+	private final InputStream input;
+	private final OutputStream output;
+	private final Object writeLock = new Object();
+	private final Hpack.Decoder decoder = new Hpack.Decoder(HEADER_TABLE_SIZE);
+	private final byte[] frameHeader = new byte[9];
+
+	private final HashMap<Integer, Stream> streams = new HashMap<>();
+	private int nextStreamId = 1;
+	private int maxConcurrentStreams = 100;
+	private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+	private int peerMaxFrameSize = DEFAULT_FRAME_SIZE;
+	private long sendWindow = DEFAULT_WINDOW_SIZE;
+	private int connectionUnacked;
+	private boolean shutdown;
+
+	private int frameLength;
+	private int frameType;
+	private int frameFlags;
+	private int frameStreamId;
+
+	final class Stream {
+		public final int id;
+
+		private List<String> headers;
+		private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+		private int chunkOffset;
+		private int buffered;
+		private int unacked;
+		private long sendWindow;
+		private boolean localClosed;
+		private boolean remoteClosed;
+		private IOException error;
+
+		private Stream(int id, boolean localClosed) {
+			this.id = id;
+			this.localClosed = localClosed;
+			sendWindow = peerInitialWindowSize;
+		}
+
+		public Http2Connection getConnection() {
+			return Http2Connection.this;
+		}
+
+		public List<String> readHeaders(int timeout) throws IOException {
+			return Http2Connection.this.readHeaders(this, timeout);
+		}
+
+		public int read(byte[] buffer, int offset, int length, int timeout) throws IOException {
+			return Http2Connection.this.read(this, buffer, offset, length, timeout);
+		}
+
+		public int available() {
+			synchronized (Http2Connection.this) {
+				return buffered;
+			}
+		}
+
+		public void write(byte[] buffer, int offset, int length, boolean endStream, int timeout)
+				throws IOException {
+			Http2Connection.this.write(this, buffer, offset, length, endStream, timeout);
+		}
+
+		public void close() {
+			Http2Connection.this.close(this);
+		}
+	}
+
+	Http2Connection(SSLSocket socket, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier)
+			throws IOException {
+		this.socket = socket;
+		this.sslSocketFactory = sslSocketFactory;
+		this.hostnameVerifier = hostnameVerifier;
+		socket.setSoTimeout(IDLE_TIMEOUT);
+		input = new BufferedInputStream(socket.getInputStream(), DEFAULT_FRAME_SIZE);
+		output = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_FRAME_SIZE);
+	}
+
+	void start() throws IOException {
+		synchronized (writeLock) {
+			output.write(PREFACE);
+			byte[] settings = new byte[12];
+			writeSetting(settings, 0, Setting.ENABLE_PUSH, 0);
+			writeSetting(settings, 6, Setting.INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+			writeFrame(FrameType.SETTINGS, 0, 0, settings, 0, settings.length);
+			writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+			output.flush();
+		}
+		Thread thread = new Thread(this, "Http2Connection");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	SSLSession getSession() {
+		return socket.getSession();
+	}
+
+	synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	synchronized boolean hasFreeStreams() {
+		return !shutdown && streams.size() < maxConcurrentStreams;
+	}
+
+	private static void writeSetting(byte[] settings, int offset, int id, int value) {
+		IOUtils.intToBytes(id, false, offset, 2, settings);
+		IOUtils.intToBytes(value, false, offset + 2, 4, settings);
+	}
+
+	private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+			throws IOException {
+		byte[] header = new byte[9];
+		IOUtils.intToBytes(length, false, 0, 3, header);
+		header[3] = (byte) type;
+		header[4] = (byte) flags;
+		IOUtils.intToBytes(streamId, false, 5, 4, header);
+		output.write(header);
+		if (length > 0) {
+			output.write(payload, offset, length);
+		}
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) throws IOException {
+		byte[] payload = new byte[4];
+		IOUtils.intToBytes(increment, false, 0, 4, payload);
+		writeFrame(FrameType.WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+	}
+
+	private void writeRstStream(int streamId, int errorCode) throws IOException {
+		byte[] payload = new byte[4];
+		IOUtils.intToBytes(errorCode, false, 0, 4, payload);
+		writeFrame(FrameType.RST_STREAM, 0, streamId, payload, 0, payload.length);
+	}
+
+	private void writeFailed() {
+		// Reader thread will notice closed socket and fail all streams
+		IOUtils.close(socket);
+	}
+
+	// Returns null if connection can't accept new streams
+	Stream newStream(List<String> headers, boolean endStream) throws IOException {
+		byte[] block = Hpack.encode(headers);
+		synchronized (writeLock) {
+			Stream stream;
+			int maxFrameSize;
+			synchronized (this) {
+				if (shutdown || streams.size() >= maxConcurrentStreams) {
+					return null;
+				}
+				stream = new Stream(nextStreamId, endStream);
+				nextStreamId += 2;
+				if (nextStreamId < 0) {
+					shutdown = true;
+				}
+				streams.put(stream.id, stream);
+				maxFrameSize = peerMaxFrameSize;
+			}
+			try {
+				int offset = 0;
+				boolean first = true;
+				do {
+					int length = Math.min(block.length - offset, maxFrameSize);
+					boolean last = offset + length == block.length;
+					int flags = (last ? Flag.END_HEADERS : 0) | (first && endStream ? Flag.END_STREAM : 0);
+					writeFrame(first ? FrameType.HEADERS : FrameType.CONTINUATION,
+							flags, stream.id, block, offset, length);
+					offset += length;
+					first = false;
+				} while (offset < block.length);
+				output.flush();
+			} catch (IOException e) {
+				writeFailed();
+				throw e;
+			}
+			return stream;
+		}
+	}
+
+	private static long getDeadline(int timeout) {
+		return timeout > 0 ? SystemClock.elapsedRealtime() + timeout : 0;
+	}
+
+	private void waitUntil(long deadline) throws IOException {
+		try {
+			if (deadline > 0) {
+				long time = deadline - SystemClock.elapsedRealtime();
+				if (time <= 0) {
+					throw new SocketTimeoutException("timeout");
+				}
+				wait(time);
+			} else {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("thread interrupted");
+		}
+	}
+
+	private synchronized List<String> readHeaders(Stream stream, int timeout) throws IOException {
+		long deadline = getDeadline(timeout);
+		while (stream.headers == null) {
+			if (stream.error != null) {
+				throw stream.error;
+			}
+			waitUntil(deadline);
+		}
+		return stream.headers;
+	}
+
+	private int read(Stream stream, byte[] buffer, int offset, int length, int timeout) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		int count = 0;
+		int streamIncrement = 0;
+		int connectionIncrement = 0;
+		synchronized (this) {
+			long deadline = getDeadline(timeout);
+			while (stream.buffered == 0) {
+				if (stream.error != null) {
+					throw stream.error;
+				}
+				if (stream.remoteClosed) {
+					return -1;
+				}
+				waitUntil(deadline);
+			}
+			while (count < length && !stream.chunks.isEmpty()) {
+				byte[] chunk = stream.chunks.getFirst();
+				int chunkCount = Math.min(chunk.length - stream.chunkOffset, length - count);
+				System.arraycopy(chunk, stream.chunkOffset, buffer, offset + count, chunkCount);
+				count += chunkCount;
+				stream.chunkOffset += chunkCount;
+				if (stream.chunkOffset == chunk.length) {
+					stream.chunks.removeFirst();
+					stream.chunkOffset = 0;
+				}
+			}
+			stream.buffered -= count;
+			if (!stream.remoteClosed) {
+				stream.unacked += count;
+				if (stream.unacked >= STREAM_WINDOW_SIZE / 2) {
+					streamIncrement = stream.unacked;
+					stream.unacked = 0;
+				}
+			}
+			connectionUnacked += count;
+			if (connectionUnacked >= CONNECTION_WINDOW_SIZE / 2) {
+				connectionIncrement = connectionUnacked;
+				connectionUnacked = 0;
+			}
+		}
+		if (streamIncrement > 0 || connectionIncrement > 0) {
+			synchronized (writeLock) {
+				try {
+					if (streamIncrement > 0) {
+						writeWindowUpdate(stream.id, streamIncrement);
+					}
+					if (connectionIncrement > 0) {
+						writeWindowUpdate(0, connectionIncrement);
+					}
+					output.flush();
+				} catch (IOException e) {
+					writeFailed();
+				}
+			}
+		}
+		return count;
+	}
+
+	private void write(Stream stream, byte[] buffer, int offset, int length, boolean endStream, int timeout)
+			throws IOException {
+		long deadline = getDeadline(timeout);
+		do {
+			int count;
+			synchronized (this) {
+				while (true) {
+					if (stream.error != null) {
+						throw stream.error;
+					}
+					if (stream.localClosed || stream.remoteClosed && !streams.containsKey(stream.id)) {
+						throw new IOException("Stream is closed");
+					}
+					if (length == 0 || stream.sendWindow > 0 && sendWindow > 0) {
+						break;
+					}
+					waitUntil(deadline);
+				}
+				count = (int) Math.min(Math.min(length, peerMaxFrameSize), Math.min(stream.sendWindow, sendWindow));
+				stream.sendWindow -= count;
+				sendWindow -= count;
+				if (endStream && count == length) {
+					stream.localClosed = true;
+				}
+			}
+			boolean last = endStream && count == length;
+			synchronized (writeLock) {
+				try {
+					writeFrame(FrameType.DATA, last ? Flag.END_STREAM : 0, stream.id, buffer, offset, count);
+					output.flush();
+				} catch (IOException e) {
+					writeFailed();
+					throw e;
+				}
+			}
+			offset += count;
+			length -= count;
+		} while (length > 0);
+		if (endStream) {
+			removeIfCompleted(stream);
+		}
+	}
+
+	private synchronized void removeIfCompleted(Stream stream) {
+		if (stream.localClosed && stream.remoteClosed && streams.remove(stream.id) != null) {
+			onStreamRemoved();
+		}
+	}
+
+	private void close(Stream stream) {
+		boolean reset;
+		int connectionIncrement = 0;
+		synchronized (this) {
+			reset = streams.remove(stream.id) != null && !(stream.localClosed && stream.remoteClosed);
+			stream.localClosed = true;
+			if (stream.error == null && (stream.buffered > 0 || !stream.remoteClosed)) {
+				stream.error = new IOException("Stream is closed");
+			}
+			// Discarded data must be returned to connection window
+			connectionUnacked += stream.buffered;
+			stream.buffered = 0;
+			stream.chunks.clear();
+			if (connectionUnacked >= CONNECTION_WINDOW_SIZE / 2) {
+				connectionIncrement = connectionUnacked;
+				connectionUnacked = 0;
+			}
+			notifyAll();
+			onStreamRemoved();
+		}
+		if (reset || connectionIncrement > 0) {
+			synchronized (writeLock) {
+				try {
+					if (reset) {
+						writeRstStream(stream.id, ErrorCode.CANCEL);
+					}
+					if (connectionIncrement > 0) {
+						writeWindowUpdate(0, connectionIncrement);
+					}
+					output.flush();
+				} catch (IOException e) {
+					writeFailed();
+				}
+			}
+		}
+	}
+
+	private void onStreamRemoved() {
+		if (shutdown && streams.isEmpty()) {
+			IOUtils.close(socket);
+		}
+	}
+
+	@Override
+	public void run() {
+		IOException error;
+		try {
+			while (true) {
+				readFrame();
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = new IOException(e);
+		}
+		synchronized (this) {
+			shutdown = true;
+			for (Stream stream : streams.values()) {
+				if (stream.error == null) {
+					stream.error = error;
+				}
+			}
+			streams.clear();
+			notifyAll();
+		}
+		IOUtils.close(socket);
+	}
+
+	private void readFrameHeader() throws IOException {
+		int first;
+		while (true) {
+			try {
+				first = input.read();
+				break;
+			} catch (SocketTimeoutException e) {
+				synchronized (this) {
+					if (streams.isEmpty()) {
+						shutdown = true;
+						throw new EOFException("Connection is idle");
+					}
+				}
+			}
+		}
+		if (first < 0) {
+			throw new EOFException("Connection closed by peer");
+		}
+		byte[] header = frameHeader;
+		header[0] = (byte) first;
+		if (!IOUtils.readExactlyCheck(input, header, 1, 8)) {
+			throw new EOFException("Connection closed by peer");
+		}
+		frameLength = IOUtils.bytesToInt(false, 0, 3, header);
+		frameType = header[3] & 0xff;
+		frameFlags = header[4] & 0xff;
+		frameStreamId = IOUtils.bytesToInt(false, 5, 4, header) & 0x7fffffff;
+		if (frameLength > DEFAULT_FRAME_SIZE) {
+			throw new IOException("Frame is too large");
+		}
+	}
+
+	private byte[] readPayload() throws IOException {
+		if (frameLength == 0) {
+			return EMPTY;
+		}
+		byte[] payload = new byte[frameLength];
+		if (!IOUtils.readExactlyCheck(input, payload, 0, payload.length)) {
+			throw new EOFException("Connection closed by peer");
+		}
+		return payload;
+	}
+
+	private void readFrame() throws IOException {
+		readFrameHeader();
+		byte[] payload = readPayload();
+		switch (frameType) {
+			case FrameType.DATA: {
+				onData(payload);
+				break;
+			}
+			case FrameType.HEADERS: {
+				onHeaders(payload);
+				break;
+			}
+			case FrameType.RST_STREAM: {
+				if (payload.length != 4) {
+					throw new IOException("Invalid RST_STREAM frame");
+				}
+				onRstStream(IOUtils.bytesToInt(false, 0, 4, payload));
+				break;
+			}
+			case FrameType.SETTINGS: {
+				if ((frameFlags & Flag.ACK) == 0) {
+					onSettings(payload);
+				}
+				break;
+			}
+			case FrameType.PUSH_PROMISE: {
+				throw new IOException("Server push is disabled");
+			}
+			case FrameType.PING: {
+				if ((frameFlags & Flag.ACK) == 0) {
+					synchronized (writeLock) {
+						writeFrame(FrameType.PING, Flag.ACK, 0, payload, 0, payload.length);
+						output.flush();
+					}
+				}
+				break;
+			}
+			case FrameType.GOAWAY: {
+				if (payload.length < 8) {
+					throw new IOException("Invalid GOAWAY frame");
+				}
+				onGoAway(IOUtils.bytesToInt(false, 0, 4, payload) & 0x7fffffff);
+				break;
+			}
+			case FrameType.WINDOW_UPDATE: {
+				if (payload.length != 4) {
+					throw new IOException("Invalid WINDOW_UPDATE frame");
+				}
+				onWindowUpdate(IOUtils.bytesToInt(false, 0, 4, payload) & 0x7fffffff);
+				break;
+			}
+			case FrameType.CONTINUATION: {
+				throw new IOException("Unexpected CONTINUATION frame");
+			}
+		}
+	}
+
+	private void onData(byte[] payload) throws IOException {
+		int offset = 0;
+		int padding = 0;
+		if ((frameFlags & Flag.PADDED) != 0) {
+			if (payload.length == 0) {
+				throw new IOException("Invalid DATA frame");
+			}
+			padding = payload[0] & 0xff;
+			offset = 1;
+		}
+		int length = payload.length - offset - padding;
+		if (length < 0) {
+			throw new IOException("Invalid DATA frame");
+		}
+		int streamIncrement = 0;
+		int connectionIncrement = 0;
+		synchronized (this) {
+			Stream stream = streams.get(frameStreamId);
+			if (stream != null && !stream.remoteClosed) {
+				if (length > 0) {
+					byte[] chunk = new byte[length];
+					System.arraycopy(payload, offset, chunk, 0, length);
+					stream.chunks.add(chunk);
+					stream.buffered += length;
+				}
+				if ((frameFlags & Flag.END_STREAM) != 0) {
+					stream.remoteClosed = true;
+				}
+				// Padding is never read, so it's acknowledged instantly
+				connectionUnacked += payload.length - length;
+				if (!stream.remoteClosed) {
+					stream.unacked += payload.length - length;
+					if (stream.unacked >= STREAM_WINDOW_SIZE / 2) {
+						streamIncrement = stream.unacked;
+						stream.unacked = 0;
+					}
+				}
+				notifyAll();
+			} else {
+				connectionUnacked += payload.length;
+			}
+			if (connectionUnacked >= CONNECTION_WINDOW_SIZE / 2) {
+				connectionIncrement = connectionUnacked;
+				connectionUnacked = 0;
+			}
+		}
+		if (streamIncrement > 0 || connectionIncrement > 0) {
+			synchronized (writeLock) {
+				if (streamIncrement > 0) {
+					writeWindowUpdate(frameStreamId, streamIncrement);
+				}
+				if (connectionIncrement > 0) {
+					writeWindowUpdate(0, connectionIncrement);
+				}
+				output.flush();
+			}
+		}
+	}
+
+	private void onHeaders(byte[] payload) throws IOException {
+		int streamId = frameStreamId;
+		boolean endStream = (frameFlags & Flag.END_STREAM) != 0;
+		int offset = 0;
+		int padding = 0;
+		if ((frameFlags & Flag.PADDED) != 0) {
+			if (payload.length == 0) {
+				throw new IOException("Invalid HEADERS frame");
+			}
+			padding = payload[0] & 0xff;
+			offset = 1;
+		}
+		if ((frameFlags & Flag.PRIORITY) != 0) {
+			offset += 5;
+		}
+		int length = payload.length - offset - padding;
+		if (length < 0) {
+			throw new IOException("Invalid HEADERS frame");
+		}
+		byte[] block = payload;
+		if ((frameFlags & Flag.END_HEADERS) == 0) {
+			ArrayList<byte[]> fragments = new ArrayList<>();
+			int total = length;
+			do {
+				readFrameHeader();
+				if (frameType != FrameType.CONTINUATION || frameStreamId != streamId) {
+					throw new IOException("Expected CONTINUATION frame");
+				}
+				byte[] fragment = readPayload();
+				fragments.add(fragment);
+				total += fragment.length;
+			} while ((frameFlags & Flag.END_HEADERS) == 0);
+			block = new byte[total];
+			System.arraycopy(payload, offset, block, 0, length);
+			int blockOffset = length;
+			for (byte[] fragment : fragments) {
+				System.arraycopy(fragment, 0, block, blockOffset, fragment.length);
+				blockOffset += fragment.length;
+			}
+			offset = 0;
+			length = total;
+		}
+		// Header blocks must be decoded even for closed streams to keep decoder table consistent
+		List<String> headers = decoder.decode(block, offset, length);
+		synchronized (this) {
+			Stream stream = streams.get(streamId);
+			if (stream != null) {
+				if (stream.headers == null) {
+					String status = null;
+					for (int i = 0; i < headers.size(); i += 2) {
+						if (":status".equals(headers.get(i))) {
+							status = headers.get(i + 1);
+							break;
+						}
+					}
+					if (status == null) {
+						throw new IOException("Status is missing");
+					}
+					// Skip informational responses
+					if (!status.startsWith("1") || endStream) {
+						stream.headers = headers;
+					}
+				}
+				if (endStream) {
+					stream.remoteClosed = true;
+					removeIfCompleted(stream);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized void onRstStream(int errorCode) {
+		Stream stream = streams.remove(frameStreamId);
+		if (stream != null) {
+			if (!stream.remoteClosed || errorCode != ErrorCode.NO_ERROR) {
+				if (stream.error == null) {
+					// Refused streams were not processed and can be retried safely
+					stream.error = errorCode == ErrorCode.REFUSED_STREAM
+							? new EOFException("Stream refused") : new IOException("Stream reset: " + errorCode);
+				}
+			}
+			stream.localClosed = true;
+			notifyAll();
+			onStreamRemoved();
+		}
+	}
+
+	private void onSettings(byte[] payload) throws IOException {
+		if (payload.length % 6 != 0) {
+			throw new IOException("Invalid SETTINGS frame");
+		}
+		synchronized (this) {
+			for (int i = 0; i < payload.length; i += 6) {
+				int id = IOUtils.bytesToInt(false, i, 2, payload);
+				int value = IOUtils.bytesToInt(false, i + 2, 4, payload);
+				switch (id) {
+					case Setting.MAX_CONCURRENT_STREAMS: {
+						maxConcurrentStreams = value >= 0 ? value : Integer.MAX_VALUE;
+						break;
+					}
+					case Setting.INITIAL_WINDOW_SIZE: {
+						if (value < 0) {
+							throw new IOException("Invalid window size");
+						}
+						int delta = value - peerInitialWindowSize;
+						peerInitialWindowSize = value;
+						for (Stream stream : streams.values()) {
+							stream.sendWindow += delta;
+						}
+						break;
+					}
+					case Setting.MAX_FRAME_SIZE: {
+						if (value < DEFAULT_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+							throw new IOException("Invalid frame size");
+						}
+						peerMaxFrameSize = value;
+						break;
+					}
+				}
+			}
+			notifyAll();
+		}
+		synchronized (writeLock) {
+			writeFrame(FrameType.SETTINGS, Flag.ACK, 0, EMPTY, 0, 0);
+			output.flush();
+		}
+	}
+
+	private synchronized void onGoAway(int lastStreamId) {
+		shutdown = true;
+		Iterator<Stream> iterator = streams.values().iterator();
+		while (iterator.hasNext()) {
+			Stream stream = iterator.next();
+			if (stream.id > lastStreamId) {
+				// Stream was not processed and can be retried safely
+				if (stream.error == null) {
+					stream.error = new EOFException("Connection closed by peer");
+				}
+				iterator.remove();
+			}
+		}
+		notifyAll();
+		onStreamRemoved();
+	}
+
+	private synchronized void onWindowUpdate(int increment) {
+		if (frameStreamId == 0) {
+			sendWindow += increment;
+		} else {
+			Stream stream = streams.get(frameStreamId);
+			if (stream != null) {
+				stream.sendWindow += increment;
+			}
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,193 @@
+package chan.http;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.util.IOUtils;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Multiplexes requests to the same host over shared HTTP/2 connections,
+// hosts without HTTP/2 support negotiated via ALPN are handled by fallback transport
+final class Http2Transport implements HttpTransport {
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final String PROTOCOL_HTTP_2 = "h2";
+	private static final String PROTOCOL_HTTP_1_1 = "http/1.1";
+	private static final byte[] ALPN_PROTOCOLS = {2, 'h', '2', 8, 'h', 't', 't', 'p', '/', '1', '.', '1'};
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final HttpTransport fallbackTransport;
+
+	private final HashMap<String, ArrayList<Http2Connection>> connections = new HashMap<>();
+	private final HashMap<String, Object> connectLocks = new HashMap<>();
+	private final HashSet<String> http1Authorities = new HashSet<>();
+
+	Http2Transport(HttpTransport fallbackTransport) {
+		this.fallbackTransport = fallbackTransport;
+	}
+
+	private static String getAuthority(URL url) {
+		int port = url.getPort();
+		return url.getHost() + ":" + (port != -1 ? port : url.getDefaultPort());
+	}
+
+	@Override
+	public HttpURLConnection openConnection(URL url, Proxy proxy) throws IOException {
+		if (proxy == null && "https".equals(url.getProtocol())) {
+			boolean http1;
+			synchronized (this) {
+				http1 = http1Authorities.contains(getAuthority(url));
+			}
+			if (!http1) {
+				return new Http2URLConnection(url, this);
+			}
+		}
+		return fallbackTransport.openConnection(url, proxy);
+	}
+
+	HttpURLConnection openFallbackConnection(URL url) throws IOException {
+		return fallbackTransport.openConnection(url, null);
+	}
+
+	// Returns null if host doesn't support HTTP/2
+	Http2Connection.Stream newStream(URL url, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier,
+			int connectTimeout, List<String> headers, boolean endStream) throws IOException {
+		String authority = getAuthority(url);
+		Object connectLock;
+		synchronized (this) {
+			connectLock = connectLocks.get(authority);
+			if (connectLock == null) {
+				connectLock = new Object();
+				connectLocks.put(authority, connectLock);
+			}
+		}
+		// Concurrent requests wait for a single connection instead of performing a handshake each
+		synchronized (connectLock) {
+			for (int i = 0; i < MAX_ATTEMPTS; i++) {
+				Http2Connection connection = null;
+				synchronized (this) {
+					if (http1Authorities.contains(authority)) {
+						return null;
+					}
+					ArrayList<Http2Connection> connections = this.connections.get(authority);
+					if (connections != null) {
+						Iterator<Http2Connection> iterator = connections.iterator();
+						while (iterator.hasNext()) {
+							Http2Connection nextConnection = iterator.next();
+							if (nextConnection.isShutdown()) {
+								iterator.remove();
+							} else if (connection == null && nextConnection.hasFreeStreams() &&
+									nextConnection.sslSocketFactory == sslSocketFactory &&
+									nextConnection.hostnameVerifier == hostnameVerifier) {
+								connection = nextConnection;
+							}
+						}
+					}
+				}
+				if (connection == null) {
+					connection = connect(url.getHost(), url.getPort() != -1 ? url.getPort() : url.getDefaultPort(),
+							sslSocketFactory, hostnameVerifier, connectTimeout);
+					synchronized (this) {
+						if (connection == null) {
+							http1Authorities.add(authority);
+							return null;
+						}
+						ArrayList<Http2Connection> connections = this.connections.get(authority);
+						if (connections == null) {
+							connections = new ArrayList<>(1);
+							this.connections.put(authority, connections);
+						}
+						connections.add(connection);
+					}
+				}
+				Http2Connection.Stream stream = connection.newStream(headers, endStream);
+				if (stream != null) {
+					return stream;
+				}
+			}
+		}
+		throw new EOFException("Connection closed by peer");
+	}
+
+	private static Http2Connection connect(String host, int port, SSLSocketFactory sslSocketFactory,
+			HostnameVerifier hostnameVerifier, int connectTimeout) throws IOException {
+		Socket socket = new Socket();
+		boolean success = false;
+		try {
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			socket.setSoTimeout(connectTimeout);
+			SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+			socket = sslSocket;
+			setApplicationProtocols(sslSocket);
+			sslSocket.startHandshake();
+			if (!hostnameVerifier.verify(host, sslSocket.getSession())) {
+				throw new IOException("Hostname " + host + " not verified");
+			}
+			if (!PROTOCOL_HTTP_2.equals(getApplicationProtocol(sslSocket))) {
+				return null;
+			}
+			Http2Connection connection = new Http2Connection(sslSocket, sslSocketFactory, hostnameVerifier);
+			connection.start();
+			success = true;
+			return connection;
+		} finally {
+			if (!success) {
+				IOUtils.close(socket);
+			}
+		}
+	}
+
+	private static SSLSocket getRealSocket(SSLSocket socket) {
+		return socket instanceof SSLSocketWrapper ? ((SSLSocketWrapper) socket).getRealSocket() : socket;
+	}
+
+	@TargetApi(Build.VERSION_CODES.Q)
+	private static void setApplicationProtocols(SSLSocket socket) {
+		SSLSocket realSocket = getRealSocket(socket);
+		if (C.API_Q) {
+			SSLParameters parameters = realSocket.getSSLParameters();
+			parameters.setApplicationProtocols(new String[] {PROTOCOL_HTTP_2, PROTOCOL_HTTP_1_1});
+			realSocket.setSSLParameters(parameters);
+		} else if (C.API_LOLLIPOP) {
+			try {
+				realSocket.getClass().getMethod("setAlpnProtocols", byte[].class).invoke(realSocket,
+						(Object) ALPN_PROTOCOLS);
+			} catch (Exception e) {
+				// Reflective operation, ignore exception
+			}
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.Q)
+	private static String getApplicationProtocol(SSLSocket socket) {
+		SSLSocket realSocket = getRealSocket(socket);
+		if (C.API_Q) {
+			return realSocket.getApplicationProtocol();
+		} else if (C.API_LOLLIPOP) {
+			try {
+				byte[] protocol = (byte[]) realSocket.getClass().getMethod("getAlpnSelectedProtocol")
+						.invoke(realSocket);
+				return protocol != null ? new String(protocol, ISO_8859_1) : null;
+			} catch (Exception e) {
+				// Reflective operation, ignore exception
+			}
+		}
+		return null;
+	}
+}
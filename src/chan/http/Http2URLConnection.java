@@ -0,0 +1,481 @@
+package chan.http;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import com.mishiranu.dashchan.C;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+// Performs request over HTTP/2 stream or delegates it to fallback connection if HTTP/2 is not supported
+final class Http2URLConnection extends HttpsURLConnection {
+	private static final List<String> SKIP_HEADERS = Collections.unmodifiableList(Arrays.asList("connection",
+			"host", "keep-alive", "proxy-connection", "te", "transfer-encoding", "upgrade"));
+
+	private final Http2Transport transport;
+	private final ArrayList<String> requestProperties = new ArrayList<>();
+	private long fixedLength = -1;
+
+	private volatile HttpURLConnection delegate;
+	private volatile Http2Connection.Stream stream;
+	private volatile boolean disconnected;
+
+	private StreamOutputStream outputStream;
+	private StreamInputStream inputStream;
+	private ArrayList<String> responseHeaders;
+	private Map<String, List<String>> responseHeaderFields;
+
+	Http2URLConnection(URL url, Http2Transport transport) {
+		super(url);
+		this.transport = transport;
+	}
+
+	private int findRequestProperty(String key) {
+		for (int i = 0; i < requestProperties.size(); i += 2) {
+			if (requestProperties.get(i).equalsIgnoreCase(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void setRequestProperty(String key, String value) {
+		if (connected) {
+			throw new IllegalStateException("Already connected");
+		}
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		int index;
+		while ((index = findRequestProperty(key)) >= 0) {
+			requestProperties.subList(index, index + 2).clear();
+		}
+		addRequestProperty(key, value);
+	}
+
+	@Override
+	public void addRequestProperty(String key, String value) {
+		if (connected) {
+			throw new IllegalStateException("Already connected");
+		}
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		requestProperties.add(key);
+		requestProperties.add(value != null ? value : "");
+	}
+
+	@Override
+	public String getRequestProperty(String key) {
+		int index = key != null ? findRequestProperty(key) : -1;
+		return index >= 0 ? requestProperties.get(index + 1) : null;
+	}
+
+	@Override
+	public Map<String, List<String>> getRequestProperties() {
+		return Collections.unmodifiableMap(toMultimap(requestProperties, 0));
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(int contentLength) {
+		super.setFixedLengthStreamingMode(contentLength);
+		fixedLength = contentLength;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	@Override
+	public void setFixedLengthStreamingMode(long contentLength) {
+		super.setFixedLengthStreamingMode(contentLength);
+		fixedLength = contentLength;
+	}
+
+	private static Map<String, List<String>> toMultimap(List<String> namesAndValues, int start) {
+		TreeMap<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = start; i < namesAndValues.size(); i += 2) {
+			String name = namesAndValues.get(i);
+			List<String> values = map.get(name);
+			if (values == null) {
+				values = new ArrayList<>(1);
+				map.put(name, values);
+			}
+			values.add(namesAndValues.get(i + 1));
+		}
+		for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return map;
+	}
+
+	private List<String> buildRequestHeaders() {
+		URL url = getURL();
+		String path = url.getFile();
+		ArrayList<String> headers = new ArrayList<>();
+		headers.add(":method");
+		headers.add(getRequestMethod());
+		headers.add(":scheme");
+		headers.add("https");
+		headers.add(":authority");
+		headers.add(url.getAuthority());
+		headers.add(":path");
+		headers.add(path == null || path.isEmpty() ? "/" : path);
+		boolean contentLengthSet = false;
+		for (int i = 0; i < requestProperties.size(); i += 2) {
+			String name = requestProperties.get(i).toLowerCase(Locale.US);
+			if (!SKIP_HEADERS.contains(name)) {
+				headers.add(name);
+				headers.add(requestProperties.get(i + 1));
+				contentLengthSet |= "content-length".equals(name);
+			}
+		}
+		if (fixedLength >= 0 && !contentLengthSet) {
+			headers.add("content-length");
+			headers.add(Long.toString(fixedLength));
+		}
+		return headers;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private HttpURLConnection createDelegate() throws IOException {
+		HttpURLConnection connection = transport.openFallbackConnection(getURL());
+		if (connection instanceof HttpsURLConnection) {
+			HttpsURLConnection secureConnection = (HttpsURLConnection) connection;
+			secureConnection.setSSLSocketFactory(getSSLSocketFactory());
+			secureConnection.setHostnameVerifier(getHostnameVerifier());
+		}
+		connection.setRequestMethod(getRequestMethod());
+		connection.setConnectTimeout(getConnectTimeout());
+		connection.setReadTimeout(getReadTimeout());
+		connection.setUseCaches(getUseCaches());
+		connection.setInstanceFollowRedirects(getInstanceFollowRedirects());
+		connection.setDoOutput(getDoOutput());
+		if (fixedLength >= 0) {
+			if (C.API_KITKAT) {
+				connection.setFixedLengthStreamingMode(fixedLength);
+			} else {
+				connection.setFixedLengthStreamingMode((int) fixedLength);
+			}
+		}
+		for (int i = 0; i < requestProperties.size(); i += 2) {
+			connection.addRequestProperty(requestProperties.get(i), requestProperties.get(i + 1));
+		}
+		return connection;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (connected) {
+			return;
+		}
+		if (disconnected) {
+			throw new IOException("Disconnected");
+		}
+		Http2Connection.Stream stream = transport.newStream(getURL(), getSSLSocketFactory(), getHostnameVerifier(),
+				getConnectTimeout(), buildRequestHeaders(), !getDoOutput());
+		if (stream != null) {
+			this.stream = stream;
+		} else {
+			HttpURLConnection delegate = createDelegate();
+			this.delegate = delegate;
+			delegate.connect();
+		}
+		connected = true;
+		if (disconnected) {
+			disconnect();
+			throw new IOException("Disconnected");
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		disconnected = true;
+		HttpURLConnection delegate = this.delegate;
+		Http2Connection.Stream stream = this.stream;
+		if (delegate != null) {
+			delegate.disconnect();
+		} else if (stream != null) {
+			stream.close();
+		}
+	}
+
+	@Override
+	public boolean usingProxy() {
+		HttpURLConnection delegate = this.delegate;
+		return delegate != null && delegate.usingProxy();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (!getDoOutput()) {
+			throw new ProtocolException("Output is disabled");
+		}
+		connect();
+		if (delegate != null) {
+			return delegate.getOutputStream();
+		}
+		if (outputStream == null) {
+			outputStream = new StreamOutputStream();
+		}
+		return outputStream;
+	}
+
+	private boolean readResponse() throws IOException {
+		connect();
+		if (delegate != null) {
+			return false;
+		}
+		if (responseHeaders == null) {
+			if (getDoOutput()) {
+				if (outputStream == null) {
+					outputStream = new StreamOutputStream();
+				}
+				outputStream.close();
+			}
+			List<String> headers = stream.readHeaders(getReadTimeout());
+			ArrayList<String> responseHeaders = new ArrayList<>(headers.size());
+			int responseCode = -1;
+			for (int i = 0; i < headers.size(); i += 2) {
+				String name = headers.get(i);
+				if (":status".equals(name)) {
+					try {
+						responseCode = Integer.parseInt(headers.get(i + 1));
+					} catch (NumberFormatException e) {
+						throw new ProtocolException("Invalid status");
+					}
+				} else if (!name.startsWith(":")) {
+					responseHeaders.add(name);
+					responseHeaders.add(headers.get(i + 1));
+				}
+			}
+			this.responseCode = responseCode;
+			this.responseHeaders = responseHeaders;
+			responseHeaderFields = Collections.unmodifiableMap(toMultimap(responseHeaders, 0));
+		}
+		return true;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		return readResponse() ? responseCode : delegate.getResponseCode();
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		// HTTP/2 doesn't transfer reason phrase
+		return readResponse() ? "" : delegate.getResponseMessage();
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		try {
+			if (!readResponse()) {
+				return delegate.getHeaderField(name);
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		String value = null;
+		for (int i = 0; i < responseHeaders.size(); i += 2) {
+			if (responseHeaders.get(i).equalsIgnoreCase(name)) {
+				value = responseHeaders.get(i + 1);
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public String getHeaderFieldKey(int n) {
+		try {
+			if (!readResponse()) {
+				return delegate.getHeaderFieldKey(n);
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return n > 0 && 2 * n <= responseHeaders.size() ? responseHeaders.get(2 * n - 2) : null;
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		try {
+			if (!readResponse()) {
+				return delegate.getHeaderField(n);
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		if (n == 0) {
+			return "HTTP/2 " + responseCode;
+		}
+		return n > 0 && 2 * n <= responseHeaders.size() ? responseHeaders.get(2 * n - 1) : null;
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		try {
+			if (!readResponse()) {
+				return delegate.getHeaderFields();
+			}
+		} catch (IOException e) {
+			return Collections.emptyMap();
+		}
+		return responseHeaderFields;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (!readResponse()) {
+			return delegate.getInputStream();
+		}
+		if (responseCode >= HTTP_BAD_REQUEST) {
+			throw new FileNotFoundException(getURL().toString());
+		}
+		if (inputStream == null) {
+			inputStream = new StreamInputStream();
+		}
+		return inputStream;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		try {
+			if (!readResponse()) {
+				return delegate.getErrorStream();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		if (responseCode < HTTP_BAD_REQUEST) {
+			return null;
+		}
+		if (inputStream == null) {
+			inputStream = new StreamInputStream();
+		}
+		return inputStream;
+	}
+
+	private SSLSession getSession() {
+		HttpURLConnection delegate = this.delegate;
+		if (delegate != null) {
+			return null;
+		}
+		Http2Connection.Stream stream = this.stream;
+		if (stream == null) {
+			throw new IllegalStateException("Not connected");
+		}
+		return stream.getConnection().getSession();
+	}
+
+	@Override
+	public String getCipherSuite() {
+		SSLSession session = getSession();
+		return session != null ? session.getCipherSuite() : ((HttpsURLConnection) delegate).getCipherSuite();
+	}
+
+	@Override
+	public Certificate[] getLocalCertificates() {
+		SSLSession session = getSession();
+		return session != null ? session.getLocalCertificates()
+				: ((HttpsURLConnection) delegate).getLocalCertificates();
+	}
+
+	@Override
+	public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+		SSLSession session = getSession();
+		return session != null ? session.getPeerCertificates()
+				: ((HttpsURLConnection) delegate).getServerCertificates();
+	}
+
+	private class StreamOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[8192];
+		private int count;
+		private boolean closed;
+
+		private void checkClosed() throws IOException {
+			if (closed) {
+				throw new IOException("Stream is closed");
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			checkClosed();
+			if (count == buffer.length) {
+				flush();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(@NonNull byte[] b, int off, int len) throws IOException {
+			checkClosed();
+			if (count + len > buffer.length) {
+				flush();
+			}
+			if (len >= buffer.length) {
+				stream.write(b, off, len, false, getReadTimeout());
+			} else {
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			checkClosed();
+			if (count > 0) {
+				stream.write(buffer, 0, count, false, getReadTimeout());
+				count = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				stream.write(buffer, 0, count, true, getReadTimeout());
+				count = 0;
+			}
+		}
+	}
+
+	private class StreamInputStream extends InputStream {
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			int count = read(buffer, 0, 1);
+			return count > 0 ? buffer[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(@NonNull byte[] b, int off, int len) throws IOException {
+			return stream.read(b, off, len, getReadTimeout());
+		}
+
+		@Override
+		public int available() {
+			return stream.available();
+		}
+
+		@Override
+		public void close() {
+			stream.close();
+		}
+	}
+}
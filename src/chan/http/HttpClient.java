@@ -15,6 +15,7 @@ import com.mishiranu.dashchan.C;
 import com.mishiranu.dashchan.content.AdvancedPreferences;
 import com.mishiranu.dashchan.content.MainApplication;
 import com.mishiranu.dashchan.content.Preferences;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.util.IOUtils;
 import java.io.BufferedInputStream;
@@ -24,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -54,7 +56,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
@@ -65,6 +66,7 @@ import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLProtocolException;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.X509TrustManager;
@@ -91,7 +93,14 @@ public class HttpClient {
 
 	static final int HTTP_TEMPORARY_REDIRECT = 307;
 
+	// Idle connections are evicted after this time, servers usually close them earlier than 5 minutes default
+	private static final int KEEP_ALIVE_DURATION = 60000;
+	private static final int SSL_SESSION_CACHE_SIZE = 100;
+	private static final int SSL_SESSION_TIMEOUT = 8 * 60 * 60;
+
 	static {
+		// Platform connection pool reads this property when it's created with the first connection
+		System.setProperty("http.keepAliveDuration", Integer.toString(KEEP_ALIVE_DURATION));
 		if (!C.API_PIE) {
 			int poolSize = 20;
 			System.setProperty("http.maxConnections", Integer.toString(poolSize));
@@ -103,11 +112,23 @@ public class HttpClient {
 				Field maxIdleConnectionsField = connectionPool.getClass().getDeclaredField("maxIdleConnections");
 				maxIdleConnectionsField.setAccessible(true);
 				maxIdleConnectionsField.setInt(connectionPool, poolSize);
+				Field keepAliveDurationNsField = connectionPool.getClass().getDeclaredField("keepAliveDurationNs");
+				keepAliveDurationNsField.setAccessible(true);
+				keepAliveDurationNsField.setLong(connectionPool, KEEP_ALIVE_DURATION * 1000000L);
 			} catch (Exception e) {
 				// Reflective operation, ignore exception
 			}
 		}
 
+		try {
+			// Keep sessions for resumption, so new connections to the same host require abbreviated handshake
+			SSLSessionContext sessionContext = SSLContext.getDefault().getClientSessionContext();
+			sessionContext.setSessionCacheSize(SSL_SESSION_CACHE_SIZE);
+			sessionContext.setSessionTimeout(SSL_SESSION_TIMEOUT);
+		} catch (Exception e) {
+			// Ignore exception
+		}
+
 		SHORT_RESPONSE_MESSAGES.put("Internal Server Error", "Internal Error");
 		SHORT_RESPONSE_MESSAGES.put("Service Temporarily Unavailable", "Service Unavailable");
 
@@ -261,6 +282,14 @@ public class HttpClient {
 	}
 
 	private final HashMap<String, ProxyData> proxies = new HashMap<>();
+
+	private final HttpTransport defaultTransport = (url, proxy) -> (HttpURLConnection) (proxy != null
+			? url.openConnection(proxy) : url.openConnection());
+	private final HttpTransport http2Transport = new Http2Transport(defaultTransport);
+
+	private HttpTransport getTransport(Chan chan) {
+		return AdvancedPreferences.isHttp2(chan.name) ? http2Transport : defaultTransport;
+	}
 	private final ThreadLocal<HandshakeSSLSocket.Session> handshakeSessions = new ThreadLocal<>();
 
 	private boolean ssl3Disabled = false;
@@ -338,7 +367,7 @@ public class HttpClient {
 	}
 
 	HttpResponse execute(HttpSession session, HttpRequest request) throws HttpException {
-		handshakeSessions.set(new HandshakeSSLSocket.Session(request.connectTimeout));
+		handshakeSessions.set(new HandshakeSSLSocket.Session(session.holder.chan.name, request.connectTimeout));
 		try {
 			while (true) {
 				try {
@@ -414,14 +443,17 @@ public class HttpClient {
 		session.checkExecuting();
 		session.disconnectAndClear();
 		session.executing = true;
+		session.cachedResponse = false;
+		session.cacheUri = null;
 		try {
 			Uri requestedUri = session.getCurrentRequestedUri();
 			if (!session.holder.chan.locator.isWebScheme(requestedUri)) {
 				throw new HttpException(ErrorItem.Type.UNSUPPORTED_SCHEME, false, false);
 			}
 			URL url = encodeUri(requestedUri);
-			HttpURLConnection connection = (HttpURLConnection) (session.proxy != null
-					? url.openConnection(session.proxy) : url.openConnection());
+			HandshakeSSLSocket.Session handshakeSession = handshakeSessions.get();
+			int handshakes = handshakeSession != null ? handshakeSession.handshakes : 0;
+			HttpURLConnection connection = getTransport(session.holder.chan).openConnection(url, session.proxy);
 			if (connection instanceof HttpsURLConnection) {
 				HttpsURLConnection secureConnection = (HttpsURLConnection) connection;
 				secureConnection.setSSLSocketFactory(getSSLSocketFactory(session.verifyCertificate));
@@ -485,6 +517,18 @@ public class HttpClient {
 			if (validator != null) {
 				validator.write(connection);
 			}
+			String cacheUri = null;
+			HttpValidator cacheValidator = null;
+			if (ResponseCache.isCacheable(session.holder, request)) {
+				cacheUri = requestedUri.toString();
+				// Explicit validator means the caller keeps the previous response itself
+				if (validator == null) {
+					cacheValidator = ResponseCache.getValidator(session.holder.chan.name, cacheUri);
+					if (cacheValidator != null) {
+						cacheValidator.write(connection);
+					}
+				}
+			}
 			if (request.rangeStart >= 0 || request.rangeEnd >= 0) {
 				connection.setRequestProperty("Range", "bytes=" +
 						(request.rangeStart >= 0 ? request.rangeStart : "") + "-" +
@@ -529,6 +573,10 @@ public class HttpClient {
 					throw e;
 				}
 			}
+			if (handshakeSession != null && connection instanceof HttpsURLConnection) {
+				ConnectionStatistics.getInstance().addSecureRequest(session.holder.chan.name,
+						handshakeSession.handshakes == handshakes);
+			}
 			session.closeInput = true;
 			HttpValidator resultValidator = HttpValidator.obtain(connection);
 			String contentType = connection.getHeaderField("Content-Type");
@@ -594,6 +642,35 @@ public class HttpClient {
 				throw new HttpException(responseCode, responseMessage);
 			}
 
+			if (cacheUri != null) {
+				if (cacheValidator != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					session.disconnectAndClear();
+					PagesDatabase.CachedResponse cachedResponse = ResponseCache
+							.get(session.holder.chan.name, cacheUri);
+					if (cachedResponse == null) {
+						// Response was evicted after the validator was read
+						if (session.nextAttempt()) {
+							throw new RetryException();
+						} else {
+							throw new HttpException(ErrorItem.Type.DOWNLOAD, false, false);
+						}
+					}
+					session.cachedResponse = true;
+					response = new HttpResponse(session, resultValidator != null
+							? resultValidator : cachedResponse.validator,
+							cachedResponse.charsetName, cachedResponse.data);
+					session.response = response;
+					session.holder.checkInterrupted();
+					return response;
+				} else if (responseCode == HttpURLConnection.HTTP_OK) {
+					if (resultValidator != null && ResponseCache.isStorable(connection)) {
+						session.cacheUri = cacheUri;
+					} else if (cacheValidator != null) {
+						ResponseCache.remove(session.holder.chan.name, cacheUri);
+					}
+				}
+			}
+
 			if (session.holder.chan.name != null && session.mayCheckFirewallBlock &&
 					requestMethod != HttpRequest.RequestMethod.HEAD) {
 				FirewallResolver.CheckResult result;
@@ -687,7 +764,8 @@ public class HttpClient {
 					throw new HttpException(ErrorItem.Type.EMPTY_RESPONSE, false, false);
 				}
 				response.session.holder.checkInterrupted();
-				input = new BufferedInputStream(input, 8192);
+				input = new PooledBufferedInputStream(new CountingInputStream(input,
+						response.session.holder.chan.name));
 				switch (Encoding.get(connection)) {
 					case IDENTITY: {
 						break;
@@ -943,6 +1021,47 @@ public class HttpClient {
 		}
 	}
 
+	private static class PooledBufferedInputStream extends BufferedInputStream {
+		public PooledBufferedInputStream(InputStream input) {
+			super(input, 1);
+			buf = BufferPool.obtain();
+		}
+
+		@Override
+		public void close() throws IOException {
+			byte[] buffer = buf;
+			super.close();
+			BufferPool.release(buffer);
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private final String chanName;
+
+		public CountingInputStream(InputStream input, String chanName) {
+			super(input);
+			this.chanName = chanName;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result >= 0) {
+				ConnectionStatistics.getInstance().addBytes(chanName, 1, 0);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(@NonNull byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				ConnectionStatistics.getInstance().addBytes(chanName, result, 0);
+			}
+			return result;
+		}
+	}
+
 	private static class ClientInputStream extends InputStream {
 		private final InputStream input;
 		private final HttpSession session;
@@ -1059,6 +1178,9 @@ public class HttpClient {
 		}
 
 		private void updateProgress(long value) {
+			if (value > 0) {
+				ConnectionStatistics.getInstance().addBytes(session.holder.chan.name, 0, value);
+			}
 			if (listener != null && value > 0) {
 				long progress = this.progress.addAndGet(value);
 				listener.onOutputProgressChange(progress, contentLength);
@@ -1077,71 +1199,20 @@ public class HttpClient {
 		}
 	}
 
-	private final HashMap<String, HttpURLConnection> singleConnections = new HashMap<>();
-	private final HashMap<HttpURLConnection, String> singleConnectionIdentifiers = new HashMap<>();
-
-	private final HashMap<String, AtomicBoolean> delayLocks = new HashMap<>();
+	// Requests of such chans are granted one by one, so parallel requests only wait for each other
+	public boolean isSerialized(String chanName) {
+		return AdvancedPreferences.isSingleConnection(chanName) || RequestScheduler.getInstance().isDelayed(chanName);
+	}
 
 	// Called from HttpSession
-	void onConnect(Chan chan, HttpURLConnection connection, int delay) throws InterruptedHttpException {
-		if (AdvancedPreferences.isSingleConnection(chan.name)) {
-			synchronized (singleConnections) {
-				while (singleConnections.containsKey(chan.name)) {
-					try {
-						singleConnections.wait();
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						throw new InterruptedHttpException();
-					}
-				}
-				singleConnections.put(chan.name, connection);
-				singleConnectionIdentifiers.put(connection, chan.name);
-			}
-		}
-		if (delay > 0) {
-			URL url = connection.getURL();
-			String key = url.getAuthority();
-			AtomicBoolean delayLock;
-			synchronized (delayLocks) {
-				delayLock = delayLocks.get(key);
-				if (delayLock == null) {
-					delayLock = new AtomicBoolean(false);
-					delayLocks.put(key, delayLock);
-				}
-			}
-			synchronized (delayLock) {
-				try {
-					while (delayLock.get()) {
-						delayLock.wait();
-					}
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					return;
-				}
-				delayLock.set(true);
-				try {
-					Thread.sleep(delay);
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-				} finally {
-					delayLock.set(false);
-					delayLock.notifyAll();
-				}
-			}
-		}
+	void onConnect(HttpHolder holder, HttpURLConnection connection, int delay) throws InterruptedHttpException {
+		String singleChanName = AdvancedPreferences.isSingleConnection(holder.chan.name) ? holder.chan.name : null;
+		RequestScheduler.getInstance().acquire(holder, connection, singleChanName, delay);
 	}
 
 	// Called from HttpSession
 	void onDisconnect(HttpURLConnection connection) {
-		synchronized (singleConnections) {
-			String chanName = singleConnectionIdentifiers.remove(connection);
-			if (chanName != null) {
-				if (connection == singleConnections.get(chanName)) {
-					singleConnections.remove(chanName);
-					singleConnections.notifyAll();
-				}
-			}
-		}
+		RequestScheduler.getInstance().release(connection);
 	}
 
 	private static class SSLSocketFactoryWrapper extends SSLSocketFactory {
@@ -1203,10 +1274,13 @@ public class HttpClient {
 
 	private static class HandshakeSSLSocket extends SSLSocketWrapper {
 		public static class Session {
+			public final String chanName;
 			public final int timeout;
 			public long totalTime;
+			public int handshakes;
 
-			public Session(int timeout) {
+			public Session(String chanName, int timeout) {
+				this.chanName = chanName;
 				this.timeout = timeout;
 			}
 
@@ -1220,6 +1294,12 @@ public class HttpClient {
 		public HandshakeSSLSocket(SSLSocket socket, Session session) {
 			super(socket);
 			this.session = session;
+			SSLSocket realSocket = getRealSocket();
+			try {
+				realSocket.getClass().getMethod("setUseSessionTickets", boolean.class).invoke(realSocket, true);
+			} catch (Exception e) {
+				// Reflective operation, ignore exception
+			}
 		}
 
 		@Override
@@ -1228,8 +1308,16 @@ public class HttpClient {
 				throw new HandshakeTimeoutException();
 			}
 			long start = SystemClock.elapsedRealtime();
+			long startTime = System.currentTimeMillis();
 			try {
 				super.startHandshake();
+				long end = SystemClock.elapsedRealtime();
+				if (session != null) {
+					session.handshakes++;
+					// Resumed session was created during one of the previous handshakes
+					boolean resumed = getSession().getCreationTime() < startTime;
+					ConnectionStatistics.getInstance().addHandshake(session.chanName, end - start, resumed);
+				}
 			} catch (IOException e) {
 				long end = SystemClock.elapsedRealtime();
 				if (session != null) {
@@ -1282,12 +1370,6 @@ public class HttpClient {
 	private static class NoSSLv3SSLSocket extends SSLSocketWrapper {
 		public NoSSLv3SSLSocket(SSLSocket socket) {
 			super(socket);
-			SSLSocket realSocket = getRealSocket();
-			try {
-				realSocket.getClass().getMethod("setUseSessionTickets", boolean.class).invoke(realSocket, true);
-			} catch (Exception e) {
-				// Reflective operation, ignore exception
-			}
 		}
 
 		@Override
@@ -24,9 +24,14 @@ public final class HttpHolder {
 	private HttpSession session;
 	private ArrayList<HttpSession> sessions;
 
+	// Requests with higher priority are performed first when connections are limited
+	public enum Priority {INTERACTIVE, WATCHER, PREFETCH, DOWNLOAD}
+
 	final Chan chan;
 
 	boolean mayResolveFirewallBlock = true;
+	private volatile Priority priority = Priority.INTERACTIVE;
+	private volatile boolean useResponseCache;
 
 	public HttpHolder(Chan chan) {
 		this.chan = chan;
@@ -91,6 +96,24 @@ public final class HttpHolder {
 
 	public void interrupt() {
 		interrupted = true;
+		RequestScheduler.getInstance().onInterrupt();
+	}
+
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	Priority getPriority() {
+		return priority;
+	}
+
+	// GET responses with validators are stored persistently and revalidated with conditional requests
+	public void setUseResponseCache(boolean useResponseCache) {
+		this.useResponseCache = useResponseCache;
+	}
+
+	boolean isUseResponseCache() {
+		return useResponseCache;
 	}
 
 	boolean isInterrupted() {
@@ -1,23 +1,27 @@
 package chan.http;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.util.Pair;
 import chan.annotation.Public;
 import chan.text.GroupParser;
+import chan.text.JsonSerial;
+import chan.text.ParseException;
 import chan.util.StringUtils;
+import com.mishiranu.dashchan.C;
 import com.mishiranu.dashchan.content.model.ErrorItem;
+import com.mishiranu.dashchan.graphics.BitmapPool;
 import com.mishiranu.dashchan.util.IOUtils;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -60,6 +64,12 @@ public final class HttpResponse {
 		}
 	}
 
+	HttpResponse(HttpSession session, HttpValidator validator, String charsetName, byte[] bytes) {
+		this(session, validator, charsetName);
+		this.bytes = bytes;
+		extractCharset = ExtractCharset.NONE;
+	}
+
 	@Public
 	public HttpResponse(InputStream input) {
 		this(null, null, null);
@@ -166,89 +176,104 @@ public final class HttpResponse {
 		}
 	}
 
-	private static Pair<InputStream, String> extractCharsetFromHtml(InputStream input,
-			boolean checkHtml) throws IOException {
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
-		@SuppressWarnings("CharsetObjectCanBeUsed")
-		InputStreamReader reader = new InputStreamReader(new InputStream() {
-			@Override
-			public int read() throws IOException {
-				int result = input.read();
-				if (result >= 0) {
-					output.write(result);
-				}
-				return result;
-			}
-
-			@Override
-			public int read(byte[] b, int off, int len) throws IOException {
-				int result = input.read(b, off, len);
-				if (result > 0) {
-					output.write(b, off, result);
-				}
-				return result;
-			}
-		}, "ISO-8859-1");
-		StringBuilder builder = new StringBuilder();
-		if (checkHtml) {
-			final String minHtmlStart = "<!DOCTYPE html><html><head>";
-			char[] buffer = new char[minHtmlStart.length()];
-			int count = reader.read(buffer);
-			if (count >= 0) {
-				builder.append(buffer, 0, count);
-				String string = builder.toString().toLowerCase(Locale.US);
-				checkHtml = !string.contains("<!doctype html");
-			}
-		}
-		boolean foundHeadClose = false;
-		if (!checkHtml) {
-			final String headClose = "</head>";
-			char[] buffer = new char[1024];
-			int count;
-			while ((count = reader.read(buffer)) >= 0) {
-				for (int i = 0; i < count; i++) {
-					buffer[i] = Character.toLowerCase(buffer[i]);
+	// Head is scanned up to this length, the rest of the document is left unread
+	private static final int MAX_HTML_HEAD_LENGTH = 64 * 1024;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] HTML_START = "<!DOCTYPE html><html><head>".getBytes(ISO_8859_1);
+	private static final byte[] DOCTYPE_HTML = "<!doctype html".getBytes(ISO_8859_1);
+	private static final byte[] HEAD_CLOSE = "</head>".getBytes(ISO_8859_1);
+	private static final byte[] META_OPEN = "<meta".getBytes(ISO_8859_1);
+
+	// Pattern must be in lower case
+	private static int indexOfIgnoreCase(byte[] bytes, int from, int to, byte[] pattern) {
+		OUTER: for (int i = from, end = to - pattern.length; i <= end; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				int b = bytes[i + j];
+				if (b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
 				}
-				int checkFrom = Math.max(0, builder.length() - headClose.length());
-				builder.append(buffer, 0, count);
-				int index = builder.indexOf(headClose, checkFrom);
-				if (index >= 0) {
-					builder.setLength(index + headClose.length());
-					foundHeadClose = true;
-					break;
+				if (b != pattern[j]) {
+					continue OUTER;
 				}
 			}
+			return i;
 		}
-		ByteArrayInputStream headInput = new ByteArrayInputStream(output.toByteArray());
-		if (checkHtml) {
-			return new Pair<>(new ConcatInputStream(headInput, input), null);
-		}
-		if (!foundHeadClose) {
-			try (InputStream ignored = input) {
-				return new Pair<>(headInput, null);
+		return -1;
+	}
+
+	private static int indexOf(byte[] bytes, int from, int to, byte b) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] == b) {
+				return i;
 			}
 		}
-		String charsetName = null;
+		return -1;
+	}
+
+	private static String extractCharsetFromMeta(byte[] bytes, int count) {
 		int from = 0;
 		while (true) {
-			int start = builder.indexOf("<meta", from);
-			int end = builder.indexOf(">", start + 1);
-			if (start < 0 || end <= start) {
-				break;
+			int start = indexOfIgnoreCase(bytes, from, count, META_OPEN);
+			int end = start >= 0 ? indexOf(bytes, start + META_OPEN.length, count, (byte) '>') : -1;
+			if (end < 0) {
+				return null;
 			}
-			String attrs = builder.substring(start + 5, end).toLowerCase(Locale.US);
+			String attrs = new String(bytes, start + META_OPEN.length, end - start - META_OPEN.length,
+					ISO_8859_1).toLowerCase(Locale.US);
 			if ("content-type".equals(GroupParser.extractAttr(attrs, "http-equiv"))) {
 				String contentType = GroupParser.extractAttr(attrs, "content");
-				charsetName = HttpClient.extractCharsetName(contentType);
-				break;
+				return HttpClient.extractCharsetName(contentType);
 			} else {
-				charsetName = GroupParser.extractAttr(attrs, "charset");
+				String charsetName = GroupParser.extractAttr(attrs, "charset");
 				if (charsetName != null) {
-					break;
+					return charsetName;
 				}
 			}
 			from = end + 1;
 		}
+	}
+
+	private static Pair<InputStream, String> extractCharsetFromHtml(InputStream input,
+			boolean checkHtml) throws IOException {
+		byte[] buffer = new byte[BufferPool.BUFFER_SIZE];
+		int count = 0;
+		int headEnd = -1;
+		boolean end = false;
+		while (count < MAX_HTML_HEAD_LENGTH) {
+			if (count == buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.min(2 * buffer.length, MAX_HTML_HEAD_LENGTH));
+			}
+			int read = input.read(buffer, count, buffer.length - count);
+			if (read < 0) {
+				end = true;
+				break;
+			}
+			int checkFrom = Math.max(0, count - HEAD_CLOSE.length + 1);
+			count += read;
+			if (checkHtml && count >= HTML_START.length) {
+				if (indexOfIgnoreCase(buffer, 0, HTML_START.length, DOCTYPE_HTML) < 0) {
+					break;
+				}
+				checkHtml = false;
+			}
+			if (!checkHtml) {
+				int index = indexOfIgnoreCase(buffer, checkFrom, count, HEAD_CLOSE);
+				if (index >= 0) {
+					headEnd = index;
+					break;
+				}
+			}
+		}
+		if (checkHtml && end) {
+			checkHtml = indexOfIgnoreCase(buffer, 0, Math.min(count, HTML_START.length), DOCTYPE_HTML) < 0;
+		}
+		ByteArrayInputStream headInput = new ByteArrayInputStream(buffer, 0, count);
+		String charsetName = checkHtml ? null : extractCharsetFromMeta(buffer, headEnd >= 0 ? headEnd : count);
+		if (end) {
+			try (InputStream ignored = input) {
+				return new Pair<>(headInput, charsetName);
+			}
+		}
 		return new Pair<>(new ConcatInputStream(headInput, input), charsetName);
 	}
 
@@ -273,6 +298,10 @@ public final class HttpResponse {
 						extractCharset = ExtractCharset.NONE;
 					}
 				}
+				if (session.cacheUri != null) {
+					this.input = new ResponseCache.StoreInputStream(this.input, session.holder.chan.name,
+							session.cacheUri, validator, charsetName);
+				}
 			}
 		}
 		return input;
@@ -300,14 +329,46 @@ public final class HttpResponse {
 		}
 	}
 
+	private static byte[] readFully(InputStream input, long length) throws IOException {
+		byte[] bytes = null;
+		int count = 0;
+		if (length >= 0 && length <= Runtime.getRuntime().maxMemory() / 4) {
+			// Read directly to the resulting array to avoid copying
+			bytes = new byte[(int) length];
+			count = IOUtils.readExactly(input, bytes, 0, bytes.length);
+			if (count < bytes.length) {
+				return Arrays.copyOf(bytes, count);
+			}
+			int next = input.read();
+			if (next < 0) {
+				return bytes;
+			}
+			// Response is longer than declared
+			bytes = Arrays.copyOf(bytes, count + 1);
+			bytes[count++] = (byte) next;
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(count, 32));
+		if (bytes != null) {
+			output.write(bytes, 0, count);
+			bytes = null;
+		}
+		byte[] buffer = BufferPool.obtain();
+		try {
+			while ((count = input.read(buffer)) >= 0) {
+				output.write(buffer, 0, count);
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+		return output.toByteArray();
+	}
+
 	@Public
 	public byte[] readBytes() throws HttpException {
 		InputStream input = prepareOrGetInput();
 		if (input != null) {
 			try (InputStream ignored = input) {
-				ByteArrayOutputStream output = new ByteArrayOutputStream();
-				IOUtils.copyStream(input, output);
-				bytes = output.toByteArray();
+				bytes = readFully(input, getLength());
 			} catch (IOException e) {
 				throw fail(e);
 			} finally {
@@ -346,10 +407,47 @@ public final class HttpResponse {
 		return readString();
 	}
 
+	// Reader doesn't handle response encoding, JSON is expected to be in one of UTF encodings
+	@Public
+	public JsonSerial.Reader openJsonReader() throws HttpException, ParseException {
+		InputStream input = open();
+		boolean success = false;
+		try {
+			JsonSerial.Reader reader = JsonSerial.reader(input);
+			success = true;
+			return reader;
+		} catch (IOException e) {
+			throw fail(e);
+		} finally {
+			if (!success) {
+				IOUtils.close(input);
+			}
+		}
+	}
+
 	@Public
 	public Bitmap readBitmap() throws HttpException {
+		if (C.API_KITKAT && bytes == null && isImage()) {
+			// Decode while reading the response, mark and reset of the bounds pass require KitKat
+			InputStream input = prepareOrGetInput();
+			if (input != null) {
+				try (InputStream ignored = input) {
+					return BitmapPool.getInstance().decodeStream(input);
+				} catch (IOException e) {
+					throw fail(e);
+				} finally {
+					this.input = null;
+				}
+			}
+		}
 		readBytes();
-		return bytes != null ? BitmapFactory.decodeByteArray(bytes, 0, bytes.length) : null;
+		return bytes != null ? BitmapPool.getInstance().decodeByteArray(bytes, 0, bytes.length) : null;
+	}
+
+	private boolean isImage() {
+		List<String> contentTypes = getHeaderFields().get("Content-Type");
+		return contentTypes != null && contentTypes.size() == 1 &&
+				StringUtils.emptyIfNull(contentTypes.get(0)).startsWith("image/");
 	}
 
 	// TODO CHAN
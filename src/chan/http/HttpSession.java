@@ -27,6 +27,9 @@ public final class HttpSession {
 	boolean forceGet;
 	boolean executing;
 	boolean closeInput;
+	// Response wasn't modified and its body is taken from response cache
+	boolean cachedResponse;
+	String cacheUri;
 
 	HttpURLConnection connection;
 	HttpURLConnection deadConnection;
@@ -81,7 +84,7 @@ public final class HttpSession {
 			throw new HttpClient.InterruptedHttpException();
 		}
 		if (connection != null) {
-			client.onConnect(holder.chan, connection, delay);
+			client.onConnect(holder, connection, delay);
 		}
 	}
 
@@ -156,6 +159,9 @@ public final class HttpSession {
 	}
 
 	int getResponseCode() {
+		if (cachedResponse) {
+			return HttpURLConnection.HTTP_OK;
+		}
 		HttpURLConnection connection = getConnectionForHeaders();
 		if (connection != null) {
 			try {
@@ -168,6 +174,9 @@ public final class HttpSession {
 	}
 
 	String getResponseMessage() {
+		if (cachedResponse) {
+			return "OK";
+		}
 		HttpURLConnection connection = getConnectionForHeaders();
 		if (connection != null) {
 			try {
@@ -0,0 +1,11 @@
+package chan.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+// Creates connections for HttpClient, proxy and SSL configuration are applied by the client
+interface HttpTransport {
+	HttpURLConnection openConnection(URL url, Proxy proxy) throws IOException;
+}
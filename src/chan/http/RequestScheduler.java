@@ -0,0 +1,165 @@
+package chan.http;
+
+import android.os.SystemClock;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+// Grants connections respecting per-host request delay (token bucket with capacity of 1 token)
+// and single connection per chan mode. Waiting requests are granted in order of holder priority,
+// requests of the same priority are granted in arrival order.
+final class RequestScheduler {
+	private static final RequestScheduler INSTANCE = new RequestScheduler();
+
+	public static RequestScheduler getInstance() {
+		return INSTANCE;
+	}
+
+	private RequestScheduler() {}
+
+	private static class Ticket {
+		public final HttpHolder holder;
+		public final String chanName;
+		public final String host;
+		public final int delay;
+		public final long sequence;
+
+		public boolean granted;
+
+		public Ticket(HttpHolder holder, String chanName, String host, int delay, long sequence) {
+			this.holder = holder;
+			this.chanName = chanName;
+			this.host = host;
+			this.delay = delay;
+			this.sequence = sequence;
+		}
+	}
+
+	private static final Comparator<Ticket> COMPARATOR = (lhs, rhs) -> {
+		int result = lhs.holder.getPriority().compareTo(rhs.holder.getPriority());
+		return result != 0 ? result : Long.compare(lhs.sequence, rhs.sequence);
+	};
+
+	private final ArrayList<Ticket> tickets = new ArrayList<>();
+	private final HashMap<String, Long> hostTokenTimes = new HashMap<>();
+	private final HashSet<String> busyChanNames = new HashSet<>();
+	private final HashMap<HttpURLConnection, String> connectionChanNames = new HashMap<>();
+	private final HashSet<String> delayedChanNames = new HashSet<>();
+	private long sequence;
+
+	private final HashSet<String> workBlockedHosts = new HashSet<>();
+	private final HashSet<String> workBlockedChanNames = new HashSet<>();
+
+	// Returns the time to wait before the next dispatch or 0 if dispatch is required only after release
+	private long dispatch() {
+		Collections.sort(tickets, COMPARATOR);
+		long time = SystemClock.elapsedRealtime();
+		long nextTokenTime = Long.MAX_VALUE;
+		boolean granted = false;
+		HashSet<String> blockedHosts = workBlockedHosts;
+		HashSet<String> blockedChanNames = workBlockedChanNames;
+		Iterator<Ticket> iterator = tickets.iterator();
+		while (iterator.hasNext()) {
+			Ticket ticket = iterator.next();
+			boolean chanAvailable = ticket.chanName == null || !busyChanNames.contains(ticket.chanName) &&
+					!blockedChanNames.contains(ticket.chanName);
+			boolean hostAvailable = ticket.host == null || !blockedHosts.contains(ticket.host);
+			Long tokenTime = ticket.host != null ? hostTokenTimes.get(ticket.host) : null;
+			boolean tokenAvailable = tokenTime == null || tokenTime <= time;
+			if (chanAvailable && hostAvailable && tokenAvailable) {
+				iterator.remove();
+				ticket.granted = true;
+				granted = true;
+				if (ticket.chanName != null) {
+					busyChanNames.add(ticket.chanName);
+				}
+				if (ticket.host != null) {
+					hostTokenTimes.put(ticket.host, time + ticket.delay);
+				}
+			} else {
+				// Requests behind the blocked one must not overtake it
+				if (ticket.chanName != null) {
+					blockedChanNames.add(ticket.chanName);
+				}
+				if (ticket.host != null) {
+					blockedHosts.add(ticket.host);
+				}
+				if (chanAvailable && hostAvailable) {
+					nextTokenTime = Math.min(nextTokenTime, tokenTime);
+				}
+			}
+		}
+		blockedHosts.clear();
+		blockedChanNames.clear();
+		Iterator<Long> tokenTimesIterator = hostTokenTimes.values().iterator();
+		while (tokenTimesIterator.hasNext()) {
+			if (tokenTimesIterator.next() <= time) {
+				tokenTimesIterator.remove();
+			}
+		}
+		if (granted) {
+			notifyAll();
+		}
+		return nextTokenTime != Long.MAX_VALUE ? Math.max(nextTokenTime - time, 1) : 0;
+	}
+
+	void acquire(HttpHolder holder, HttpURLConnection connection, String singleChanName, int delay)
+			throws HttpClient.InterruptedHttpException {
+		if (singleChanName == null && delay <= 0) {
+			return;
+		}
+		String host = delay > 0 ? connection.getURL().getAuthority() : null;
+		synchronized (this) {
+			if (delay > 0 && holder.chan.name != null) {
+				delayedChanNames.add(holder.chan.name);
+			}
+			Ticket ticket = new Ticket(holder, singleChanName, host, delay, sequence++);
+			tickets.add(ticket);
+			try {
+				while (true) {
+					long waitTime = dispatch();
+					if (ticket.granted) {
+						break;
+					}
+					holder.checkInterrupted();
+					try {
+						wait(waitTime);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new HttpClient.InterruptedHttpException();
+					}
+				}
+			} finally {
+				if (!ticket.granted) {
+					tickets.remove(ticket);
+					dispatch();
+				}
+			}
+			if (singleChanName != null) {
+				connectionChanNames.put(connection, singleChanName);
+			}
+		}
+	}
+
+	synchronized void release(HttpURLConnection connection) {
+		String chanName = connectionChanNames.remove(connection);
+		if (chanName != null) {
+			busyChanNames.remove(chanName);
+			dispatch();
+		}
+	}
+
+	synchronized boolean isDelayed(String chanName) {
+		return delayedChanNames.contains(chanName);
+	}
+
+	synchronized void onInterrupt() {
+		if (!tickets.isEmpty()) {
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package chan.http;
+
+import com.mishiranu.dashchan.content.database.PagesDatabase;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Stores bodies of GET responses with validators in pages database, so repeated requests
+// are made conditional and "not modified" responses are served from the stored body
+final class ResponseCache {
+	private static final int MAX_LENGTH = 4 * 1024 * 1024;
+	// Compressed data must fit cursor window
+	private static final int MAX_DATA_LENGTH = 1024 * 1024;
+
+	private ResponseCache() {}
+
+	static boolean isCacheable(HttpHolder holder, HttpRequest request) {
+		return holder.isUseResponseCache() && holder.chan.name != null &&
+				request.requestMethod == HttpRequest.RequestMethod.GET &&
+				request.rangeStart < 0 && request.rangeEnd < 0;
+	}
+
+	static boolean isStorable(HttpURLConnection connection) {
+		String cacheControl = connection.getHeaderField("Cache-Control");
+		return cacheControl == null || !cacheControl.toLowerCase(Locale.US).contains("no-store");
+	}
+
+	static HttpValidator getValidator(String chanName, String uri) {
+		return PagesDatabase.getInstance().getResponseValidator(chanName, uri);
+	}
+
+	static PagesDatabase.CachedResponse get(String chanName, String uri) {
+		PagesDatabase.CachedResponse response = PagesDatabase.getInstance().getResponse(chanName, uri);
+		if (response != null) {
+			byte[] data = decompress(response.data, response.length);
+			if (data != null) {
+				return new PagesDatabase.CachedResponse(response.validator, response.charsetName, data.length, data);
+			}
+			remove(chanName, uri);
+		}
+		return null;
+	}
+
+	static void remove(String chanName, String uri) {
+		PagesDatabase.getInstance().removeResponse(chanName, uri);
+	}
+
+	private static void put(String chanName, String uri, HttpValidator validator, String charsetName,
+			byte[] bytes, int length) {
+		byte[] data = compress(bytes, length);
+		if (data != null) {
+			PagesDatabase.getInstance().putResponse(chanName, uri,
+					new PagesDatabase.CachedResponse(validator, charsetName, length, data));
+		} else {
+			remove(chanName, uri);
+		}
+	}
+
+	private static byte[] compress(byte[] bytes, int length) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] buffer = BufferPool.obtain();
+		try {
+			deflater.setInput(bytes, 0, length);
+			deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(length / 4);
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				output.write(buffer, 0, count);
+				if (output.size() > MAX_DATA_LENGTH) {
+					return null;
+				}
+			}
+			return output.toByteArray();
+		} finally {
+			BufferPool.release(buffer);
+			deflater.end();
+		}
+	}
+
+	private static byte[] decompress(byte[] data, int length) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] bytes = new byte[length];
+			int count = 0;
+			while (count < length && !inflater.finished()) {
+				int read = inflater.inflate(bytes, count, length - count);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				count += read;
+			}
+			return count == length ? bytes : null;
+		} catch (DataFormatException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	// Copies the body while it's read and stores it once the end of stream is reached
+	static class StoreInputStream extends FilterInputStream {
+		private final String chanName;
+		private final String uri;
+		private final HttpValidator validator;
+		private final String charsetName;
+
+		private ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private boolean finished;
+
+		public StoreInputStream(InputStream input, String chanName, String uri,
+				HttpValidator validator, String charsetName) {
+			super(input);
+			this.chanName = chanName;
+			this.uri = uri;
+			this.validator = validator;
+			this.charsetName = charsetName;
+		}
+
+		private void onRead(byte[] b, int off, int count) {
+			if (count < 0) {
+				if (!finished) {
+					finished = true;
+					if (output != null) {
+						put(chanName, uri, validator, charsetName, output.toByteArray(), output.size());
+						output = null;
+					}
+				}
+			} else if (output != null) {
+				if (output.size() + count > MAX_LENGTH) {
+					output = null;
+				} else {
+					output.write(b, off, count);
+				}
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result >= 0) {
+				if (output != null) {
+					output.write(result);
+				}
+			} else {
+				onRead(null, 0, -1);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b) throws IOException {
+			return read(b, 0, b.length);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			onRead(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			output = null;
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if (!finished && output != null) {
+					// Parsers may stop reading right before the end of stream
+					byte[] buffer = BufferPool.obtain();
+					try {
+						int count;
+						int total = 0;
+						while (total < buffer.length && (count = read(buffer)) >= 0) {
+							total += count;
+						}
+					} catch (IOException e) {
+						// Ignore exception
+					} finally {
+						BufferPool.release(buffer);
+					}
+				}
+			} finally {
+				super.close();
+			}
+		}
+	}
+}
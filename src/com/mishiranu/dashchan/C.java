@@ -75,6 +75,8 @@ public class C {
 	public static final int NOTIFICATION_ID_UPDATES = 4;
 	public static final int NOTIFICATION_ID_REPLIES = 5;
 
+	public static final int JOB_ID_WATCHER = 1;
+
 	public static final String NOTIFICATION_CHANNEL_POSTING = "posting";
 	public static final String NOTIFICATION_CHANNEL_POSTING_COMPLETE = "postingComplete";
 	public static final String NOTIFICATION_CHANNEL_DOWNLOADING = "downloading";
@@ -19,6 +19,8 @@ import org.json.JSONObject;
 public class AdvancedPreferences {
 	private static final HashMap<String, String> USER_AGENTS = new HashMap<>();
 	private static final HashSet<String> SINGLE_CONNECTIONS = new HashSet<>();
+	private static final HashSet<String> HTTP2 = new HashSet<>();
+	private static final HashMap<String, Integer> WATCHER_THREADS = new HashMap<>();
 	private static final String GOOGLE_COOKIE;
 	private static final int TAB_SIZE;
 
@@ -63,6 +65,12 @@ public class AdvancedPreferences {
 								SINGLE_CONNECTIONS.add(singleConnectionArray.getString(i));
 							}
 						}
+						JSONArray http2Array = jsonObject.optJSONArray("http2");
+						if (http2Array != null) {
+							for (int i = 0; i < http2Array.length(); i++) {
+								HTTP2.add(http2Array.getString(i));
+							}
+						}
 						JSONObject googleCookieObject = jsonObject.optJSONObject("googleCookie");
 						if (googleCookieObject != null) {
 							for (Iterator<String> keys = googleCookieObject.keys(); keys.hasNext();) {
@@ -81,6 +89,21 @@ public class AdvancedPreferences {
 								googleCookieBuilder = new CookieBuilder().append(googleCookie);
 							}
 						}
+						JSONObject watcherThreadsObject = jsonObject.optJSONObject("watcherThreads");
+						if (watcherThreadsObject != null) {
+							for (Iterator<String> keys = watcherThreadsObject.keys(); keys.hasNext();) {
+								String chanName = keys.next();
+								int watcherThreads = watcherThreadsObject.getInt(chanName);
+								if (watcherThreads > 0) {
+									WATCHER_THREADS.put(chanName, watcherThreads);
+								}
+							}
+						} else {
+							int watcherThreads = jsonObject.optInt("watcherThreads");
+							if (watcherThreads > 0) {
+								WATCHER_THREADS.put(ChanManager.EXTENSION_NAME_CLIENT, watcherThreads);
+							}
+						}
 						tabSize = jsonObject.optInt("tabSize");
 					} catch (JSONException e) {
 						e.printStackTrace();
@@ -107,6 +130,16 @@ public class AdvancedPreferences {
 		return SINGLE_CONNECTIONS.contains(chanName != null ? chanName : ChanManager.EXTENSION_NAME_CLIENT);
 	}
 
+	public static boolean isHttp2(String chanName) {
+		return HTTP2.contains(chanName != null ? chanName : ChanManager.EXTENSION_NAME_CLIENT);
+	}
+
+	// Returns the number of threads refreshed in parallel by watcher or 0 if not specified
+	public static int getWatcherThreads(String chanName) {
+		Integer watcherThreads = WATCHER_THREADS.get(chanName != null ? chanName : ChanManager.EXTENSION_NAME_CLIENT);
+		return watcherThreads != null ? watcherThreads : 0;
+	}
+
 	public static String getGoogleCookie() {
 		// Google reCAPTCHA becomes easier with HSID, SSID, SID, NID cookies
 		return GOOGLE_COOKIE;
@@ -0,0 +1,324 @@
+package com.mishiranu.dashchan.content;
+
+import chan.util.StringUtils;
+import com.mishiranu.dashchan.content.storage.AutohideStorage;
+import com.mishiranu.dashchan.util.Murmur3;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Compiled autohide rules. Rules are grouped by chan, board and thread once, and literal parts of patterns
+// are found with a single Aho-Corasick pass over each text, so regular expressions are used only as a fallback.
+// Compiled rules are reused until autohide storage is changed.
+public class AutohideMatcher {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAX_RULE_SETS = 50;
+	private static final int MIN_PREFIX_LENGTH = 2;
+	private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+	private static AutohideMatcher instance;
+
+	public static AutohideMatcher obtain() {
+		AutohideStorage autohideStorage = AutohideStorage.getInstance();
+		int version = autohideStorage.getVersion();
+		synchronized (AutohideMatcher.class) {
+			if (instance == null || instance.version != version) {
+				instance = new AutohideMatcher(version, autohideStorage.getItems());
+			}
+			return instance;
+		}
+	}
+
+	private static class Rule {
+		public final AutohideStorage.AutohideItem item;
+		public final String literal;
+		public final boolean exact;
+
+		public Rule(AutohideStorage.AutohideItem item, String literal, boolean exact) {
+			this.item = item;
+			this.literal = literal;
+			this.exact = exact;
+		}
+	}
+
+	private final int version;
+	private final List<Rule> rules;
+	private final LinkedHashMap<List<String>, RuleSet> ruleSets = new LinkedHashMap<List<String>, RuleSet>
+			(0, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<String>, RuleSet> eldest) {
+			return size() > MAX_RULE_SETS;
+		}
+	};
+
+	private AutohideMatcher(int version, List<AutohideStorage.AutohideItem> autohideItems) {
+		this.version = version;
+		ArrayList<Rule> rules = new ArrayList<>(autohideItems.size());
+		for (AutohideStorage.AutohideItem autohideItem : autohideItems) {
+			rules.add(compileRule(autohideItem));
+		}
+		this.rules = rules;
+	}
+
+	private static char toLowerCase(char c) {
+		// Case insensitive patterns match all Unicode characters on Android,
+		// upper case conversion folds characters with several lower case forms
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static String toLowerCase(String string) {
+		char[] chars = string.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	private static Rule compileRule(AutohideStorage.AutohideItem autohideItem) {
+		String value = autohideItem.value;
+		int end = 0;
+		while (end < value.length() && META_CHARACTERS.indexOf(value.charAt(end)) < 0) {
+			end++;
+		}
+		if (end == value.length()) {
+			return new Rule(autohideItem, end > 0 ? toLowerCase(value) : null, true);
+		}
+		if (value.indexOf('|') < 0) {
+			// Prefix is required by the pattern unless its last character is optional
+			char next = value.charAt(end);
+			if (next == '?' || next == '*' || next == '{') {
+				end--;
+			}
+			if (end >= MIN_PREFIX_LENGTH) {
+				return new Rule(autohideItem, toLowerCase(value.substring(0, end)), false);
+			}
+		}
+		return new Rule(autohideItem, null, false);
+	}
+
+	public RuleSet getRuleSet(String chanName, String boardName, String threadNumber) {
+		List<String> key = Arrays.asList(chanName, boardName, threadNumber);
+		synchronized (ruleSets) {
+			RuleSet ruleSet = ruleSets.get(key);
+			if (ruleSet == null) {
+				ArrayList<Rule> rules = new ArrayList<>();
+				for (Rule rule : this.rules) {
+					AutohideStorage.AutohideItem autohideItem = rule.item;
+					if ((autohideItem.chanNames == null || autohideItem.chanNames.contains(chanName)) &&
+							(StringUtils.isEmpty(autohideItem.boardName) || boardName == null ||
+									autohideItem.boardName.equals(boardName)) &&
+							(StringUtils.isEmpty(autohideItem.threadNumber) || autohideItem.boardName != null &&
+									autohideItem.threadNumber.equals(threadNumber))) {
+						rules.add(rule);
+					}
+				}
+				ruleSet = new RuleSet(rules);
+				ruleSets.put(key, ruleSet);
+			}
+			return ruleSet;
+		}
+	}
+
+	public static class Text {
+		public final String value;
+		private final int[] ends;
+
+		private Text(String value, int[] ends) {
+			this.value = value;
+			this.ends = ends;
+		}
+	}
+
+	public static class RuleSet {
+		// Identifies the rules content, so results can be stored between application launches
+		public final long fingerprint;
+
+		private final Rule[] rules;
+		private final int[] literalIds;
+		private final String[] literals;
+
+		// Aho-Corasick automaton, transitions of each node are sorted by character
+		private final char[][] keys;
+		private final int[][] targets;
+		private final int[] failures;
+		private final int[][] outputs;
+
+		private RuleSet(List<Rule> rules) {
+			this.rules = rules.toArray(new Rule[0]);
+			fingerprint = getFingerprint(this.rules);
+			literalIds = new int[rules.size()];
+			HashMap<String, Integer> literalIdsMap = new HashMap<>();
+			for (int i = 0; i < literalIds.length; i++) {
+				String literal = this.rules[i].literal;
+				if (literal != null) {
+					Integer id = literalIdsMap.get(literal);
+					if (id == null) {
+						id = literalIdsMap.size();
+						literalIdsMap.put(literal, id);
+					}
+					literalIds[i] = id;
+				} else {
+					literalIds[i] = -1;
+				}
+			}
+			literals = new String[literalIdsMap.size()];
+			for (Map.Entry<String, Integer> entry : literalIdsMap.entrySet()) {
+				literals[entry.getValue()] = entry.getKey();
+			}
+
+			ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<>();
+			ArrayList<ArrayList<Integer>> trieOutputs = new ArrayList<>();
+			trie.add(new TreeMap<>());
+			trieOutputs.add(new ArrayList<>());
+			for (int i = 0; i < literals.length; i++) {
+				int node = 0;
+				for (char c : literals[i].toCharArray()) {
+					Integer next = trie.get(node).get(c);
+					if (next == null) {
+						next = trie.size();
+						trie.get(node).put(c, next);
+						trie.add(new TreeMap<>());
+						trieOutputs.add(new ArrayList<>());
+					}
+					node = next;
+				}
+				trieOutputs.get(node).add(i);
+			}
+			int count = trie.size();
+			keys = new char[count][];
+			targets = new int[count][];
+			for (int i = 0; i < count; i++) {
+				TreeMap<Character, Integer> transitions = trie.get(i);
+				keys[i] = new char[transitions.size()];
+				targets[i] = new int[transitions.size()];
+				int j = 0;
+				for (Map.Entry<Character, Integer> entry : transitions.entrySet()) {
+					keys[i][j] = entry.getKey();
+					targets[i][j] = entry.getValue();
+					j++;
+				}
+			}
+			// Failure links are built in breadth-first order, outputs of failure nodes are merged
+			failures = new int[count];
+			outputs = new int[count][];
+			outputs[0] = new int[0];
+			int[] queue = new int[count];
+			int head = 0;
+			int tail = 0;
+			for (int target : targets[0]) {
+				queue[tail++] = target;
+			}
+			while (head < tail) {
+				int node = queue[head++];
+				ArrayList<Integer> nodeOutputs = trieOutputs.get(node);
+				int[] failureOutputs = outputs[failures[node]];
+				int[] mergedOutputs = new int[nodeOutputs.size() + failureOutputs.length];
+				for (int i = 0; i < nodeOutputs.size(); i++) {
+					mergedOutputs[i] = nodeOutputs.get(i);
+				}
+				System.arraycopy(failureOutputs, 0, mergedOutputs, nodeOutputs.size(), failureOutputs.length);
+				outputs[node] = mergedOutputs;
+				for (int i = 0; i < keys[node].length; i++) {
+					char c = keys[node][i];
+					int target = targets[node][i];
+					int failure = failures[node];
+					int next;
+					while ((next = transition(failure, c)) < 0 && failure != 0) {
+						failure = failures[failure];
+					}
+					failures[target] = next >= 0 ? next : 0;
+					queue[tail++] = target;
+				}
+			}
+		}
+
+		private static long getFingerprint(Rule[] rules) {
+			StringBuilder builder = new StringBuilder();
+			for (Rule rule : rules) {
+				AutohideStorage.AutohideItem autohideItem = rule.item;
+				if (autohideItem.chanNames != null) {
+					for (String chanName : new TreeSet<>(autohideItem.chanNames)) {
+						builder.append(chanName).append(',');
+					}
+				}
+				builder.append('\u0000').append(autohideItem.boardName)
+						.append('\u0000').append(autohideItem.threadNumber)
+						.append('\u0000').append(autohideItem.optionOriginalPost ? 1 : 0)
+						.append(autohideItem.optionSage ? 1 : 0).append(autohideItem.optionSubject ? 1 : 0)
+						.append(autohideItem.optionComment ? 1 : 0).append(autohideItem.optionName ? 1 : 0)
+						.append(autohideItem.optionFileName ? 1 : 0)
+						.append('\u0000').append(autohideItem.value).append('\u0000');
+			}
+			byte[] bytes = builder.toString().getBytes(UTF_8);
+			byte[] hash = Murmur3.hash128(bytes, 0, bytes.length);
+			long result = 0;
+			for (int i = 0; i < 8; i++) {
+				result = result << 8 | hash[i] & 0xff;
+			}
+			return result;
+		}
+
+		private int transition(int node, char c) {
+			int index = Arrays.binarySearch(keys[node], c);
+			return index >= 0 ? targets[node][index] : -1;
+		}
+
+		public boolean isEmpty() {
+			return rules.length == 0;
+		}
+
+		public int size() {
+			return rules.length;
+		}
+
+		public AutohideStorage.AutohideItem getItem(int index) {
+			return rules[index].item;
+		}
+
+		// Finds the first occurrence end of each literal
+		public Text scan(String value) {
+			if (literals.length == 0) {
+				return new Text(value, null);
+			}
+			int[] ends = new int[literals.length];
+			Arrays.fill(ends, -1);
+			int node = 0;
+			for (int i = 0; i < value.length(); i++) {
+				char c = toLowerCase(value.charAt(i));
+				int next;
+				while ((next = transition(node, c)) < 0 && node != 0) {
+					node = failures[node];
+				}
+				node = next >= 0 ? next : 0;
+				for (int id : outputs[node]) {
+					if (ends[id] < 0) {
+						ends[id] = i;
+					}
+				}
+			}
+			return new Text(value, ends);
+		}
+
+		public String find(int index, Text text) {
+			Rule rule = rules[index];
+			int literalId = literalIds[index];
+			if (literalId >= 0) {
+				int end = text.ends[literalId];
+				if (end < 0) {
+					return null;
+				}
+				if (rule.exact) {
+					return text.value.substring(end - rule.literal.length() + 1, end + 1);
+				}
+			}
+			return rule.item.find(text.value);
+		}
+	}
+}
@@ -3,7 +3,6 @@ package com.mishiranu.dashchan.content;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
 import android.util.Pair;
@@ -11,15 +10,23 @@ import androidx.annotation.NonNull;
 import chan.content.Chan;
 import chan.util.StringUtils;
 import com.mishiranu.dashchan.util.AndroidUtils;
+import com.mishiranu.dashchan.util.GraphicsUtils;
 import com.mishiranu.dashchan.util.Hasher;
 import com.mishiranu.dashchan.util.IOUtils;
 import com.mishiranu.dashchan.util.LruCache;
 import com.mishiranu.dashchan.util.MimeTypes;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -34,6 +41,9 @@ public class CacheManager implements Runnable {
 
 	private static final float TRIM_FACTOR = 0.3f;
 
+	private static final int MAX_ORIGINAL_THUMBNAIL_SIZE = 200 * 1024;
+	private static final int MAX_THUMBNAIL_FILE_SIZE = 2 * 1024 * 1024;
+
 	private static final CacheManager INSTANCE = new CacheManager();
 
 	public static CacheManager getInstance() {
@@ -90,10 +100,14 @@ public class CacheManager implements Runnable {
 		public final Type type;
 
 		public CacheItem(File file, Type type) {
-			name = file.getName();
+			this(file.getName(), file.length(), file.lastModified(), type);
+		}
+
+		public CacheItem(String name, long length, long lastModified, Type type) {
+			this.name = name;
 			nameLc = name.toLowerCase(Locale.US);
-			length = file.length();
-			lastModified = file.lastModified();
+			this.length = length;
+			this.lastModified = lastModified;
 			this.type = type;
 		}
 
@@ -128,17 +142,183 @@ public class CacheManager implements Runnable {
 	private static final Comparator<CacheItem> SORT_BY_DATE_COMPARATOR =
 			(lhs, rhs) -> ((Long) lhs.lastModified).compareTo(rhs.lastModified);
 
+	// Append-only log of cache index changes, so the index is not rebuilt from the directory on every start
+	private static class Journal {
+		private static final String HEADER = "journal 1";
+		private static final int COMPACT_MIN_RECORDS = 2000;
+		// Rebuild the index from time to time to catch files which were never registered
+		private static final long REBUILD_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+
+		private final File file;
+		private Writer writer;
+		private int records;
+		private long rebuildTime;
+
+		public Journal(File file) {
+			this.file = file;
+		}
+
+		public boolean read(LinkedHashMap<String, CacheItem> cacheItems, CacheItem.Type type) {
+			cacheItems.clear();
+			records = 0;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+				String header = reader.readLine();
+				if (header == null || !header.startsWith(HEADER + " ")) {
+					return false;
+				}
+				rebuildTime = Long.parseLong(header.substring(HEADER.length() + 1));
+				long time = System.currentTimeMillis();
+				if (rebuildTime > time || time - rebuildTime > REBUILD_INTERVAL) {
+					return false;
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] values = line.split(" ");
+					CacheItem cacheItem;
+					switch (values.length > 0 ? values[0] : "") {
+						case "A": {
+							if (values.length != 4) {
+								return false;
+							}
+							cacheItem = new CacheItem(values[1], Long.parseLong(values[2]),
+									Long.parseLong(values[3]), type);
+							break;
+						}
+						case "T": {
+							if (values.length != 3) {
+								return false;
+							}
+							cacheItem = cacheItems.get(values[1].toLowerCase(Locale.US));
+							if (cacheItem != null) {
+								cacheItem.lastModified = Long.parseLong(values[2]);
+							}
+							break;
+						}
+						case "D": {
+							if (values.length != 2) {
+								return false;
+							}
+							cacheItem = null;
+							break;
+						}
+						default: {
+							return false;
+						}
+					}
+					String nameLc = values[1].toLowerCase(Locale.US);
+					cacheItems.remove(nameLc);
+					if (cacheItem != null) {
+						cacheItems.put(nameLc, cacheItem);
+					}
+					records++;
+				}
+				return true;
+			} catch (IOException | NumberFormatException e) {
+				return false;
+			}
+		}
+
+		public void add(CacheItem cacheItem) {
+			write("A " + cacheItem.name + " " + cacheItem.length + " " + cacheItem.lastModified);
+		}
+
+		public void touch(CacheItem cacheItem) {
+			write("T " + cacheItem.name + " " + cacheItem.lastModified);
+		}
+
+		public void delete(CacheItem cacheItem) {
+			write("D " + cacheItem.name);
+		}
+
+		private void write(String line) {
+			try {
+				if (writer == null) {
+					writer = new OutputStreamWriter(new FileOutputStream(file, true));
+				}
+				writer.write(line);
+				writer.write('\n');
+				writer.flush();
+				records++;
+			} catch (IOException e) {
+				// Index will be rebuilt from the directory next time
+				close();
+				file.delete();
+			}
+		}
+
+		public void compactIfNecessary(Collection<CacheItem> cacheItems) {
+			if (records >= COMPACT_MIN_RECORDS && records > 2 * cacheItems.size()) {
+				rewrite(cacheItems);
+			}
+		}
+
+		public void rebuild(Collection<CacheItem> cacheItems) {
+			rebuildTime = System.currentTimeMillis();
+			rewrite(cacheItems);
+		}
+
+		private void rewrite(Collection<CacheItem> cacheItems) {
+			close();
+			File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+			boolean success = false;
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile)))) {
+				writer.write(HEADER + " " + rebuildTime);
+				writer.write('\n');
+				for (CacheItem cacheItem : cacheItems) {
+					writer.write("A " + cacheItem.name + " " + cacheItem.length + " " + cacheItem.lastModified);
+					writer.write('\n');
+				}
+				success = true;
+			} catch (IOException e) {
+				// Ignore
+			}
+			if (success && tempFile.renameTo(file)) {
+				records = cacheItems.size();
+			} else {
+				tempFile.delete();
+				file.delete();
+			}
+		}
+
+		public void close() {
+			if (writer != null) {
+				IOUtils.close(writer);
+				writer = null;
+			}
+		}
+	}
+
 	private final LinkedHashMap<String, CacheItem> thumbnailsCache = new LinkedHashMap<>();
 	private final LinkedHashMap<String, CacheItem> mediaCache = new LinkedHashMap<>();
 
 	private long thumbnailsCacheSize;
 	private long mediaCacheSize;
 
+	private Journal thumbnailsJournal;
+	private Journal mediaJournal;
+
 	private long fillCache(LinkedHashMap<String, CacheItem> cacheItems, File directory, CacheItem.Type type) {
+		Journal journal = getJournal(type);
+		if (journal != null) {
+			journal.close();
+		}
 		cacheItems.clear();
 		if (directory == null) {
+			setJournal(type, null);
 			return 0L;
 		}
+		File journalFile = new File(directory.getParentFile(), directory.getName() + ".journal");
+		journal = new Journal(journalFile);
+		setJournal(type, journal);
+		if (journal.read(cacheItems, type)) {
+			long size = 0L;
+			for (CacheItem cacheItem : cacheItems.values()) {
+				size += cacheItem.length;
+			}
+			journal.compactIfNecessary(cacheItems.values());
+			return size;
+		}
+		cacheItems.clear();
 		ArrayList<CacheItem> cacheItemsList = new ArrayList<>();
 		File[] files = directory.listFiles();
 		if (files != null) {
@@ -152,9 +332,58 @@ public class CacheManager implements Runnable {
 			cacheItems.put(cacheItem.nameLc, cacheItem);
 			size += cacheItem.length;
 		}
+		journal.rebuild(cacheItems.values());
 		return size;
 	}
 
+	private Journal getJournal(CacheItem.Type type) {
+		switch (type) {
+			case THUMBNAILS: {
+				return thumbnailsJournal;
+			}
+			case MEDIA: {
+				return mediaJournal;
+			}
+		}
+		throw new RuntimeException("Unknown cache type");
+	}
+
+	private void setJournal(CacheItem.Type type, Journal journal) {
+		switch (type) {
+			case THUMBNAILS: {
+				thumbnailsJournal = journal;
+				break;
+			}
+			case MEDIA: {
+				mediaJournal = journal;
+				break;
+			}
+		}
+	}
+
+	private void journalAdd(CacheItem cacheItem) {
+		Journal journal = getJournal(cacheItem.type);
+		if (journal != null) {
+			journal.add(cacheItem);
+			journal.compactIfNecessary(getCacheItems(cacheItem.type).values());
+		}
+	}
+
+	private void journalTouch(CacheItem cacheItem) {
+		Journal journal = getJournal(cacheItem.type);
+		if (journal != null) {
+			journal.touch(cacheItem);
+			journal.compactIfNecessary(getCacheItems(cacheItem.type).values());
+		}
+	}
+
+	private void journalDelete(CacheItem cacheItem) {
+		Journal journal = getJournal(cacheItem.type);
+		if (journal != null) {
+			journal.delete(cacheItem);
+		}
+	}
+
 	private void syncCache() {
 		final CountDownLatch latch = new CountDownLatch(1);
 		cacheBuildingLatch = latch;
@@ -219,6 +448,7 @@ public class CacheManager implements Runnable {
 				deleteAmount -= cacheItem.length;
 				size -= cacheItem.length;
 				iterator.remove();
+				journalDelete(cacheItem);
 				cleanupCacheItems.add(cacheItem);
 			}
 		}
@@ -267,19 +497,24 @@ public class CacheManager implements Runnable {
 		}
 	}
 
-	private boolean isFileExistsInCache(File file, String fileName, CacheItem.Type type) {
+	private boolean isFileIndexedInCache(String fileName, CacheItem.Type type) {
 		if (waitCacheSync()) {
 			return false;
 		}
 		LinkedHashMap<String, CacheItem> cacheItems = getCacheItems(type);
 		synchronized (cacheItems) {
-			CacheItem cacheItem = cacheItems.get(fileName.toLowerCase(Locale.US));
-			if (cacheItem != null && !file.exists()) {
-				cacheItems.remove(cacheItem.nameLc);
+			return cacheItems.containsKey(fileName.toLowerCase(Locale.US));
+		}
+	}
+
+	private void removeMissingCachedFile(String fileName, CacheItem.Type type) {
+		LinkedHashMap<String, CacheItem> cacheItems = getCacheItems(type);
+		synchronized (cacheItems) {
+			CacheItem cacheItem = cacheItems.remove(fileName.toLowerCase(Locale.US));
+			if (cacheItem != null) {
 				modifyCacheSize(type, -cacheItem.length);
-				cacheItem = null;
+				journalDelete(cacheItem);
 			}
-			return cacheItem != null;
 		}
 	}
 
@@ -292,13 +527,14 @@ public class CacheManager implements Runnable {
 			String fileNameLc = fileName.toLowerCase(Locale.US);
 			CacheItem cacheItem = cacheItems.remove(fileNameLc);
 			if (cacheItem != null) {
-				if (file.exists()) {
-					long lastModified = System.currentTimeMillis();
-					file.setLastModified(lastModified);
+				long lastModified = System.currentTimeMillis();
+				if (file.setLastModified(lastModified) || file.exists()) {
 					cacheItem.lastModified = lastModified;
 					cacheItems.put(fileNameLc, cacheItem);
+					journalTouch(cacheItem);
 				} else {
 					modifyCacheSize(type, -cacheItem.length);
+					journalDelete(cacheItem);
 				}
 			}
 		}
@@ -314,11 +550,15 @@ public class CacheManager implements Runnable {
 			CacheItem cacheItem = cacheItems.remove(fileName.toLowerCase(Locale.US));
 			if (cacheItem != null) {
 				lengthDelta = -cacheItem.length;
+				if (!success) {
+					journalDelete(cacheItem);
+				}
 			}
 			if (success) {
 				cacheItem = new CacheItem(file, type);
 				cacheItems.put(cacheItem.nameLc, cacheItem);
 				lengthDelta += cacheItem.length;
+				journalAdd(cacheItem);
 			}
 			modifyCacheSize(type, lengthDelta);
 			if (success) {
@@ -394,6 +634,7 @@ public class CacheManager implements Runnable {
 				deleted += cacheItem.length;
 				new File(directory, cacheItem.name).delete();
 				iterator.remove();
+				journalDelete(cacheItem);
 			}
 		}
 		return deleted;
@@ -498,24 +739,36 @@ public class CacheManager implements Runnable {
 		if (file == null) {
 			return null;
 		}
-		if (!isFileExistsInCache(file, thumbnailKey, CacheItem.Type.THUMBNAILS)) {
+		// Rely on the index instead of checking the file system for every thumbnail
+		if (!isFileIndexedInCache(thumbnailKey, CacheItem.Type.THUMBNAILS)) {
 			return null;
 		}
-		Bitmap bitmap;
+		byte[] bytes;
 		try (FileInputStream input = new FileInputStream(file)) {
-			bitmap = BitmapFactory.decodeStream(input);
-			if (bitmap == null) {
-				file.delete();
-				return null;
+			long length = file.length();
+			bytes = new byte[(int) Math.min(length, MAX_THUMBNAIL_FILE_SIZE)];
+			if (length > MAX_THUMBNAIL_FILE_SIZE || !IOUtils.readExactlyCheck(input, bytes, 0, bytes.length)) {
+				bytes = null;
 			}
-			updateCachedFileLastModified(file, thumbnailKey, CacheItem.Type.THUMBNAILS);
-			return bitmap;
+		} catch (FileNotFoundException e) {
+			removeMissingCachedFile(thumbnailKey, CacheItem.Type.THUMBNAILS);
+			return null;
 		} catch (IOException e) {
 			return null;
 		}
+		Bitmap bitmap = bytes != null ? GraphicsUtils.decodeThumbnail(MainApplication
+				.getInstance().getResources(), bytes, 0, bytes.length) : null;
+		if (bitmap == null) {
+			file.delete();
+			removeMissingCachedFile(thumbnailKey, CacheItem.Type.THUMBNAILS);
+			return null;
+		}
+		updateCachedFileLastModified(file, thumbnailKey, CacheItem.Type.THUMBNAILS);
+		return bitmap;
 	}
 
-	public void storeThumbnailExternal(String thumbnailKey, Bitmap data) {
+	// Original compressed data is stored if it's small enough, otherwise the reduced bitmap is compressed
+	public void storeThumbnailExternal(String thumbnailKey, byte[] originalData, Bitmap bitmap) {
 		if (!isCacheAvailable()) {
 			return;
 		}
@@ -526,7 +779,13 @@ public class CacheManager implements Runnable {
 		boolean success = false;
 		File file = new File(directory, thumbnailKey);
 		try (FileOutputStream output = new FileOutputStream(file)) {
-			data.compress(Bitmap.CompressFormat.PNG, 100, output);
+			if (originalData != null && originalData.length <= MAX_ORIGINAL_THUMBNAIL_SIZE) {
+				output.write(originalData);
+			} else if (bitmap.hasAlpha()) {
+				bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+			} else {
+				bitmap.compress(Bitmap.CompressFormat.JPEG, 90, output);
+			}
 			success = true;
 		} catch (IOException e) {
 			e.printStackTrace();
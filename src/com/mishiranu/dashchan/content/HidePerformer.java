@@ -6,37 +6,59 @@ import chan.text.JsonSerial;
 import chan.text.ParseException;
 import chan.util.StringUtils;
 import com.mishiranu.dashchan.R;
+import com.mishiranu.dashchan.content.async.ExtractPostsTask;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
 import com.mishiranu.dashchan.content.model.AttachmentItem;
 import com.mishiranu.dashchan.content.model.Post;
 import com.mishiranu.dashchan.content.model.PostItem;
 import com.mishiranu.dashchan.content.model.PostNumber;
 import com.mishiranu.dashchan.content.storage.AutohideStorage;
 import com.mishiranu.dashchan.text.SimilarTextEstimator;
+import com.mishiranu.dashchan.text.SimilarTextIndex;
+import com.mishiranu.dashchan.util.Murmur3;
 import com.mishiranu.dashchan.widget.ClickableToast;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.TreeSet;
 
 public class HidePerformer {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private static final int MAX_COMMENT_LENGTH = 1000;
 
 	public interface PostsProvider {
 		PostItem findPostItem(PostNumber postNumber);
 	}
 
-	private final AutohideStorage autohideStorage = AutohideStorage.getInstance();
+	public interface VerdictStore {
+		byte[] getPostHash(PostNumber postNumber);
+		PagesDatabase.HideVerdict getHideVerdict(PostNumber postNumber);
+		void putHideVerdict(PostNumber postNumber, PagesDatabase.HideVerdict hideVerdict);
+	}
+
 	private final SimilarTextEstimator estimator = new SimilarTextEstimator(MAX_COMMENT_LENGTH, true);
 	private final String autohidePrefix;
 	private PostsProvider postsProvider;
+	private VerdictStore verdictStore;
+
+	private String versionChanName;
+	private long version;
+	private long filtersFingerprint;
+	private byte[] filtersDigest;
 
 	private LinkedHashSet<PostNumber> replies;
 	private LinkedHashSet<String> names;
 	private ArrayList<SimilarTextEstimator.WordsData<PostNumber>> similar;
+	private SimilarTextIndex<PostNumber> similarIndex;
 
 	public HidePerformer(Context context) {
 		autohidePrefix = context != null ? context.getString(R.string.autohide) + ": " : "";
@@ -46,18 +68,89 @@ public class HidePerformer {
 		this.postsProvider = postsProvider;
 	}
 
+	public void setVerdictStore(VerdictStore verdictStore) {
+		this.verdictStore = verdictStore;
+	}
+
 	public String checkHidden(Chan chan, PostItem postItem) {
+		// Replies tree depends on other posts, so it's never stored
 		String message = checkHiddenByReplies(postItem);
 		if (message == null) {
-			message = checkHiddenByName(chan, postItem);
+			PostNumber postNumber = postItem.getPostNumber();
+			byte[] postHash = verdictStore != null ? verdictStore.getPostHash(postNumber) : null;
+			if (postHash != null) {
+				byte[] key = getVerdictKey(chan, postItem, postHash);
+				PagesDatabase.HideVerdict hideVerdict = verdictStore.getHideVerdict(postNumber);
+				if (hideVerdict != null && Arrays.equals(hideVerdict.key, key)) {
+					message = hideVerdict.reason;
+				} else {
+					message = checkHiddenByFilters(chan, postItem);
+					verdictStore.putHideVerdict(postNumber, new PagesDatabase.HideVerdict(key, message));
+				}
+			} else {
+				message = checkHiddenByFilters(chan, postItem);
+			}
 		}
+		return message != null ? autohidePrefix + message : null;
+	}
+
+	private String checkHiddenByFilters(Chan chan, PostItem postItem) {
+		String message = checkHiddenByName(chan, postItem);
 		if (message == null) {
 			message = checkHiddenBySimilarPost(chan, postItem);
 		}
 		if (message == null) {
 			message = checkHiddenGlobalAutohide(chan, postItem);
 		}
-		return message != null ? autohidePrefix + message : null;
+		return message;
+	}
+
+	// Verdict is valid while the post, autohide rules, local filters and parsers remain the same
+	private byte[] getVerdictKey(Chan chan, PostItem postItem, byte[] postHash) {
+		byte[] filtersDigest = getFiltersDigest(chan, getRuleSet(chan, postItem).fingerprint);
+		ByteBuffer buffer = ByteBuffer.allocate(postHash.length + filtersDigest.length);
+		buffer.put(postHash);
+		buffer.put(filtersDigest);
+		return Murmur3.hash128(buffer.array(), 0, buffer.capacity());
+	}
+
+	// Digest is calculated only when local filters, autohide rules or parsers change
+	private byte[] getFiltersDigest(Chan chan, long fingerprint) {
+		if (!chan.name.equals(versionChanName)) {
+			versionChanName = chan.name;
+			version = ExtractPostsTask.getParsedCommentsVersion(chan);
+			filtersDigest = null;
+		}
+		if (filtersDigest == null || filtersFingerprint != fingerprint) {
+			byte[] localFiltersData = getLocalFiltersData();
+			ByteBuffer buffer = ByteBuffer.allocate(16 + localFiltersData.length);
+			buffer.putLong(fingerprint);
+			buffer.putLong(version);
+			buffer.put(localFiltersData);
+			filtersFingerprint = fingerprint;
+			filtersDigest = Murmur3.hash128(buffer.array(), 0, buffer.capacity());
+		}
+		return filtersDigest;
+	}
+
+	private byte[] getLocalFiltersData() {
+		StringBuilder builder = new StringBuilder();
+		if (names != null) {
+			for (String name : names) {
+				builder.append(name).append('\u0000');
+			}
+		}
+		builder.append('\u0001');
+		if (similar != null) {
+			for (SimilarTextEstimator.WordsData<PostNumber> wordsData : similar) {
+				builder.append(wordsData.extra).append(' ').append(wordsData.count);
+				for (String word : new TreeSet<>(wordsData.words)) {
+					builder.append(' ').append(word);
+				}
+				builder.append('\u0000');
+			}
+		}
+		return builder.toString().getBytes(UTF_8);
 	}
 
 	private String checkHiddenByReplies(PostItem postItem) {
@@ -93,95 +186,119 @@ public class HidePerformer {
 			SimilarTextEstimator.WordsData<PostNumber> wordsData =
 					estimator.getWords(postItem.getComment(chan).toString());
 			if (wordsData != null) {
-				for (SimilarTextEstimator.WordsData<PostNumber> similarWordsData : similar) {
-					if (estimator.checkSimiliar(wordsData, similarWordsData)) {
-						return "similar to " + similarWordsData.extra;
+				if (similarIndex == null) {
+					similarIndex = new SimilarTextIndex<>(estimator);
+					for (SimilarTextEstimator.WordsData<PostNumber> similarWordsData : similar) {
+						similarIndex.add(similarWordsData);
 					}
 				}
+				SimilarTextEstimator.WordsData<PostNumber> similarWordsData = similarIndex.findFirst(wordsData);
+				if (similarWordsData != null) {
+					return "similar to " + similarWordsData.extra;
+				}
 			}
 		}
 		return null;
 	}
 
-	private String checkHiddenGlobalAutohide(Chan chan, PostItem postItem) {
-		String boardName = postItem.getBoardName();
+	private static AutohideMatcher.RuleSet getRuleSet(Chan chan, PostItem postItem) {
 		PostNumber originalPostNumber = postItem.getOriginalPostNumber();
-		String originalPostNumberString = originalPostNumber != null
-				? originalPostNumber.toString() : null;
+		return AutohideMatcher.obtain().getRuleSet(chan.name, postItem.getBoardName(),
+				originalPostNumber != null ? originalPostNumber.toString() : null);
+	}
+
+	private String checkHiddenGlobalAutohide(Chan chan, PostItem postItem) {
+		AutohideMatcher.RuleSet ruleSet = getRuleSet(chan, postItem);
+		if (ruleSet.isEmpty()) {
+			return null;
+		}
 		boolean originalPost = postItem.isOriginalPost();
 		boolean sage = postItem.isSage();
-		String subject = null;
-		String comment = null;
-		List<String> names = null;
-		ArrayList<AutohideStorage.AutohideItem> autohideItems = autohideStorage.getItems();
-		for (int i = 0; i < autohideItems.size(); i++) {
-			AutohideStorage.AutohideItem autohideItem = autohideItems.get(i);
-			// AND selection (only if chan, board, thread, op, and sage match the rule)
-			if (autohideItem.chanNames == null || autohideItem.chanNames.contains(chan.name)) {
-				if (StringUtils.isEmpty(autohideItem.boardName) || boardName == null
-						|| autohideItem.boardName.equals(boardName)) {
-					if (StringUtils.isEmpty(autohideItem.threadNumber) || autohideItem.boardName != null &&
-							autohideItem.threadNumber.equals(originalPostNumberString)) {
-						if ((!autohideItem.optionOriginalPost || autohideItem.optionOriginalPost == originalPost)
-								&& (!autohideItem.optionSage || autohideItem.optionSage == sage)) {
-							String result;
-							// OR selection (hide if subject, comment, or name match the rule)
-							if (autohideItem.optionSubject) {
-								if (subject == null) {
-									subject = postItem.getSubject();
-								}
-								if ((result = autohideItem.find(subject)) != null) {
-									return autohideItem.getReason(AutohideStorage.AutohideItem
-											.ReasonSource.SUBJECT, comment, result);
-								}
-							}
-							if (autohideItem.optionComment) {
-								if (comment == null) {
-									comment = postItem.getComment(chan).toString();
-								}
-								if ((result = autohideItem.find(comment)) != null) {
-									return autohideItem.getReason(AutohideStorage.AutohideItem
-											.ReasonSource.COMMENT, comment, result);
-								}
-							}
-							if (autohideItem.optionName) {
-								if (names == null) {
-									String name = postItem.getFullName(chan).toString();
-									List<Post.Icon> icons = postItem.getIcons();
-									if (!icons.isEmpty()) {
-										names = new ArrayList<>(1 + icons.size());
-										names.add(name);
-										for (Post.Icon icon : icons) {
-											names.add(icon.title);
-										}
-									} else {
-										names = Collections.singletonList(name);
-									}
-								}
-								for (String name : names) {
-									if ((result = autohideItem.find(name)) != null) {
-										return autohideItem.getReason(AutohideStorage.AutohideItem
-												.ReasonSource.NAME, name, result);
-									}
-								}
-							}
-							if (autohideItem.optionFileName && postItem.hasAttachments()) {
-								for (AttachmentItem attachmentItem : postItem.getAttachmentItems()) {
-									String originalName = StringUtils.emptyIfNull(attachmentItem.getOriginalName());
-									if ((result = autohideItem.find(originalName)) != null) {
-										return autohideItem.getReason(AutohideStorage.AutohideItem
-												.ReasonSource.FILE, originalName, result);
-									}
-								}
+		AutohideMatcher.Text subject = null;
+		AutohideMatcher.Text comment = null;
+		List<AutohideMatcher.Text> names = null;
+		List<AutohideMatcher.Text> originalNames = null;
+		for (int i = 0; i < ruleSet.size(); i++) {
+			AutohideStorage.AutohideItem autohideItem = ruleSet.getItem(i);
+			// AND selection (chan, board and thread are matched by the rule set)
+			if ((!autohideItem.optionOriginalPost || autohideItem.optionOriginalPost == originalPost)
+					&& (!autohideItem.optionSage || autohideItem.optionSage == sage)) {
+				String result;
+				// OR selection (hide if subject, comment, or name match the rule)
+				if (autohideItem.optionSubject) {
+					if (subject == null) {
+						subject = ruleSet.scan(postItem.getSubject());
+					}
+					if ((result = ruleSet.find(i, subject)) != null) {
+						return autohideItem.getReason(AutohideStorage.AutohideItem
+								.ReasonSource.SUBJECT, comment != null ? comment.value : null, result);
+					}
+				}
+				if (autohideItem.optionComment) {
+					if (comment == null) {
+						comment = ruleSet.scan(postItem.getComment(chan).toString());
+					}
+					if ((result = ruleSet.find(i, comment)) != null) {
+						return autohideItem.getReason(AutohideStorage.AutohideItem
+								.ReasonSource.COMMENT, comment.value, result);
+					}
+				}
+				if (autohideItem.optionName) {
+					if (names == null) {
+						names = new ArrayList<>();
+						names.add(ruleSet.scan(postItem.getFullName(chan).toString()));
+						for (Post.Icon icon : postItem.getIcons()) {
+							if (icon.title != null) {
+								names.add(ruleSet.scan(icon.title));
 							}
 						}
 					}
+					for (AutohideMatcher.Text name : names) {
+						if ((result = ruleSet.find(i, name)) != null) {
+							return autohideItem.getReason(AutohideStorage.AutohideItem
+									.ReasonSource.NAME, name.value, result);
+						}
+					}
+				}
+				if (autohideItem.optionFileName && postItem.hasAttachments()) {
+					if (originalNames == null) {
+						originalNames = new ArrayList<>();
+						for (AttachmentItem attachmentItem : postItem.getAttachmentItems()) {
+							originalNames.add(ruleSet.scan(StringUtils.emptyIfNull(attachmentItem.getOriginalName())));
+						}
+					}
+					for (AutohideMatcher.Text originalName : originalNames) {
+						if ((result = ruleSet.find(i, originalName)) != null) {
+							return autohideItem.getReason(AutohideStorage.AutohideItem
+									.ReasonSource.FILE, originalName.value, result);
+						}
+					}
 				}
 			}
 		}
 		return null;
 	}
 
+	// Returns posts similar to the given one, including posts similar to each other transitively
+	public List<PostItem> findSimilarPosts(Chan chan, PostItem postItem, Collection<PostItem> postItems) {
+		ArrayList<SimilarTextEstimator.WordsData<PostItem>> wordsDataList = new ArrayList<>(postItems.size());
+		for (PostItem item : postItems) {
+			SimilarTextEstimator.WordsData<PostItem> wordsData = estimator.getWords(item.getComment(chan).toString());
+			if (wordsData != null) {
+				wordsData.extra = item;
+				wordsDataList.add(wordsData);
+			}
+		}
+		for (List<PostItem> group : SimilarTextIndex.group(estimator, wordsDataList)) {
+			if (group.contains(postItem)) {
+				ArrayList<PostItem> result = new ArrayList<>(group);
+				result.remove(postItem);
+				return result;
+			}
+		}
+		return Collections.emptyList();
+	}
+
 	public enum AddResult {SUCCESS, FAIL, EXISTS}
 
 	public AddResult addHideByReplies(PostItem postItem) {
@@ -209,6 +326,7 @@ public class HidePerformer {
 			return AddResult.EXISTS;
 		}
 		names.add(fullName);
+		filtersDigest = null;
 		return AddResult.SUCCESS;
 	}
 
@@ -231,6 +349,8 @@ public class HidePerformer {
 			}
 		}
 		similar.add(wordsData);
+		similarIndex = null;
+		filtersDigest = null;
 		return AddResult.SUCCESS;
 	}
 
@@ -274,6 +394,8 @@ public class HidePerformer {
 
 	@SuppressWarnings({"UnnecessaryReturnStatement", "UnusedAssignment"})
 	public void removeLocalFilter(int index) {
+		similarIndex = null;
+		filtersDigest = null;
 		if (replies != null) {
 			if (index >= replies.size()) {
 				index -= replies.size();
@@ -356,6 +478,8 @@ public class HidePerformer {
 		this.replies = null;
 		this.names = null;
 		this.similar = null;
+		similarIndex = null;
+		filtersDigest = null;
 		if (reader != null) {
 			reader.startObject();
 			while (!reader.endStruct()) {
@@ -429,6 +553,8 @@ public class HidePerformer {
 		this.replies = null;
 		this.names = null;
 		this.similar = null;
+		similarIndex = null;
+		filtersDigest = null;
 		if (localFilters != null) {
 			for (String[] rule : localFilters) {
 				if (rule == null || rule.length < 2) {
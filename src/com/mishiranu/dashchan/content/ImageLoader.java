@@ -1,7 +1,6 @@
 package com.mishiranu.dashchan.content;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Process;
 import android.os.SystemClock;
@@ -21,12 +20,14 @@ import com.mishiranu.dashchan.content.async.HttpHolderTask;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
 import com.mishiranu.dashchan.util.GraphicsUtils;
-import com.mishiranu.dashchan.util.LruCache;
 import com.mishiranu.dashchan.widget.AttachmentView;
 import java.io.ByteArrayOutputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.concurrent.Executor;
 
 public class ImageLoader {
@@ -44,15 +45,81 @@ public class ImageLoader {
 	private final HashMap<String, LoaderTask> loaderTasks = new HashMap<>();
 	private final HashMap<String, Long> notFoundMap = new HashMap<>();
 
-	private final HashMap<String, Executor> executors = new HashMap<>();
+	private enum Priority {VISIBLE, PREFETCH}
 
-	private Executor getExecutor(String chanName) {
-		Executor executor = executors.get(chanName);
-		if (executor == null) {
-			executor = ConcurrentUtils.newThreadPool(3, 3, 0, "ImageLoader", chanName);
-			executors.put(chanName, executor);
+	// Tasks are started only after debounce time, so requests for quickly scrolled views never take a thread
+	private static final long DEBOUNCE_TIME = 500;
+	private static final int MAX_RUNNING_TASKS = 6;
+	private static final int MAX_RUNNING_TASKS_PER_HOST = 3;
+
+	private final Executor executor = ConcurrentUtils.newThreadPool(0, MAX_RUNNING_TASKS, 10000, "ImageLoader", null);
+	private final ArrayList<LoaderTask> pendingTasks = new ArrayList<>();
+	private final HashMap<String, Integer> runningHosts = new HashMap<>();
+	private int runningTasks;
+
+	private final Runnable dispatchRunnable = this::dispatchTasks;
+
+	private int getRunningTasks(String host) {
+		Integer count = runningHosts.get(host);
+		return count != null ? count : 0;
+	}
+
+	private void dispatchTasks() {
+		ConcurrentUtils.HANDLER.removeCallbacks(dispatchRunnable);
+		long time = SystemClock.elapsedRealtime();
+		while (runningTasks < MAX_RUNNING_TASKS) {
+			LoaderTask nextTask = null;
+			long nextReadyTime = Long.MAX_VALUE;
+			for (LoaderTask loaderTask : pendingTasks) {
+				if (loaderTask.readyTime > time) {
+					nextReadyTime = Math.min(nextReadyTime, loaderTask.readyTime);
+				} else if (loaderTask.host == null || getRunningTasks(loaderTask.host) < MAX_RUNNING_TASKS_PER_HOST) {
+					if (nextTask == null || loaderTask.priority.ordinal() < nextTask.priority.ordinal() ||
+							loaderTask.priority == nextTask.priority && loaderTask.readyTime < nextTask.readyTime) {
+						nextTask = loaderTask;
+					}
+				}
+			}
+			if (nextTask == null) {
+				if (nextReadyTime != Long.MAX_VALUE) {
+					ConcurrentUtils.HANDLER.postDelayed(dispatchRunnable, nextReadyTime - time);
+				}
+				break;
+			}
+			pendingTasks.remove(nextTask);
+			nextTask.running = true;
+			runningTasks++;
+			if (nextTask.host != null) {
+				runningHosts.put(nextTask.host, getRunningTasks(nextTask.host) + 1);
+			}
+			nextTask.execute(executor);
+		}
+	}
+
+	private void enqueueTask(LoaderTask loaderTask) {
+		pendingTasks.add(loaderTask);
+		dispatchTasks();
+	}
+
+	private void cancelTask(LoaderTask loaderTask) {
+		loaderTask.cancel();
+		pendingTasks.remove(loaderTask);
+	}
+
+	private void onTaskFinished(LoaderTask loaderTask) {
+		if (loaderTask.running) {
+			loaderTask.running = false;
+			runningTasks--;
+			if (loaderTask.host != null) {
+				int count = getRunningTasks(loaderTask.host) - 1;
+				if (count > 0) {
+					runningHosts.put(loaderTask.host, count);
+				} else {
+					runningHosts.remove(loaderTask.host);
+				}
+			}
+			dispatchTasks();
 		}
-		return executor;
 	}
 
 	private interface TaskCallback {
@@ -65,10 +132,14 @@ public class ImageLoader {
 		public final String key;
 		public final boolean fromCacheOnly;
 
+		public final String host;
+		public final long readyTime = SystemClock.elapsedRealtime() + DEBOUNCE_TIME;
+
 		public final HashSet<TaskCallback> callbacks = new HashSet<>();
-		private final long created = SystemClock.elapsedRealtime();
+		private Priority priority = Priority.PREFETCH;
 
 		private boolean notFound;
+		private boolean running;
 		private boolean finished;
 
 		public LoaderTask(Uri uri, Chan chan, String key, boolean fromCacheOnly) {
@@ -77,21 +148,21 @@ public class ImageLoader {
 			this.chan = chan;
 			this.key = key;
 			this.fromCacheOnly = fromCacheOnly;
+			String scheme = uri.getScheme();
+			host = fromCacheOnly || !"http".equals(scheme) && !"https".equals(scheme) ? null : uri.getHost();
+			setPriority(HttpHolder.Priority.PREFETCH);
+		}
+
+		// Holder priority is updated as well, so a running request waiting for connection is promoted too
+		public void setPriority(Priority priority) {
+			this.priority = priority;
+			setPriority(priority == Priority.VISIBLE ? HttpHolder.Priority.INTERACTIVE
+					: HttpHolder.Priority.PREFETCH);
 		}
 
 		@Override
 		protected Bitmap run(HttpHolder holder) {
 			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-			// Debounce image requests, taking into account that
-			// a task can be executed much later than created.
-			long sleep = 500 + created - SystemClock.elapsedRealtime();
-			if (sleep > 0) {
-				try {
-					Thread.sleep(sleep);
-				} catch (InterruptedException e) {
-					return null;
-				}
-			}
 			String scheme = uri.getScheme();
 			boolean chanScheme = ChanConfiguration.SCHEME_CHAN.equals(scheme);
 			boolean dataScheme = "data".equals(scheme);
@@ -103,22 +174,19 @@ public class ImageLoader {
 					return null;
 				}
 				if (bitmap == null && !fromCacheOnly) {
+					byte[] bytes = null;
 					if (chanScheme) {
 						ByteArrayOutputStream output = new ByteArrayOutputStream();
 						if (!chan.configuration.readResourceUri(uri, output)) {
 							throw HttpException.createNotFoundException();
 						}
-						byte[] bytes = output.toByteArray();
-						bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+						bytes = output.toByteArray();
 					} else if (dataScheme) {
 						String data = uri.toString();
 						int index = data.indexOf("base64,");
 						if (index >= 0) {
 							data = data.substring(index + 7);
-							byte[] bytes = Base64.decode(data, Base64.DEFAULT);
-							if (bytes != null) {
-								bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-							}
+							bytes = Base64.decode(data, Base64.DEFAULT);
 						}
 					} else {
 						HttpResponse response;
@@ -133,21 +201,25 @@ public class ImageLoader {
 						}
 						if (response != null) {
 							try {
-								bitmap = response.readBitmap();
+								bytes = response.readBytes();
 							} finally {
 								response.cleanupAndDisconnect();
 							}
 						}
-						if (bitmap == null) {
-							throw new HttpException(ErrorItem.Type.DOWNLOAD, false, false);
-						}
 					}
 					if (isCancelled()) {
 						return null;
 					}
-					bitmap = GraphicsUtils.reduceThumbnailSize(MainApplication.getInstance().getResources(), bitmap);
+					bitmap = bytes != null ? GraphicsUtils.decodeThumbnail(MainApplication
+							.getInstance().getResources(), bytes, 0, bytes.length) : null;
+					if (bitmap == null) {
+						if (storeExternal) {
+							throw new HttpException(ErrorItem.Type.DOWNLOAD, false, false);
+						}
+						return null;
+					}
 					if (storeExternal) {
-						CacheManager.getInstance().storeThumbnailExternal(key, bitmap);
+						CacheManager.getInstance().storeThumbnailExternal(key, bytes, bitmap);
 					}
 				}
 			} catch (HttpException e) {
@@ -162,8 +234,14 @@ public class ImageLoader {
 			return bitmap;
 		}
 
+		@Override
+		protected void onCancel(Bitmap bitmap) {
+			onTaskFinished(this);
+		}
+
 		@Override
 		protected void onComplete(Bitmap bitmap) {
+			onTaskFinished(this);
 			// Don't remove task but instead mark it as finished,
 			// so targets could be extracted later.
 			finished = true;
@@ -179,8 +257,67 @@ public class ImageLoader {
 		}
 	}
 
-	private final LruCache<String, Bitmap> bitmapCache =
-			new LruCache<>(MainApplication.getInstance().isLowRam() ? 50 : 200);
+	public static class Statistics {
+		public final int hits;
+		public final int misses;
+		public final long size;
+		public final long maxSize;
+
+		private Statistics(int hits, int misses, long size, long maxSize) {
+			this.hits = hits;
+			this.misses = misses;
+			this.size = size;
+			this.maxSize = maxSize;
+		}
+	}
+
+	// Memory cache budgeted by bitmap allocation size instead of bitmaps count
+	private static class BitmapCache {
+		private final LinkedHashMap<String, Bitmap> bitmaps = new LinkedHashMap<>(0, 0.75f, true);
+		private final long maxSize;
+
+		private long size;
+		private int hits;
+		private int misses;
+
+		public BitmapCache(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public Bitmap get(String key) {
+			Bitmap bitmap = bitmaps.get(key);
+			if (bitmap != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return bitmap;
+		}
+
+		public void put(String key, Bitmap bitmap) {
+			Bitmap oldBitmap = bitmaps.put(key, bitmap);
+			if (oldBitmap != null) {
+				size -= GraphicsUtils.getAllocationByteCount(oldBitmap);
+			}
+			size += GraphicsUtils.getAllocationByteCount(bitmap);
+			Iterator<Bitmap> iterator = bitmaps.values().iterator();
+			while (size > maxSize && bitmaps.size() > 1 && iterator.hasNext()) {
+				size -= GraphicsUtils.getAllocationByteCount(iterator.next());
+				iterator.remove();
+			}
+		}
+
+		public Statistics getStatistics() {
+			return new Statistics(hits, misses, size, maxSize);
+		}
+	}
+
+	private final BitmapCache bitmapCache = new BitmapCache(Runtime.getRuntime().maxMemory() /
+			(MainApplication.getInstance().isLowRam() ? 16 : 8));
+
+	public Statistics getStatistics() {
+		return ConcurrentUtils.mainGet(bitmapCache::getStatistics);
+	}
 
 	public static abstract class Target {
 		public String currentKey;
@@ -193,6 +330,10 @@ public class ImageLoader {
 
 		public void onStart() {}
 		public abstract void onResult(String key, Bitmap bitmap, boolean error, boolean instantly);
+
+		public boolean isVisible() {
+			return true;
+		}
 	}
 
 	private interface WrapperCallback<T> {
@@ -226,18 +367,19 @@ public class ImageLoader {
 		}
 	}
 
-	private interface DetachCallback {
+	private interface AttachCallback {
+		void onAttach(Target target);
 		void onDetach(View view);
 	}
 
 	private static class ViewTarget<T extends View> extends WrapperTarget<T>
 			implements Runnable, View.OnAttachStateChangeListener {
-		private final DetachCallback detachCallback;
+		private final AttachCallback attachCallback;
 
-		private ViewTarget(T target, WrapperCallback<T> wrapperCallback, DetachCallback detachCallback) {
+		private ViewTarget(T target, WrapperCallback<T> wrapperCallback, AttachCallback attachCallback) {
 			super(target, wrapperCallback);
 
-			this.detachCallback = detachCallback;
+			this.attachCallback = attachCallback;
 			target.addOnAttachStateChangeListener(this);
 		}
 
@@ -248,16 +390,20 @@ public class ImageLoader {
 			}
 		}
 
+		@Override
+		public boolean isVisible() {
+			return ViewCompat.isAttachedToWindow(target);
+		}
+
 		@Override
 		public void run() {
-			if (detachCallback != null) {
-				detachCallback.onDetach(target);
-			}
+			attachCallback.onDetach(target);
 		}
 
 		@Override
 		public void onViewAttachedToWindow(View v) {
 			ConcurrentUtils.HANDLER.removeCallbacks(this);
+			attachCallback.onAttach(this);
 		}
 
 		@Override
@@ -267,13 +413,27 @@ public class ImageLoader {
 		}
 	}
 
-	private final DetachCallback detachCallback = this::cancel;
+	private final AttachCallback attachCallback = new AttachCallback() {
+		@Override
+		public void onAttach(Target target) {
+			// Prefetched views become visible
+			LoaderTask loaderTask = target.currentKey != null ? loaderTasks.get(target.currentKey) : null;
+			if (loaderTask != null) {
+				loaderTask.setPriority(Priority.VISIBLE);
+			}
+		}
+
+		@Override
+		public void onDetach(View view) {
+			cancel(view);
+		}
+	};
 
 	private <T extends View> WrapperTarget<T> getWrapperTarget(T view, WrapperCallback<T> wrapperCallback) {
 		@SuppressWarnings("unchecked")
 		WrapperTarget<T> wrapperTarget = (WrapperTarget<T>) view.getTag(R.id.tag_image_loader);
 		if (wrapperTarget == null && wrapperCallback != null) {
-			ViewTarget<T> viewTarget = new ViewTarget<>(view, wrapperCallback, detachCallback);
+			ViewTarget<T> viewTarget = new ViewTarget<>(view, wrapperCallback, attachCallback);
 			view.setTag(R.id.tag_image_loader, viewTarget);
 			return viewTarget;
 		}
@@ -297,7 +457,7 @@ public class ImageLoader {
 			if (loaderTask != null) {
 				loaderTask.callbacks.remove(target.taskCallback);
 				if (loaderTask.callbacks.isEmpty()) {
-					loaderTask.cancel();
+					cancelTask(loaderTask);
 					loaderTasks.remove(key);
 				}
 			}
@@ -363,13 +523,17 @@ public class ImageLoader {
 			LoaderTask loaderTask = new LoaderTask(uri, chan, key, fromCacheOnly);
 			registerLoaderTask = loaderTask;
 			if (currentLoaderTask != null) {
-				currentLoaderTask.cancel();
+				cancelTask(currentLoaderTask);
 				loaderTask.callbacks.addAll(currentLoaderTask.callbacks);
+				loaderTask.setPriority(currentLoaderTask.priority);
 			}
 			loaderTasks.put(key, loaderTask);
-			loaderTask.execute(getExecutor(chan.name));
+			enqueueTask(loaderTask);
 		}
 		registerLoaderTask.callbacks.add(target.taskCallback);
+		if (target.isVisible()) {
+			registerLoaderTask.setPriority(Priority.VISIBLE);
+		}
 		return false;
 	}
 }
@@ -17,6 +17,7 @@ import com.mishiranu.dashchan.C;
 import com.mishiranu.dashchan.content.database.ChanDatabase;
 import com.mishiranu.dashchan.content.database.CommonDatabase;
 import com.mishiranu.dashchan.content.database.PagesDatabase;
+import com.mishiranu.dashchan.content.service.WatcherJobService;
 import com.mishiranu.dashchan.util.IOUtils;
 import com.mishiranu.dashchan.util.Logger;
 import java.io.File;
@@ -72,6 +73,7 @@ public class MainApplication extends Application {
 			ChanDatabase.getInstance();
 			CacheManager.getInstance();
 			ChanManager.getInstance().loadLibraries();
+			WatcherJobService.configure(this);
 		} else if (checkProcess(PROCESS_WEB_VIEW)) {
 			IOUtils.deleteRecursive(getWebViewCacheDir());
 		}
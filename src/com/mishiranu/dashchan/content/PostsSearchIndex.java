@@ -0,0 +1,289 @@
+package com.mishiranu.dashchan.content;
+
+import chan.content.Chan;
+import chan.util.StringUtils;
+import com.mishiranu.dashchan.content.async.ExecutorTask;
+import com.mishiranu.dashchan.content.model.AttachmentItem;
+import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostNumber;
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+// Trigram index of thread posts texts, so search doesn't parse and scan every post on the main thread.
+// The index is built on the first query and then updated with extracted posts.
+// All index structures are accessed on the single index thread only.
+public class PostsSearchIndex {
+	private static final Executor EXECUTOR = ConcurrentUtils.newSingleThreadPool(1000, "PostsSearchIndex", null);
+
+	private static final int GRAM_LENGTH = 3;
+	private static final int MIN_COMPACT_COUNT = 64;
+
+	public interface Callback {
+		void onSearchIndexResult(HashSet<PostNumber> postNumbers);
+	}
+
+	private static class Entry {
+		public final PostNumber postNumber;
+		public final String comment;
+		public final String text;
+		public boolean removed;
+
+		public Entry(PostNumber postNumber, String comment, String text) {
+			this.postNumber = postNumber;
+			this.comment = comment;
+			this.text = text;
+		}
+	}
+
+	private static class Postings {
+		public int[] ids = new int[4];
+		public int count;
+
+		public void add(int id) {
+			if (count == ids.length) {
+				int[] ids = new int[count * 2];
+				System.arraycopy(this.ids, 0, ids, 0, count);
+				this.ids = ids;
+			}
+			ids[count++] = id;
+		}
+	}
+
+	private final Chan chan;
+	private final Locale locale = Locale.getDefault();
+	private boolean built;
+
+	private final ArrayList<Entry> entries = new ArrayList<>();
+	private final HashMap<PostNumber, Integer> ids = new HashMap<>();
+	private final HashMap<Long, Postings> postings = new HashMap<>();
+	private int removedCount;
+
+	public PostsSearchIndex(Chan chan) {
+		this.chan = chan;
+	}
+
+	// Call from the main thread only
+	public void update(Collection<PostItem> postItems, Collection<PostNumber> removedPosts) {
+		if (built && (!postItems.isEmpty() || !removedPosts.isEmpty())) {
+			ArrayList<PostItem> postItemsCopy = new ArrayList<>(postItems);
+			ArrayList<PostNumber> removedPostsCopy = new ArrayList<>(removedPosts);
+			EXECUTOR.execute(() -> {
+				for (PostNumber postNumber : removedPostsCopy) {
+					remove(postNumber);
+				}
+				for (PostItem postItem : postItemsCopy) {
+					add(postItem);
+				}
+				compactIfNecessary();
+			});
+		}
+	}
+
+	// Call from the main thread only, post items must contain all current posts
+	public ExecutorTask<?, ?> query(List<PostItem> postItems, Iterable<String> included,
+			Iterable<String> excluded, Callback callback) {
+		if (!built) {
+			built = true;
+			ArrayList<PostItem> postItemsCopy = new ArrayList<>(postItems);
+			EXECUTOR.execute(() -> {
+				for (PostItem postItem : postItemsCopy) {
+					add(postItem);
+				}
+			});
+		}
+		ArrayList<String> includedList = new ArrayList<>();
+		for (String query : included) {
+			includedList.add(query);
+		}
+		ArrayList<String> excludedList = new ArrayList<>();
+		for (String query : excluded) {
+			excludedList.add(query);
+		}
+		// Single thread executor guarantees pending updates are applied before the query
+		QueryTask task = new QueryTask(includedList, excludedList, callback);
+		task.execute(EXECUTOR);
+		return task;
+	}
+
+	private class QueryTask extends ExecutorTask<Void, HashSet<PostNumber>> {
+		private final List<String> included;
+		private final List<String> excluded;
+		private final Callback callback;
+
+		public QueryTask(List<String> included, List<String> excluded, Callback callback) {
+			this.included = included;
+			this.excluded = excluded;
+			this.callback = callback;
+		}
+
+		@Override
+		protected HashSet<PostNumber> run() {
+			boolean[] matched = new boolean[entries.size()];
+			if (included.isEmpty()) {
+				for (int i = 0; i < matched.length; i++) {
+					matched[i] = true;
+				}
+			} else {
+				for (String query : included) {
+					match(query, matched);
+				}
+			}
+			HashSet<PostNumber> postNumbers = new HashSet<>();
+			OUTER: for (int i = 0; i < matched.length; i++) {
+				Entry entry = entries.get(i);
+				if (matched[i] && !entry.removed) {
+					for (String query : excluded) {
+						if (entry.comment.contains(query)) {
+							continue OUTER;
+						}
+					}
+					postNumbers.add(entry.postNumber);
+				}
+			}
+			return postNumbers;
+		}
+
+		@Override
+		protected void onComplete(HashSet<PostNumber> result) {
+			callback.onSearchIndexResult(result);
+		}
+	}
+
+	private static long getGram(String text, int index) {
+		return (long) text.charAt(index) << 32 | (long) text.charAt(index + 1) << 16 | text.charAt(index + 2);
+	}
+
+	private void match(String query, boolean[] matched) {
+		if (query.length() < GRAM_LENGTH) {
+			for (int i = 0; i < matched.length; i++) {
+				if (!matched[i] && entries.get(i).text.contains(query)) {
+					matched[i] = true;
+				}
+			}
+			return;
+		}
+		ArrayList<Postings> queryPostings = new ArrayList<>();
+		HashSet<Long> grams = new HashSet<>();
+		for (int i = 0; i <= query.length() - GRAM_LENGTH; i++) {
+			long gram = getGram(query, i);
+			if (grams.add(gram)) {
+				Postings postings = this.postings.get(gram);
+				if (postings == null) {
+					return;
+				}
+				queryPostings.add(postings);
+			}
+		}
+		Postings shortest = queryPostings.get(0);
+		for (Postings postings : queryPostings) {
+			if (postings.count < shortest.count) {
+				shortest = postings;
+			}
+		}
+		// Postings are sorted, so candidates are checked with binary search
+		OUTER: for (int i = 0; i < shortest.count; i++) {
+			int id = shortest.ids[i];
+			if (matched[id]) {
+				continue;
+			}
+			for (Postings postings : queryPostings) {
+				if (postings != shortest && binarySearch(postings, id) < 0) {
+					continue OUTER;
+				}
+			}
+			// Grams may be found in different places
+			if (entries.get(id).text.contains(query)) {
+				matched[id] = true;
+			}
+		}
+	}
+
+	private static int binarySearch(Postings postings, int id) {
+		int low = 0;
+		int high = postings.count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int value = postings.ids[middle];
+			if (value < id) {
+				low = middle + 1;
+			} else if (value > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private void add(PostItem postItem) {
+		PostNumber postNumber = postItem.getPostNumber();
+		String comment = postItem.getCommentText(chan).toLowerCase(locale);
+		StringBuilder builder = new StringBuilder(comment);
+		// Separator prevents queries matching across fields
+		builder.append('\u0000').append(postItem.getSubject().toLowerCase(locale));
+		builder.append('\u0000').append(postItem.getFullNameText(chan).toLowerCase(locale));
+		List<AttachmentItem> attachmentItems = postItem.getAttachmentItems();
+		if (attachmentItems != null) {
+			for (AttachmentItem attachmentItem : attachmentItems) {
+				String fileName = attachmentItem.getFileName(chan);
+				if (!StringUtils.isEmpty(fileName)) {
+					builder.append('\u0000').append(fileName.toLowerCase(locale));
+					String originalName = attachmentItem.getOriginalName();
+					if (!StringUtils.isEmpty(originalName)) {
+						builder.append('\u0000').append(originalName.toLowerCase(locale));
+					}
+				}
+			}
+		}
+		add(new Entry(postNumber, comment, builder.toString()));
+	}
+
+	private void add(Entry entry) {
+		remove(entry.postNumber);
+		int id = entries.size();
+		entries.add(entry);
+		ids.put(entry.postNumber, id);
+		String text = entry.text;
+		HashSet<Long> grams = new HashSet<>();
+		for (int i = 0; i <= text.length() - GRAM_LENGTH; i++) {
+			long gram = getGram(text, i);
+			if (grams.add(gram)) {
+				Postings postings = this.postings.get(gram);
+				if (postings == null) {
+					postings = new Postings();
+					this.postings.put(gram, postings);
+				}
+				postings.add(id);
+			}
+		}
+	}
+
+	private void remove(PostNumber postNumber) {
+		Integer id = ids.remove(postNumber);
+		if (id != null) {
+			entries.get(id).removed = true;
+			removedCount++;
+		}
+	}
+
+	private void compactIfNecessary() {
+		if (removedCount >= MIN_COMPACT_COUNT && removedCount > entries.size() / 2) {
+			ArrayList<Entry> entries = new ArrayList<>(this.entries);
+			this.entries.clear();
+			ids.clear();
+			postings.clear();
+			removedCount = 0;
+			for (Entry entry : entries) {
+				if (!entry.removed) {
+					add(entry);
+				}
+			}
+		}
+	}
+}
@@ -990,6 +990,28 @@ public class Preferences {
 		return PREFERENCES.getBoolean(KEY_SCROLL_THREAD_GALLERY, DEFAULT_SCROLL_THREAD_GALLERY);
 	}
 
+	public static final String KEY_SEARCH_ALL_BOARDS = "search_all_boards";
+	public static final boolean DEFAULT_SEARCH_ALL_BOARDS = false;
+
+	public static boolean isSearchAllBoards() {
+		return PREFERENCES.getBoolean(KEY_SEARCH_ALL_BOARDS, DEFAULT_SEARCH_ALL_BOARDS);
+	}
+
+	public static void setSearchAllBoards(boolean searchAllBoards) {
+		PREFERENCES.edit().put(KEY_SEARCH_ALL_BOARDS, searchAllBoards).close();
+	}
+
+	public static final String KEY_SEARCH_CACHED_THREADS = "search_cached_threads";
+	public static final boolean DEFAULT_SEARCH_CACHED_THREADS = false;
+
+	public static boolean isSearchCachedThreads() {
+		return PREFERENCES.getBoolean(KEY_SEARCH_CACHED_THREADS, DEFAULT_SEARCH_CACHED_THREADS);
+	}
+
+	public static void setSearchCachedThreads(boolean searchCachedThreads) {
+		PREFERENCES.edit().put(KEY_SEARCH_CACHED_THREADS, searchCachedThreads).close();
+	}
+
 	public static final String KEY_SHOWCASE_GALLERY = "showcase_gallery";
 
 	public static void consumeShowcaseGallery() {
@@ -1405,4 +1427,54 @@ public class Preferences {
 	public static boolean isWatcherWifiOnly() {
 		return PREFERENCES.getBoolean(KEY_WATCHER_WIFI_ONLY, DEFAULT_WATCHER_WIFI_ONLY);
 	}
+
+	public static final String KEY_WATCHER_BACKGROUND = "watcher_background";
+	public static final boolean DEFAULT_WATCHER_BACKGROUND = false;
+
+	public static boolean isWatcherBackground() {
+		return PREFERENCES.getBoolean(KEY_WATCHER_BACKGROUND, DEFAULT_WATCHER_BACKGROUND);
+	}
+
+	public static final String KEY_WATCHER_BACKGROUND_RUNS = "watcher_background_runs";
+	public static final String KEY_WATCHER_BACKGROUND_THREADS = "watcher_background_threads";
+	public static final String KEY_WATCHER_BACKGROUND_RADIO_TIME = "watcher_background_radio_time";
+
+	public static class WatcherBackgroundStatistics {
+		public final int runs;
+		public final int threads;
+		public final long radioTime;
+
+		public WatcherBackgroundStatistics(int runs, int threads, long radioTime) {
+			this.runs = runs;
+			this.threads = threads;
+			this.radioTime = radioTime;
+		}
+
+		public long getMeanRadioTime() {
+			return runs > 0 ? radioTime / runs : 0;
+		}
+	}
+
+	public static WatcherBackgroundStatistics getWatcherBackgroundStatistics() {
+		return new WatcherBackgroundStatistics(PREFERENCES.getInt(KEY_WATCHER_BACKGROUND_RUNS, 0),
+				PREFERENCES.getInt(KEY_WATCHER_BACKGROUND_THREADS, 0),
+				PREFERENCES.getLong(KEY_WATCHER_BACKGROUND_RADIO_TIME, 0L));
+	}
+
+	public static void addWatcherBackgroundRun(int threads, long radioTime) {
+		WatcherBackgroundStatistics statistics = getWatcherBackgroundStatistics();
+		PREFERENCES.edit()
+				.put(KEY_WATCHER_BACKGROUND_RUNS, statistics.runs + 1)
+				.put(KEY_WATCHER_BACKGROUND_THREADS, statistics.threads + threads)
+				.put(KEY_WATCHER_BACKGROUND_RADIO_TIME, statistics.radioTime + radioTime)
+				.close();
+	}
+
+	public static void clearWatcherBackgroundStatistics() {
+		PREFERENCES.edit()
+				.remove(KEY_WATCHER_BACKGROUND_RUNS)
+				.remove(KEY_WATCHER_BACKGROUND_THREADS)
+				.remove(KEY_WATCHER_BACKGROUND_RADIO_TIME)
+				.close();
+	}
 }
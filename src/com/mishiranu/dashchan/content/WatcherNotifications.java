@@ -38,17 +38,41 @@ public class WatcherNotifications {
 		}
 	}
 
+	public static class ThreadReplies {
+		public final String title;
+		public final String chanName;
+		public final String boardName;
+		public final String threadNumber;
+		public final List<PagesDatabase.InsertResult.Reply> replies;
+
+		public ThreadReplies(String title, String chanName, String boardName, String threadNumber,
+				List<PagesDatabase.InsertResult.Reply> replies) {
+			this.title = title;
+			this.chanName = chanName;
+			this.boardName = boardName;
+			this.threadNumber = threadNumber;
+			this.replies = replies;
+		}
+	}
+
 	public static void notifyReplies(Context context, int color, boolean important, boolean sound, boolean vibration,
 			String title, String chanName, String boardName, String threadNumber,
 			List<PagesDatabase.InsertResult.Reply> replies) {
-		EXECUTOR.execute(new Task(context, color, important, sound, vibration, title,
-				chanName, boardName, threadNumber, replies, Collections.emptyList()));
+		notifyReplies(context, color, important, sound, vibration, Collections.singletonList(new ThreadReplies(title,
+				chanName, boardName, threadNumber, replies)));
+	}
+
+	// Replies from multiple threads are posted at once, alerting the user only once
+	public static void notifyReplies(Context context, int color, boolean important, boolean sound, boolean vibration,
+			List<ThreadReplies> threadRepliesList) {
+		EXECUTOR.execute(new Task(context, color, important, sound, vibration, threadRepliesList,
+				null, null, null, Collections.emptyList()));
 	}
 
 	public static void cancelReplies(Context context,
 			String chanName, String boardName, String threadNumber, Collection<PostNumber> postNumbers) {
-		EXECUTOR.execute(new Task(context, 0, false, false, false, null,
-				chanName, boardName, threadNumber, Collections.emptyList(), postNumbers));
+		EXECUTOR.execute(new Task(context, 0, false, false, false, Collections.emptyList(),
+				chanName, boardName, threadNumber, postNumbers));
 	}
 
 	private static class Task implements Runnable {
@@ -59,26 +83,24 @@ public class WatcherNotifications {
 		public final boolean important;
 		public final boolean sound;
 		public final boolean vibration;
-		public final String title;
+		public final List<ThreadReplies> threadRepliesList;
 		public final String chanName;
 		public final String boardName;
 		public final String threadNumber;
-		public final List<PagesDatabase.InsertResult.Reply> replies;
 		public final Collection<PostNumber> removePostNumbers;
 
 		private Task(Context context, int color, boolean important, boolean sound, boolean vibration,
-				String title, String chanName, String boardName, String threadNumber,
-				List<PagesDatabase.InsertResult.Reply> replies, Collection<PostNumber> removePostNumbers) {
+				List<ThreadReplies> threadRepliesList, String chanName, String boardName, String threadNumber,
+				Collection<PostNumber> removePostNumbers) {
 			this.context = context.getApplicationContext();
 			this.color = color;
 			this.important = important;
 			this.sound = sound;
 			this.vibration = vibration;
-			this.title = title;
+			this.threadRepliesList = threadRepliesList;
 			this.chanName = chanName;
 			this.boardName = boardName;
 			this.threadNumber = threadNumber;
-			this.replies = replies;
 			this.removePostNumbers = removePostNumbers;
 		}
 
@@ -131,7 +153,14 @@ public class WatcherNotifications {
 		public void run() {
 			NotificationManager notificationManager = (NotificationManager)
 					context.getSystemService(Context.NOTIFICATION_SERVICE);
-			if (!replies.isEmpty()) {
+			boolean hasReplies = false;
+			for (ThreadReplies threadReplies : threadRepliesList) {
+				if (!threadReplies.replies.isEmpty()) {
+					hasReplies = true;
+					break;
+				}
+			}
+			if (hasReplies) {
 				notifyReplies(notificationManager);
 			}
 			if (!removePostNumbers.isEmpty()) {
@@ -140,8 +169,31 @@ public class WatcherNotifications {
 		}
 
 		private void notifyReplies(NotificationManager notificationManager) {
-			String title = context.getString(R.string.reply_in_thread__format, this.title);
-			for (PagesDatabase.InsertResult.Reply reply : replies) {
+			boolean alert = true;
+			for (ThreadReplies threadReplies : threadRepliesList) {
+				alert = notifyReplies(notificationManager, threadReplies, alert);
+			}
+			if (C.API_NOUGAT) {
+				NotificationCompat.Builder builder = new NotificationCompat
+						.Builder(context, C.NOTIFICATION_CHANNEL_REPLIES);
+				configureNotification(builder, color);
+				if (!C.API_OREO) {
+					applyPreferencesPreOreo(builder, color, important, sound, vibration);
+				}
+				builder.setGroup(GROUP_REPLIES);
+				builder.setGroupSummary(true);
+				notificationManager.notify(C.NOTIFICATION_ID_REPLIES, builder.build());
+			}
+		}
+
+		// Returns whether the next notification should alert
+		private boolean notifyReplies(NotificationManager notificationManager, ThreadReplies threadReplies,
+				boolean alert) {
+			String title = context.getString(R.string.reply_in_thread__format, threadReplies.title);
+			String chanName = threadReplies.chanName;
+			String boardName = threadReplies.boardName;
+			String threadNumber = threadReplies.threadNumber;
+			for (PagesDatabase.InsertResult.Reply reply : threadReplies.replies) {
 				NotificationCompat.Builder builder = new NotificationCompat
 						.Builder(context, C.NOTIFICATION_CHANNEL_REPLIES);
 				String comment = StringUtils.clearHtml(reply.comment);
@@ -162,7 +214,8 @@ public class WatcherNotifications {
 						builder.setDefaults(0);
 					}
 				} else {
-					applyPreferencesPreOreo(builder, color, important, sound, vibration);
+					applyPreferencesPreOreo(builder, color, important, alert && sound, alert && vibration);
+					alert = false;
 				}
 				String tag = makeTag(chanName, boardName, threadNumber, reply.postNumber);
 				Intent intent = new Intent(context, MainActivity.class).setAction(tag)
@@ -175,17 +228,7 @@ public class WatcherNotifications {
 						PendingIntent.FLAG_UPDATE_CURRENT));
 				notificationManager.notify(tag, C.NOTIFICATION_ID_REPLIES, builder.build());
 			}
-			if (C.API_NOUGAT) {
-				NotificationCompat.Builder builder = new NotificationCompat
-						.Builder(context, C.NOTIFICATION_CHANNEL_REPLIES);
-				configureNotification(builder, color);
-				if (!C.API_OREO) {
-					applyPreferencesPreOreo(builder, color, important, sound, vibration);
-				}
-				builder.setGroup(GROUP_REPLIES);
-				builder.setGroupSummary(true);
-				notificationManager.notify(C.NOTIFICATION_ID_REPLIES, builder.build());
-			}
+			return alert;
 		}
 
 		private void cancelReplies(NotificationManager notificationManager) {
@@ -0,0 +1,86 @@
+package com.mishiranu.dashchan.content.async;
+
+import chan.content.Chan;
+import chan.content.ChanPerformer;
+import chan.content.ExtensionException;
+import chan.content.InvalidResponseException;
+import chan.content.model.ThreadSummary;
+import chan.http.HttpException;
+import chan.http.HttpHolder;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
+import com.mishiranu.dashchan.content.model.PostNumber;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Reads all active threads of the board in one request to find watched threads which weren't modified
+public class CheckThreadSummariesTask extends HttpHolderTask<Void, Set<String>> {
+	private final Callback callback;
+	private final Chan chan;
+	private final String boardName;
+	private final Map<String, Long> lastUpdates;
+
+	public interface Callback {
+		void onCheckThreadSummariesResult(String chanName, String boardName, Set<String> unmodifiedThreadNumbers);
+	}
+
+	// Last updates are wall clock times of last successful thread updates
+	public CheckThreadSummariesTask(Callback callback, Chan chan, String boardName, Map<String, Long> lastUpdates) {
+		super(chan);
+		this.callback = callback;
+		this.chan = chan;
+		this.boardName = boardName;
+		this.lastUpdates = lastUpdates;
+	}
+
+	@Override
+	protected Set<String> run(HttpHolder holder) {
+		ThreadSummary[] threadSummaries;
+		try {
+			ChanPerformer.ReadThreadSummariesResult result = chan.performer.safe()
+					.onReadThreadSummaries(new ChanPerformer.ReadThreadSummariesData(boardName, 0,
+							ChanPerformer.ReadThreadSummariesData.TYPE_ACTIVE_THREADS, holder));
+			threadSummaries = result != null ? result.threadSummaries : null;
+		} catch (ExtensionException | HttpException | InvalidResponseException e) {
+			e.getErrorItemAndHandle();
+			return null;
+		} finally {
+			chan.configuration.commit();
+		}
+		if (threadSummaries == null || isCancelled()) {
+			return null;
+		}
+		HashMap<String, ThreadSummary> threadSummariesMap = new HashMap<>();
+		for (ThreadSummary threadSummary : threadSummaries) {
+			threadSummariesMap.put(threadSummary.getThreadNumber(), threadSummary);
+		}
+		// Threads missing in summaries are considered modified, so deleted threads are checked as usual
+		HashSet<String> unmodifiedThreadNumbers = new HashSet<>();
+		for (Map.Entry<String, Long> entry : lastUpdates.entrySet()) {
+			String threadNumber = entry.getKey();
+			ThreadSummary threadSummary = threadSummariesMap.get(threadNumber);
+			if (threadSummary != null) {
+				PostNumber lastPostNumber = PostNumber.parseNullable(threadSummary.getLastPostNumber());
+				boolean unmodified;
+				if (lastPostNumber != null) {
+					PostNumber lastExistingPostNumber = PagesDatabase.getInstance().getLastExistingPostNumber
+							(new PagesDatabase.ThreadKey(chan.name, boardName, threadNumber));
+					unmodified = lastPostNumber.equals(lastExistingPostNumber);
+				} else {
+					long lastModified = threadSummary.getLastModified();
+					unmodified = lastModified > 0 && lastModified < entry.getValue();
+				}
+				if (unmodified) {
+					unmodifiedThreadNumbers.add(threadNumber);
+				}
+			}
+		}
+		return unmodifiedThreadNumbers;
+	}
+
+	@Override
+	protected void onComplete(Set<String> unmodifiedThreadNumbers) {
+		callback.onCheckThreadSummariesResult(chan.name, boardName, unmodifiedThreadNumbers);
+	}
+}
@@ -5,7 +5,10 @@ import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
 import chan.content.Chan;
 import chan.content.ChanConfiguration;
+import chan.content.ChanManager;
 import chan.text.ParseException;
+import chan.util.StringUtils;
+import com.mishiranu.dashchan.BuildConfig;
 import com.mishiranu.dashchan.content.database.CommonDatabase;
 import com.mishiranu.dashchan.content.database.PagesDatabase;
 import com.mishiranu.dashchan.content.database.PostsDatabase;
@@ -13,13 +16,26 @@ import com.mishiranu.dashchan.content.database.ThreadsDatabase;
 import com.mishiranu.dashchan.content.model.Post;
 import com.mishiranu.dashchan.content.model.PostItem;
 import com.mishiranu.dashchan.content.model.PostNumber;
+import com.mishiranu.dashchan.text.SpannedSerial;
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.util.Murmur3;
+import com.mishiranu.dashchan.util.ParallelLoop;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class ExtractPostsTask extends ExecutorTask<Void, ExtractPostsTask.Result> {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int PREPARE_LIMIT = 100;
+	private static final int PREPARE_CHUNK_SIZE = 10;
+
 	public interface Callback {
 		void onExtractPostsComplete(Result result, boolean cancelled);
 	}
@@ -34,6 +50,7 @@ public class ExtractPostsTask extends ExecutorTask<Void, ExtractPostsTask.Result
 		public final boolean cacheChanged;
 		public final Map<PostNumber, PostItem> postItems;
 		public final Collection<PostNumber> removedPosts;
+		public final Map<PostNumber, PagesDatabase.HideVerdict> hideVerdicts;
 
 		public final PostsDatabase.Flags flags;
 		public final ThreadsDatabase.StateExtra stateExtra;
@@ -43,7 +60,8 @@ public class ExtractPostsTask extends ExecutorTask<Void, ExtractPostsTask.Result
 
 		public Result(Set<PostNumber> newPosts, Set<PostNumber> deletedPosts, Set<PostNumber> editedPosts,
 				Set<PostNumber> replyPosts, PagesDatabase.Cache cache, boolean cacheChanged,
-				Map<PostNumber, PostItem> postItems, Collection<PostNumber> removedPosts, PostsDatabase.Flags flags,
+				Map<PostNumber, PostItem> postItems, Collection<PostNumber> removedPosts,
+				Map<PostNumber, PagesDatabase.HideVerdict> hideVerdicts, PostsDatabase.Flags flags,
 				ThreadsDatabase.StateExtra stateExtra, Uri archivedThreadUri, int uniquePosters) {
 			this.newPosts = newPosts;
 			this.deletedPosts = deletedPosts;
@@ -53,6 +71,7 @@ public class ExtractPostsTask extends ExecutorTask<Void, ExtractPostsTask.Result
 			this.cacheChanged = cacheChanged;
 			this.postItems = postItems;
 			this.removedPosts = removedPosts;
+			this.hideVerdicts = hideVerdicts;
 			this.flags = flags;
 			this.stateExtra = stateExtra;
 			this.archivedThreadUri = archivedThreadUri;
@@ -98,6 +117,7 @@ public class ExtractPostsTask extends ExecutorTask<Void, ExtractPostsTask.Result
 		boolean cacheChanged = false;
 		Map<PostNumber, PostItem> postItems = Collections.emptyMap();
 		Collection<PostNumber> removedPosts = Collections.emptyList();
+		Map<PostNumber, PagesDatabase.HideVerdict> hideVerdicts = Collections.emptyMap();
 		if (!isCancelled() && extractStateExtra) {
 			stateExtra = CommonDatabase.getInstance().getThreads()
 					.getStateExtra(chan.name, boardName, threadNumber);
@@ -109,17 +129,112 @@ public class ExtractPostsTask extends ExecutorTask<Void, ExtractPostsTask.Result
 			cacheChanged = true;
 			postItems = new HashMap<>(diff.changed.size());
 			removedPosts = diff.removed;
+			if (cache == null) {
+				// Stored verdicts are loaded once, then they are kept in memory
+				hideVerdicts = PagesDatabase.getInstance().getHideVerdicts(threadKey);
+			}
 			PostNumber originalPostNumber = diff.cache.originalPostNumber;
+			ArrayList<PostItem> prepareItems = new ArrayList<>(diff.changed.size());
 			for (Post post : diff.changed) {
-				postItems.put(post.number, PostItem.createPost(post, chan,
-						boardName, threadNumber, originalPostNumber));
+				PostItem postItem = PostItem.createPost(post, chan, boardName, threadNumber, originalPostNumber);
+				postItems.put(post.number, postItem);
+				prepareItems.add(postItem);
+			}
+			// Parse the most recent posts in parallel, other posts will be parsed on demand
+			try {
+				prepareItems(prepareItems, prepareItems.size() - PREPARE_LIMIT);
+			} catch (OperationCanceledException e) {
+				// Ignore
 			}
 		}
 		return new Result(diff.newPosts, diff.deletedPosts, diff.editedPosts, diff.replyPosts,
-				diff.cache, cacheChanged, postItems, removedPosts, flags, stateExtra,
+				diff.cache, cacheChanged, postItems, removedPosts, hideVerdicts, flags, stateExtra,
 				meta != null ? meta.archivedThreadUri : null, meta != null ? meta.uniquePosters : 0);
 	}
 
+	public static long getParsedCommentsVersion(Chan chan) {
+		long versionCode = 0;
+		for (ChanManager.ExtensionItem extensionItem : ChanManager.getInstance().getExtensionItems()) {
+			if (extensionItem.type == ChanManager.ExtensionItem.Type.CHAN && chan.name.equals(extensionItem.name)) {
+				versionCode = extensionItem.versionCode;
+				break;
+			}
+		}
+		return (versionCode * 31 + BuildConfig.VERSION_CODE) * 31 + SpannedSerial.VERSION;
+	}
+
+	// Stores comments parsed on demand, call from the main thread
+	public static void storePendingComments(Chan chan, Collection<PostItem> postItems) {
+		ArrayList<PostItem> pendingItems = new ArrayList<>();
+		ArrayList<byte[]> pendingData = new ArrayList<>();
+		for (PostItem postItem : postItems) {
+			byte[] data = postItem.takePendingCommentData();
+			if (data != null) {
+				pendingItems.add(postItem);
+				pendingData.add(data);
+			}
+		}
+		if (!pendingItems.isEmpty()) {
+			ConcurrentUtils.PARALLEL_EXECUTOR.execute(() -> {
+				ArrayList<PagesDatabase.ParsedComment> parsedComments = new ArrayList<>(pendingItems.size());
+				for (int i = 0; i < pendingItems.size(); i++) {
+					parsedComments.add(new PagesDatabase.ParsedComment(getParsedCommentKey(pendingItems.get(i)),
+							pendingData.get(i)));
+				}
+				PagesDatabase.getInstance().putParsedComments(chan.name,
+						getParsedCommentsVersion(chan), parsedComments);
+			});
+		}
+	}
+
+	private static byte[] getParsedCommentKey(PostItem postItem) {
+		// Parsed comment depends on the source and the thread it belongs to
+		byte[] bytes = (postItem.getPost().comment + '\u0000' + postItem.getBoardName() + '\u0000' +
+				postItem.getThreadNumber() + '\u0000' + postItem.getOriginalPostNumber())
+				.getBytes(UTF_8);
+		return Murmur3.hash128(bytes, 0, bytes.length);
+	}
+
+	// Cached comments are attached to all posts to be decoded on demand instead of being parsed,
+	// posts starting from parseFrom are prepared in advance
+	private void prepareItems(List<PostItem> postItems, int parseFrom) {
+		long version = getParsedCommentsVersion(chan);
+		byte[][] keys = new byte[postItems.size()][];
+		ArrayList<byte[]> requestKeys = new ArrayList<>(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			PostItem postItem = postItems.get(i);
+			if (!StringUtils.isEmpty(postItem.getPost().comment)) {
+				keys[i] = getParsedCommentKey(postItem);
+				requestKeys.add(keys[i]);
+			}
+		}
+		// Returned keys are the same instances
+		IdentityHashMap<byte[], byte[]> cachedData = new IdentityHashMap<>();
+		for (PagesDatabase.ParsedComment parsedComment : PagesDatabase.getInstance()
+				.getParsedComments(chan.name, version, requestKeys)) {
+			cachedData.put(parsedComment.key, parsedComment.data);
+		}
+		signal.throwIfCanceled();
+		for (int i = 0; i < keys.length; i++) {
+			postItems.get(i).setCommentCache(keys[i] != null ? cachedData.get(keys[i]) : null);
+		}
+		int start = Math.max(parseFrom, 0);
+		byte[][] parsedData = new byte[keys.length][];
+		ParallelLoop.run(keys.length - start, PREPARE_CHUNK_SIZE, signal, i -> {
+			PostItem postItem = postItems.get(start + i);
+			postItem.getComment(chan);
+			parsedData[start + i] = postItem.takePendingCommentData();
+			postItem.getFullName(chan);
+		});
+		ArrayList<PagesDatabase.ParsedComment> parsedComments = new ArrayList<>();
+		for (int i = 0; i < keys.length; i++) {
+			if (parsedData[i] != null) {
+				parsedComments.add(new PagesDatabase.ParsedComment(keys[i], parsedData[i]));
+			}
+		}
+		PagesDatabase.getInstance().putParsedComments(chan.name, version, parsedComments);
+	}
+
 	@Override
 	protected void onCancel(Result result) {
 		if (result != null) {
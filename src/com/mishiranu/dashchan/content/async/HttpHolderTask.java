@@ -19,6 +19,10 @@ public abstract class HttpHolderTask<Progress, Result> extends ExecutorTask<Prog
 
 	protected abstract Result run(HttpHolder holder);
 
+	public void setPriority(HttpHolder.Priority priority) {
+		holder.setPriority(priority);
+	}
+
 	@Override
 	public void cancel() {
 		super.cancel();
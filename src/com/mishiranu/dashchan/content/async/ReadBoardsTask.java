@@ -27,6 +27,7 @@ public class ReadBoardsTask extends HttpHolderTask<Void, ErrorItem> {
 
 	@Override
 	protected ErrorItem run(HttpHolder holder) {
+		holder.setUseResponseCache(true);
 		try {
 			ChanPerformer.ReadBoardsResult result = chan.performer.safe()
 					.onReadBoards(new ChanPerformer.ReadBoardsData(holder));
@@ -1,6 +1,7 @@
 package com.mishiranu.dashchan.content.async;
 
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 import chan.content.Chan;
 import chan.content.ChanConfiguration;
@@ -40,10 +41,15 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 	private final boolean loadFullThread;
 	private final HashSet<PendingUserPost> pendingUserPosts;
 
+	// Used to estimate how often the thread should be refreshed
+	public enum ThreadState {ACTIVE, BUMP_LIMIT, CLOSED}
+
 	public interface Callback {
 		void onPendingUserPostsConsumed(Set<PendingUserPost> pendingUserPosts);
+		void onReadPostsFetched();
+		void onReadPostsWritten(long duration);
 		void onReadPostsSuccess(PagesDatabase.Cache.State cacheState,
-				List<PagesDatabase.InsertResult.Reply> replies, Integer newCount);
+				List<PagesDatabase.InsertResult.Reply> replies, Integer newCount, ThreadState threadState);
 		void onReadPostsRedirect(RedirectException.Target target);
 		void onReadPostsFail(ErrorItem errorItem);
 	}
@@ -54,13 +60,18 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 			public final Set<PendingUserPost> removedPendingUserPosts;
 			public final List<PagesDatabase.InsertResult.Reply> replies;
 			public final Integer newCount;
+			public final ThreadState threadState;
+			public final long writeDuration;
 
 			public Success(PagesDatabase.Cache.State cacheState, Set<PendingUserPost> removedPendingUserPosts,
-					List<PagesDatabase.InsertResult.Reply> replies, Integer newCount) {
+					List<PagesDatabase.InsertResult.Reply> replies, Integer newCount, ThreadState threadState,
+					long writeDuration) {
 				this.cacheState = cacheState;
 				this.removedPendingUserPosts = removedPendingUserPosts;
 				this.replies = replies;
 				this.newCount = newCount;
+				this.threadState = threadState;
+				this.writeDuration = writeDuration;
 			}
 		}
 
@@ -185,13 +196,15 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 				if (partial) {
 					updateMeta = new UpdateMeta(false, false);
 					return new Result.Success(PagesDatabase.getInstance().getCacheState(threadKey),
-							null, Collections.emptyList(), null);
+							null, Collections.emptyList(), null, null, -1);
 				} else {
 					updateMeta = new UpdateMeta(false, true);
 					return new Result.Fail(new ErrorItem(ErrorItem.Type.EMPTY_RESPONSE));
 				}
 			}
 
+			// Network stage is finished, so the next thread can be fetched while posts are written
+			notifyProgress(null);
 			HashSet<PendingUserPost> pendingUserPosts = this.pendingUserPosts;
 			HashSet<PendingUserPost> removedPendingUserPosts = null;
 			if (pendingUserPosts != null && !pendingUserPosts.isEmpty()) {
@@ -212,6 +225,7 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 
 			PagesDatabase.InsertResult insertResult;
 			boolean newThread = meta == null;
+			long writeStart = SystemClock.elapsedRealtime();
 			try {
 				Uri archivedThreadUri = result.archivedThreadUri;
 				if (archivedThreadUri == null && meta != null) {
@@ -228,14 +242,18 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 				updateMeta = new UpdateMeta(false, true);
 				return new Result.Fail(new ErrorItem(ErrorItem.Type.NO_ACCESS_TO_MEMORY));
 			}
+			long writeDuration = SystemClock.elapsedRealtime() - writeStart;
+			Post originalPost = posts.get(0).number.equals(originalPostNumber) ? posts.get(0)
+					: PagesDatabase.getInstance().getOriginalPost(threadKey);
+			ThreadState threadState = getThreadState(originalPost, partial ? 0 : posts.size());
 			return new Result.Success(insertResult.cacheState, removedPendingUserPosts,
-					insertResult.replies, insertResult.newCount);
+					insertResult.replies, insertResult.newCount, threadState, writeDuration);
 		} catch (HttpException e) {
 			int responseCode = e.getResponseCode();
 			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
 				updateMeta = new UpdateMeta(false, false);
 				return new Result.Success(PagesDatabase.getInstance().getCacheState(threadKey),
-						null, Collections.emptyList(), null);
+						null, Collections.emptyList(), null, null, -1);
 			}
 			if (responseCode == HttpURLConnection.HTTP_NOT_FOUND ||
 					responseCode == HttpURLConnection.HTTP_GONE) {
@@ -276,6 +294,30 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 		}
 	}
 
+	private ThreadState getThreadState(Post originalPost, int postsCount) {
+		if (originalPost == null || originalPost.isSticky() || originalPost.isCyclical()) {
+			return ThreadState.ACTIVE;
+		}
+		if (originalPost.isClosed() || originalPost.isArchived()) {
+			return ThreadState.CLOSED;
+		}
+		if (originalPost.isBumpLimitReached()) {
+			return ThreadState.BUMP_LIMIT;
+		}
+		if (postsCount > 0) {
+			int bumpLimit = chan.configuration.getBumpLimitWithMode(boardName);
+			if (bumpLimit != ChanConfiguration.BUMP_LIMIT_INVALID && postsCount >= bumpLimit) {
+				return ThreadState.BUMP_LIMIT;
+			}
+		}
+		return ThreadState.ACTIVE;
+	}
+
+	@Override
+	protected void onProgress(Void progress) {
+		callback.onReadPostsFetched();
+	}
+
 	@Override
 	protected void onCancel(Result result) {
 		if (result instanceof Result.Success) {
@@ -293,7 +335,10 @@ public class ReadPostsTask extends HttpHolderTask<Void, ReadPostsTask.Result> {
 			if (success.removedPendingUserPosts != null) {
 				callback.onPendingUserPostsConsumed(success.removedPendingUserPosts);
 			}
-			callback.onReadPostsSuccess(success.cacheState, success.replies, success.newCount);
+			if (success.writeDuration >= 0) {
+				callback.onReadPostsWritten(success.writeDuration);
+			}
+			callback.onReadPostsSuccess(success.cacheState, success.replies, success.newCount, success.threadState);
 		} else if (result instanceof Result.Redirect) {
 			Result.Redirect redirect = (Result.Redirect) result;
 			callback.onReadPostsRedirect(redirect.target);
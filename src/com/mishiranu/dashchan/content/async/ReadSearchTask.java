@@ -1,5 +1,7 @@
 package com.mishiranu.dashchan.content.async;
 
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import chan.content.Chan;
 import chan.content.ChanPerformer;
 import chan.content.ExtensionException;
@@ -7,8 +9,10 @@ import chan.content.InvalidResponseException;
 import chan.content.model.SinglePost;
 import chan.http.HttpException;
 import chan.http.HttpHolder;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostNumber;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -21,6 +25,8 @@ public class ReadSearchTask extends HttpHolderTask<Void, List<PostItem>> {
 	private final String boardName;
 	private final String searchQuery;
 	private final int pageNumber;
+	private final boolean local;
+	private final CancellationSignal signal = new CancellationSignal();
 
 	private ErrorItem errorItem;
 
@@ -29,24 +35,67 @@ public class ReadSearchTask extends HttpHolderTask<Void, List<PostItem>> {
 		void onReadSearchFail(ErrorItem errorItem);
 	}
 
-	public ReadSearchTask(Callback callback, Chan chan, String boardName, String searchQuery, int pageNumber) {
+	// Local search looks for posts of cached threads instead of requesting the chan
+	public ReadSearchTask(Callback callback, Chan chan, String boardName, String searchQuery, int pageNumber,
+			boolean local) {
 		super(chan);
 		this.callback = callback;
 		this.chan = chan;
 		this.boardName = boardName;
 		this.searchQuery = searchQuery;
 		this.pageNumber = pageNumber;
+		this.local = local;
 	}
 
 	public int getPageNumber() {
 		return pageNumber;
 	}
 
+	@Override
+	public void cancel() {
+		super.cancel();
+		try {
+			signal.cancel();
+		} catch (Exception e) {
+			// Ignore
+		}
+	}
+
 	private static final Comparator<SinglePost> TIME_COMPARATOR =
 			(lhs, rhs) -> Long.compare(rhs.post.timestamp, lhs.post.timestamp);
 
+	private ArrayList<PostItem> readLocal() {
+		// All ranked posts are returned with the first page
+		if (pageNumber > 0) {
+			return null;
+		}
+		List<PagesDatabase.SearchPost> searchPosts;
+		try {
+			searchPosts = PagesDatabase.getInstance().searchPosts(chan.name, boardName, searchQuery, signal);
+		} catch (OperationCanceledException e) {
+			return null;
+		}
+		if (searchPosts.isEmpty()) {
+			return null;
+		}
+		ArrayList<PostItem> postItems = new ArrayList<>(searchPosts.size());
+		for (int i = 0; i < searchPosts.size() && !Thread.interrupted(); i++) {
+			PagesDatabase.SearchPost searchPost = searchPosts.get(i);
+			PostItem postItem = PostItem.createPost(searchPost.post, chan, searchPost.boardName,
+					searchPost.threadNumber, PostNumber.parseNullable(searchPost.threadNumber));
+			postItem.setOrdinalIndex(i);
+			// Preload
+			ConcurrentUtils.mainGet(() -> postItem.getComment(chan));
+			postItems.add(postItem);
+		}
+		return postItems;
+	}
+
 	@Override
 	protected ArrayList<PostItem> run(HttpHolder holder) {
+		if (local) {
+			return readLocal();
+		}
 		try {
 			ChanPerformer.ReadSearchPostsResult result = chan.performer.safe().onReadSearchPosts(new ChanPerformer
 					.ReadSearchPostsData(boardName, searchQuery, pageNumber, holder));
@@ -1,5 +1,7 @@
 package com.mishiranu.dashchan.content.async;
 
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.util.Log;
 import chan.content.Chan;
 import chan.content.ChanPerformer;
@@ -13,17 +15,22 @@ import chan.util.CommonUtils;
 import com.mishiranu.dashchan.content.database.CommonDatabase;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.util.ParallelLoop;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class ReadThreadsTask extends HttpHolderTask<Void, Boolean> {
+	private static final int PARSE_CHUNK_SIZE = 4;
+
 	private final Callback callback;
 	private final Chan chan;
 	private final String boardName;
 	private final int pageNumber;
 	private final HttpValidator validator;
 	private final boolean append;
+	private final CancellationSignal signal = new CancellationSignal();
 
 	private ArrayList<PostItem> postItems;
 	private int boardSpeed = 0;
@@ -56,8 +63,19 @@ public class ReadThreadsTask extends HttpHolderTask<Void, Boolean> {
 		return pageNumber;
 	}
 
+	@Override
+	public void cancel() {
+		super.cancel();
+		try {
+			signal.cancel();
+		} catch (Exception e) {
+			// Ignore
+		}
+	}
+
 	@Override
 	protected Boolean run(HttpHolder holder) {
+		holder.setUseResponseCache(true);
 		try {
 			ChanPerformer.ReadThreadsResult result;
 			try {
@@ -82,14 +100,21 @@ public class ReadThreadsTask extends HttpHolderTask<Void, Boolean> {
 			if (result == null) {
 				throw HttpException.createNotFoundException();
 			}
-			ArrayList<PostItem> postItems = new ArrayList<>(result.threads.size());
-			ArrayList<String> threadNumbers = new ArrayList<>(result.threads.size());
-			for (ChanPerformer.ReadThreadsResult.Thread thread : result.threads) {
-				postItems.add(PostItem.createThread(thread.posts, thread.postsCount, thread.filesCount,
-						thread.postsWithFilesCount, chan, boardName, thread.threadNumber));
+			List<ChanPerformer.ReadThreadsResult.Thread> threads = result.threads;
+			PostItem[] postItems = new PostItem[threads.size()];
+			ArrayList<String> threadNumbers = new ArrayList<>(threads.size());
+			for (ChanPerformer.ReadThreadsResult.Thread thread : threads) {
 				threadNumbers.add(thread.threadNumber);
 			}
-			this.postItems = postItems;
+			// Comments are parsed in parallel here, order is preserved by index
+			ParallelLoop.run(postItems.length, PARSE_CHUNK_SIZE, signal, i -> {
+				ChanPerformer.ReadThreadsResult.Thread thread = threads.get(i);
+				PostItem postItem = PostItem.createThread(thread.posts, thread.postsCount, thread.filesCount,
+						thread.postsWithFilesCount, chan, boardName, thread.threadNumber);
+				postItem.getFullName(chan);
+				postItems[i] = postItem;
+			});
+			this.postItems = new ArrayList<>(Arrays.asList(postItems));
 			this.boardSpeed = result.boardSpeed;
 			this.resultValidator = result.validator != null ? result.validator : holder.extractValidator();
 			hiddenThreads = CommonDatabase.getInstance().getThreads()
@@ -110,6 +135,8 @@ public class ReadThreadsTask extends HttpHolderTask<Void, Boolean> {
 		} catch (ExtensionException | InvalidResponseException e) {
 			errorItem = e.getErrorItemAndHandle();
 			return false;
+		} catch (OperationCanceledException e) {
+			return false;
 		} finally {
 			chan.configuration.commit();
 		}
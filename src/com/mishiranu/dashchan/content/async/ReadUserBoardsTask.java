@@ -30,6 +30,7 @@ public class ReadUserBoardsTask extends HttpHolderTask<Long, Pair<ErrorItem, Lis
 
 	@Override
 	protected Pair<ErrorItem, List<String>> run(HttpHolder holder) {
+		holder.setUseResponseCache(true);
 		try {
 			ChanPerformer.ReadUserBoardsResult result = chan.performer.safe()
 					.onReadUserBoards(new ChanPerformer.ReadUserBoardsData(holder));
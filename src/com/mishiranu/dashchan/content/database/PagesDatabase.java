@@ -2,8 +2,11 @@ package com.mishiranu.dashchan.content.database;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
@@ -20,9 +23,9 @@ import com.mishiranu.dashchan.content.model.Post;
 import com.mishiranu.dashchan.content.model.PostItem;
 import com.mishiranu.dashchan.content.model.PostNumber;
 import com.mishiranu.dashchan.content.storage.FavoritesStorage;
+import com.mishiranu.dashchan.text.HtmlParser;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
 import com.mishiranu.dashchan.util.FlagUtils;
-import com.mishiranu.dashchan.util.Hasher;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -30,6 +33,9 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -37,6 +43,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -87,6 +94,65 @@ public class PagesDatabase {
 				int MARK_REPLY = 0x00000010;
 			}
 		}
+
+		interface Comments {
+			String TABLE_NAME = "comments";
+			int MAX_COUNT = 20000;
+			float TRIM_FACTOR = 0.75f;
+
+			interface Columns {
+				String KEY = "key";
+				String KEY_CHECK = "key_check";
+				String CHAN_NAME = "chan_name";
+				String VERSION = "version";
+				String TIME = "time";
+				String DATA = "data";
+			}
+		}
+
+		interface Responses {
+			String TABLE_NAME = "responses";
+			int MAX_SIZE = 16 * 1024 * 1024;
+			float TRIM_FACTOR = 0.75f;
+
+			interface Columns {
+				String CHAN_NAME = "chan_name";
+				String URI = "uri";
+				String VALIDATOR = "validator";
+				String CHARSET = "charset";
+				String TIME = "time";
+				String LENGTH = "length";
+				String DATA = "data";
+			}
+		}
+
+		interface Hidden {
+			String TABLE_NAME = "hidden";
+
+			interface Columns {
+				String CHAN_NAME = "chan_name";
+				String BOARD_NAME = "board_name";
+				String THREAD_NUMBER = "thread_number";
+				String POST_NUMBER_MAJOR = "post_number_major";
+				String POST_NUMBER_MINOR = "post_number_minor";
+				String KEY = "key";
+				String REASON = "reason";
+			}
+		}
+
+		interface Search {
+			String TABLE_NAME = "search";
+			String PREFIX = "2,3";
+			int MIN_PREFIX_LENGTH = 2;
+			int MAX_CANDIDATES = 500;
+			int INDEX_BATCH_SIZE = 500;
+
+			interface Columns {
+				String SUBJECT = "subject";
+				String NAME = "name";
+				String COMMENT = "comment";
+			}
+		}
 	}
 
 	public static class Meta {
@@ -193,6 +259,13 @@ public class PagesDatabase {
 					.equals(Schema.Posts.Columns.THREAD_NUMBER, threadNumber);
 		}
 
+		private Expression.Filter.Builder filterHidden() {
+			return Expression.filter()
+					.equals(Schema.Hidden.Columns.CHAN_NAME, chanName)
+					.equals(Schema.Hidden.Columns.BOARD_NAME, boardName)
+					.equals(Schema.Hidden.Columns.THREAD_NUMBER, threadNumber);
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (o == this) {
@@ -242,6 +315,37 @@ public class PagesDatabase {
 		}
 	}
 
+	private static class HashIndex {
+		public static class Item {
+			public final long id;
+			public final byte[] hash;
+			public int flags;
+
+			private Item(long id, byte[] hash, int flags) {
+				this.id = id;
+				this.hash = hash;
+				this.flags = flags;
+			}
+		}
+
+		public final HashMap<PostNumber, Item> items;
+		public int size;
+
+		private HashIndex(HashMap<PostNumber, Item> items) {
+			this.items = items;
+		}
+
+		public void updateFlags(LongSparseArray<PostNumber> posts, int flags, boolean value) {
+			for (int i = 0; i < posts.size(); i++) {
+				Item item = items.get(posts.valueAt(i));
+				// Row could be replaced in the meantime
+				if (item != null && item.id == posts.keyAt(i)) {
+					item.flags = FlagUtils.set(item.flags, flags, value);
+				}
+			}
+		}
+	}
+
 	private static class Extracted {
 		public final byte[] data;
 		public final PostNumber postNumber;
@@ -307,6 +411,11 @@ public class PagesDatabase {
 			return diffItems.isEmpty();
 		}
 
+		public byte[] getHash(PostNumber postNumber) {
+			DiffItem diffItem = diffItems.get(postNumber);
+			return diffItem != null ? diffItem.hash : null;
+		}
+
 		public boolean isChanged(Cache oldCache) {
 			// Compare references
 			return oldCache == null || oldCache.diffItems != diffItems;
@@ -368,6 +477,8 @@ public class PagesDatabase {
 
 	private enum MigrationRequest {GET_META, COLLECT_DIFF_POSTS}
 
+	private static final PostSerializer.HashMode HASH_MODE = PostSerializer.HashMode.MURMUR3_128;
+
 	private static final PagesDatabase INSTANCE = new PagesDatabase();
 
 	public static PagesDatabase getInstance() {
@@ -376,6 +487,7 @@ public class PagesDatabase {
 
 	private final Helper helper = new Helper();
 	private final SQLiteDatabase database = helper.getWritableDatabase();
+	private final boolean supportsSearch = createSearchTable(database);
 
 	private PagesDatabase() {
 		File directory = getLegacyCacheDirectory();
@@ -409,13 +521,16 @@ public class PagesDatabase {
 				excludeThreads.add(new ThreadKey(favoriteItem.chanName,
 						StringUtils.emptyIfNull(favoriteItem.boardName), favoriteItem.threadNumber));
 			}
-			new Thread(() -> cleanup(excludeThreads, false)).start();
+			new Thread(() -> {
+				cleanup(excludeThreads, false);
+				indexSearchPosts();
+			}).start();
 		}
 	}
 
 	private static class Helper extends SQLiteOpenHelper {
 		private static final String DATABASE_NAME = "pages.db";
-		private static final int DATABASE_VERSION = 1;
+		private static final int DATABASE_VERSION = 4;
 
 		private Helper() {
 			super(MainApplication.getInstance(), DATABASE_NAME, null, DATABASE_VERSION);
@@ -464,15 +579,111 @@ public class PagesDatabase {
 					Schema.Meta.Columns.BOARD_NAME + ", " +
 					Schema.Meta.Columns.THREAD_NUMBER + ") " +
 					"ON DELETE CASCADE ON UPDATE CASCADE)");
+			createCommentsTable(db);
+			createResponsesTable(db);
+			createHiddenTable(db);
+		}
+
+		private static void createCommentsTable(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + Schema.Comments.TABLE_NAME + " (" +
+					Schema.Comments.Columns.KEY + " INTEGER PRIMARY KEY, " +
+					Schema.Comments.Columns.KEY_CHECK + " INTEGER NOT NULL, " +
+					Schema.Comments.Columns.CHAN_NAME + " TEXT NOT NULL, " +
+					Schema.Comments.Columns.VERSION + " INTEGER NOT NULL, " +
+					Schema.Comments.Columns.TIME + " INTEGER NOT NULL, " +
+					Schema.Comments.Columns.DATA + " BLOB NOT NULL)");
+			db.execSQL("CREATE INDEX " + Schema.Comments.TABLE_NAME + "_order " +
+					"ON " + Schema.Comments.TABLE_NAME + " (" +
+					Schema.Comments.Columns.TIME + ")");
+		}
+
+		private static void createResponsesTable(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + Schema.Responses.TABLE_NAME + " (" +
+					Schema.Responses.Columns.CHAN_NAME + " TEXT NOT NULL, " +
+					Schema.Responses.Columns.URI + " TEXT NOT NULL, " +
+					Schema.Responses.Columns.VALIDATOR + " BLOB NOT NULL, " +
+					Schema.Responses.Columns.CHARSET + " TEXT, " +
+					Schema.Responses.Columns.TIME + " INTEGER NOT NULL, " +
+					Schema.Responses.Columns.LENGTH + " INTEGER NOT NULL, " +
+					Schema.Responses.Columns.DATA + " BLOB NOT NULL, " +
+					"PRIMARY KEY (" + Schema.Responses.Columns.CHAN_NAME + ", " +
+					Schema.Responses.Columns.URI + "))");
+			db.execSQL("CREATE INDEX " + Schema.Responses.TABLE_NAME + "_order " +
+					"ON " + Schema.Responses.TABLE_NAME + " (" +
+					Schema.Responses.Columns.TIME + ")");
+		}
+
+		private static void createHiddenTable(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + Schema.Hidden.TABLE_NAME + " (" +
+					Schema.Hidden.Columns.CHAN_NAME + " TEXT NOT NULL, " +
+					Schema.Hidden.Columns.BOARD_NAME + " TEXT NOT NULL, " +
+					Schema.Hidden.Columns.THREAD_NUMBER + " TEXT NOT NULL, " +
+					Schema.Hidden.Columns.POST_NUMBER_MAJOR + " INTEGER NOT NULL, " +
+					Schema.Hidden.Columns.POST_NUMBER_MINOR + " INTEGER NOT NULL, " +
+					Schema.Hidden.Columns.KEY + " BLOB NOT NULL, " +
+					Schema.Hidden.Columns.REASON + " TEXT, " +
+					"PRIMARY KEY (" + Schema.Hidden.Columns.CHAN_NAME + ", " +
+					Schema.Hidden.Columns.BOARD_NAME + ", " +
+					Schema.Hidden.Columns.THREAD_NUMBER + ", " +
+					Schema.Hidden.Columns.POST_NUMBER_MAJOR + ", " +
+					Schema.Hidden.Columns.POST_NUMBER_MINOR + "), " +
+					"FOREIGN KEY (" + Schema.Hidden.Columns.CHAN_NAME + ", " +
+					Schema.Hidden.Columns.BOARD_NAME + ", " +
+					Schema.Hidden.Columns.THREAD_NUMBER + ", " +
+					Schema.Hidden.Columns.POST_NUMBER_MAJOR + ", " +
+					Schema.Hidden.Columns.POST_NUMBER_MINOR + ") " +
+					"REFERENCES " + Schema.Posts.TABLE_NAME + " (" +
+					Schema.Posts.Columns.CHAN_NAME + ", " +
+					Schema.Posts.Columns.BOARD_NAME + ", " +
+					Schema.Posts.Columns.THREAD_NUMBER + ", " +
+					Schema.Posts.Columns.POST_NUMBER_MAJOR + ", " +
+					Schema.Posts.Columns.POST_NUMBER_MINOR + ") " +
+					"ON DELETE CASCADE ON UPDATE CASCADE)");
 		}
 
 		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			if (oldVersion < 2) {
+				createCommentsTable(db);
+			}
+			if (oldVersion < 3) {
+				createResponsesTable(db);
+			}
+			if (oldVersion < 4) {
+				createHiddenTable(db);
+			}
+		}
 
 		@Override
 		public void onOpen(SQLiteDatabase db) {}
 	}
 
+	private static boolean createSearchTable(SQLiteDatabase db) {
+		// Table is created outside of migrations, since unicode61 tokenizer is missing in old SQLite versions
+		try {
+			String prefix = "prefix=\"" + Schema.Search.PREFIX + "\"";
+			try (Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+					new String[] {Schema.Search.TABLE_NAME})) {
+				if (cursor.moveToFirst() && !StringUtils.emptyIfNull(cursor.getString(0)).contains(prefix)) {
+					// Table without prefix indexes is recreated, posts are indexed again after cleanup
+					db.execSQL("DROP TABLE " + Schema.Search.TABLE_NAME);
+				}
+			}
+			db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + Schema.Search.TABLE_NAME + " USING fts4(" +
+					Schema.Search.Columns.SUBJECT + ", " +
+					Schema.Search.Columns.NAME + ", " +
+					Schema.Search.Columns.COMMENT + ", " +
+					"tokenize=unicode61, " + prefix + ")");
+			// Replaced posts are deleted explicitly, since REPLACE doesn't fire delete triggers
+			db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Schema.Posts.TABLE_NAME + "_search_delete " +
+					"AFTER DELETE ON " + Schema.Posts.TABLE_NAME + " BEGIN " +
+					"DELETE FROM " + Schema.Search.TABLE_NAME + " WHERE docid = old.rowid; END");
+			return true;
+		} catch (SQLiteException e) {
+			return false;
+		}
+	}
+
 	private void cleanup(Set<ThreadKey> excludeThreads, boolean force) {
 		HashSet<ThreadKey> removeThreads = null;
 		boolean shouldRemove = false;
@@ -521,6 +732,8 @@ public class PagesDatabase {
 			} finally {
 				database.endTransaction();
 			}
+			clearHashIndexes();
+			mergeSearchSegments();
 			checkpoint();
 		}
 	}
@@ -542,6 +755,16 @@ public class PagesDatabase {
 
 	public void eraseAll() {
 		database.delete(Schema.Meta.TABLE_NAME, null, null);
+		database.delete(Schema.Comments.TABLE_NAME, null, null);
+		synchronized (commentsLock) {
+			commentsCount = 0;
+		}
+		database.delete(Schema.Responses.TABLE_NAME, null, null);
+		synchronized (responsesLock) {
+			responsesSize = 0;
+		}
+		clearHashIndexes();
+		mergeSearchSegments();
 		checkpoint();
 	}
 
@@ -627,8 +850,8 @@ public class PagesDatabase {
 				filter.value, filter.args, null, null, orderByPostNumber(false), "1")) {
 			if (cursor.moveToFirst()) {
 				PostNumber postNumber = new PostNumber(cursor.getInt(0), cursor.getInt(1));
-				try (JsonSerial.Reader reader = JsonSerial.reader(cursor.getBlob(2))) {
-					return Post.deserialize(postNumber, false, reader);
+				try {
+					return Post.deserialize(postNumber, false, cursor.getBlob(2));
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				} catch (ParseException e) {
@@ -680,6 +903,554 @@ public class PagesDatabase {
 				FlagUtils.get(flags, Schema.Meta.Flags.ERROR), time);
 	}
 
+	public static class HideVerdict {
+		public final byte[] key;
+		public final String reason;
+
+		public HideVerdict(byte[] key, String reason) {
+			this.key = key;
+			this.reason = reason;
+		}
+	}
+
+	public Map<PostNumber, HideVerdict> getHideVerdicts(@NonNull ThreadKey threadKey) {
+		Objects.requireNonNull(threadKey);
+		String[] projection = {Schema.Hidden.Columns.POST_NUMBER_MAJOR, Schema.Hidden.Columns.POST_NUMBER_MINOR,
+				Schema.Hidden.Columns.KEY, Schema.Hidden.Columns.REASON};
+		Expression.Filter filter = threadKey.filterHidden().build();
+		HashMap<PostNumber, HideVerdict> hideVerdicts;
+		try (Cursor cursor = database.query(Schema.Hidden.TABLE_NAME, projection,
+				filter.value, filter.args, null, null, null)) {
+			hideVerdicts = new HashMap<>(cursor.getCount());
+			while (cursor.moveToNext()) {
+				hideVerdicts.put(new PostNumber(cursor.getInt(0), cursor.getInt(1)),
+						new HideVerdict(cursor.getBlob(2), cursor.isNull(3) ? null : cursor.getString(3)));
+			}
+		}
+		return hideVerdicts;
+	}
+
+	public void putHideVerdicts(@NonNull ThreadKey threadKey, Map<PostNumber, HideVerdict> hideVerdicts) {
+		Objects.requireNonNull(threadKey);
+		if (hideVerdicts.isEmpty()) {
+			return;
+		}
+		database.beginTransaction();
+		try (SQLiteStatement statement = database.compileStatement("INSERT OR REPLACE INTO " +
+				Schema.Hidden.TABLE_NAME + " (" + Schema.Hidden.Columns.CHAN_NAME + ", " +
+				Schema.Hidden.Columns.BOARD_NAME + ", " + Schema.Hidden.Columns.THREAD_NUMBER + ", " +
+				Schema.Hidden.Columns.POST_NUMBER_MAJOR + ", " + Schema.Hidden.Columns.POST_NUMBER_MINOR + ", " +
+				Schema.Hidden.Columns.KEY + ", " + Schema.Hidden.Columns.REASON + ") " +
+				"VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+			for (Map.Entry<PostNumber, HideVerdict> entry : hideVerdicts.entrySet()) {
+				PostNumber postNumber = entry.getKey();
+				HideVerdict hideVerdict = entry.getValue();
+				statement.bindString(1, threadKey.chanName);
+				statement.bindString(2, threadKey.boardName);
+				statement.bindString(3, threadKey.threadNumber);
+				statement.bindLong(4, postNumber.major);
+				statement.bindLong(5, postNumber.minor);
+				statement.bindBlob(6, hideVerdict.key);
+				if (hideVerdict.reason != null) {
+					statement.bindString(7, hideVerdict.reason);
+				} else {
+					statement.bindNull(7);
+				}
+				try {
+					statement.executeInsert();
+				} catch (SQLiteConstraintException e) {
+					// Post was deleted from cache
+				}
+			}
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+	}
+
+	public static class ParsedComment {
+		public final byte[] key;
+		public final byte[] data;
+
+		public ParsedComment(byte[] key, byte[] data) {
+			this.key = key;
+			this.data = data;
+		}
+	}
+
+	private static final int COMMENTS_BATCH_SIZE = 100;
+
+	private final Object commentsLock = new Object();
+	private int commentsCount = -1;
+
+	private static long getCommentKey(byte[] key, int offset) {
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = result << 8 | key[offset + i] & 0xff;
+		}
+		return result;
+	}
+
+	// Keys are 128-bit hashes, the second half is used to check collisions
+	public List<ParsedComment> getParsedComments(@NonNull String chanName, long version, List<byte[]> keys) {
+		Objects.requireNonNull(chanName);
+		HashMap<Long, byte[]> keysMap = new HashMap<>(keys.size());
+		for (byte[] key : keys) {
+			keysMap.put(getCommentKey(key, 0), key);
+		}
+		ArrayList<ParsedComment> parsedComments = new ArrayList<>();
+		ArrayList<Long> touch = new ArrayList<>();
+		ArrayList<Long> batch = new ArrayList<>(COMMENTS_BATCH_SIZE);
+		Iterator<Long> iterator = keysMap.keySet().iterator();
+		String[] projection = {Schema.Comments.Columns.KEY, Schema.Comments.Columns.KEY_CHECK,
+				Schema.Comments.Columns.DATA};
+		while (iterator.hasNext()) {
+			batch.clear();
+			while (batch.size() < COMMENTS_BATCH_SIZE && iterator.hasNext()) {
+				batch.add(iterator.next());
+			}
+			Expression.Filter filter = Expression.filter()
+					.in(Schema.Comments.Columns.KEY, batch)
+					.equals(Schema.Comments.Columns.CHAN_NAME, chanName)
+					.equals(Schema.Comments.Columns.VERSION, Long.toString(version))
+					.build();
+			try (Cursor cursor = database.query(Schema.Comments.TABLE_NAME, projection,
+					filter.value, filter.args, null, null, null)) {
+				while (cursor.moveToNext()) {
+					long id = cursor.getLong(0);
+					byte[] key = keysMap.get(id);
+					if (key != null && getCommentKey(key, 8) == cursor.getLong(1)) {
+						parsedComments.add(new ParsedComment(key, cursor.getBlob(2)));
+						touch.add(id);
+					}
+				}
+			}
+		}
+		if (!touch.isEmpty()) {
+			Expression.updateById(database, Expression.LongIterator.create(touch.iterator()),
+					Schema.Comments.TABLE_NAME, Schema.Comments.Columns.KEY,
+					Schema.Comments.Columns.TIME + " = " + System.currentTimeMillis(), null);
+		}
+		return parsedComments;
+	}
+
+	public void putParsedComments(@NonNull String chanName, long version, List<ParsedComment> parsedComments) {
+		Objects.requireNonNull(chanName);
+		if (parsedComments.isEmpty()) {
+			return;
+		}
+		long time = System.currentTimeMillis();
+		Iterator<ParsedComment> iterator = parsedComments.iterator();
+		database.beginTransaction();
+		try {
+			Expression.batchInsert(parsedComments.size(), COMMENTS_BATCH_SIZE, 6,
+					values -> database.compileStatement("INSERT OR REPLACE INTO " + Schema.Comments.TABLE_NAME +
+							" (" + Schema.Comments.Columns.KEY + ", " + Schema.Comments.Columns.KEY_CHECK + ", " +
+							Schema.Comments.Columns.CHAN_NAME + ", " + Schema.Comments.Columns.VERSION + ", " +
+							Schema.Comments.Columns.TIME + ", " + Schema.Comments.Columns.DATA + ") " +
+							"VALUES " + values),
+					(statement, start) -> {
+						ParsedComment parsedComment = iterator.next();
+						statement.bindLong(start + 1, getCommentKey(parsedComment.key, 0));
+						statement.bindLong(start + 2, getCommentKey(parsedComment.key, 8));
+						statement.bindString(start + 3, chanName);
+						statement.bindLong(start + 4, version);
+						statement.bindLong(start + 5, time);
+						statement.bindBlob(start + 6, parsedComment.data);
+					});
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+		boolean trim;
+		synchronized (commentsLock) {
+			if (commentsCount >= 0) {
+				commentsCount += parsedComments.size();
+			}
+			trim = commentsCount < 0 || commentsCount > Schema.Comments.MAX_COUNT;
+		}
+		if (trim) {
+			trimParsedComments();
+		}
+	}
+
+	private void trimParsedComments() {
+		synchronized (commentsLock) {
+			int count;
+			try (Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM " + Schema.Comments.TABLE_NAME, null)) {
+				count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+			}
+			if (count > Schema.Comments.MAX_COUNT) {
+				int keepCount = (int) (Schema.Comments.MAX_COUNT * Schema.Comments.TRIM_FACTOR);
+				database.execSQL("DELETE FROM " + Schema.Comments.TABLE_NAME + " " +
+						"WHERE " + Schema.Comments.Columns.KEY + " IN (" +
+						"SELECT " + Schema.Comments.Columns.KEY + " FROM " + Schema.Comments.TABLE_NAME + " " +
+						"ORDER BY " + Schema.Comments.Columns.TIME + " ASC " +
+						"LIMIT " + (count - keepCount) + ")");
+				count = keepCount;
+			}
+			commentsCount = count;
+		}
+	}
+
+	public static class CachedResponse {
+		public final HttpValidator validator;
+		public final String charsetName;
+		public final int length;
+		public final byte[] data;
+
+		public CachedResponse(HttpValidator validator, String charsetName, int length, byte[] data) {
+			this.validator = validator;
+			this.charsetName = charsetName;
+			this.length = length;
+			this.data = data;
+		}
+	}
+
+	private final Object responsesLock = new Object();
+	private long responsesSize = -1;
+
+	private static Expression.Filter filterResponse(String chanName, String uri) {
+		return Expression.filter()
+				.equals(Schema.Responses.Columns.CHAN_NAME, chanName)
+				.equals(Schema.Responses.Columns.URI, uri)
+				.build();
+	}
+
+	private static HttpValidator deserializeValidator(byte[] data) {
+		try (JsonSerial.Reader reader = JsonSerial.reader(data)) {
+			return HttpValidator.deserialize(reader);
+		} catch (IOException | ParseException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// Validator is loaded separately, so the data is read only when the response wasn't modified
+	public HttpValidator getResponseValidator(@NonNull String chanName, @NonNull String uri) {
+		Objects.requireNonNull(chanName);
+		Objects.requireNonNull(uri);
+		Expression.Filter filter = filterResponse(chanName, uri);
+		try (Cursor cursor = database.query(Schema.Responses.TABLE_NAME,
+				new String[] {Schema.Responses.Columns.VALIDATOR},
+				filter.value, filter.args, null, null, null)) {
+			return cursor.moveToFirst() ? deserializeValidator(cursor.getBlob(0)) : null;
+		}
+	}
+
+	public CachedResponse getResponse(@NonNull String chanName, @NonNull String uri) {
+		Objects.requireNonNull(chanName);
+		Objects.requireNonNull(uri);
+		String[] projection = {Schema.Responses.Columns.VALIDATOR, Schema.Responses.Columns.CHARSET,
+				Schema.Responses.Columns.LENGTH, Schema.Responses.Columns.DATA};
+		Expression.Filter filter = filterResponse(chanName, uri);
+		CachedResponse response = null;
+		try (Cursor cursor = database.query(Schema.Responses.TABLE_NAME, projection,
+				filter.value, filter.args, null, null, null)) {
+			if (cursor.moveToFirst()) {
+				HttpValidator validator = deserializeValidator(cursor.getBlob(0));
+				if (validator != null) {
+					response = new CachedResponse(validator, cursor.getString(1),
+							cursor.getInt(2), cursor.getBlob(3));
+				}
+			}
+		}
+		if (response != null) {
+			ContentValues values = new ContentValues();
+			values.put(Schema.Responses.Columns.TIME, System.currentTimeMillis());
+			database.update(Schema.Responses.TABLE_NAME, values, filter.value, filter.args);
+		}
+		return response;
+	}
+
+	public void putResponse(@NonNull String chanName, @NonNull String uri, @NonNull CachedResponse response) {
+		Objects.requireNonNull(chanName);
+		Objects.requireNonNull(uri);
+		ContentValues values = new ContentValues();
+		values.put(Schema.Responses.Columns.CHAN_NAME, chanName);
+		values.put(Schema.Responses.Columns.URI, uri);
+		try (JsonSerial.Writer writer = JsonSerial.writer()) {
+			response.validator.serialize(writer);
+			values.put(Schema.Responses.Columns.VALIDATOR, writer.build());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		values.put(Schema.Responses.Columns.CHARSET, response.charsetName);
+		values.put(Schema.Responses.Columns.TIME, System.currentTimeMillis());
+		values.put(Schema.Responses.Columns.LENGTH, response.length);
+		values.put(Schema.Responses.Columns.DATA, response.data);
+		database.insertWithOnConflict(Schema.Responses.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		boolean trim;
+		synchronized (responsesLock) {
+			if (responsesSize >= 0) {
+				responsesSize += response.data.length;
+			}
+			trim = responsesSize < 0 || responsesSize > Schema.Responses.MAX_SIZE;
+		}
+		if (trim) {
+			trimResponses();
+		}
+	}
+
+	public void removeResponse(@NonNull String chanName, @NonNull String uri) {
+		Objects.requireNonNull(chanName);
+		Objects.requireNonNull(uri);
+		Expression.Filter filter = filterResponse(chanName, uri);
+		database.delete(Schema.Responses.TABLE_NAME, filter.value, filter.args);
+	}
+
+	private long getResponsesSize() {
+		try (Cursor cursor = database.rawQuery("SELECT SUM(LENGTH(" + Schema.Responses.Columns.DATA + ")) " +
+				"FROM " + Schema.Responses.TABLE_NAME, null)) {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		}
+	}
+
+	// Least recently used responses are removed first
+	private void trimResponses() {
+		synchronized (responsesLock) {
+			long size = getResponsesSize();
+			if (size > Schema.Responses.MAX_SIZE) {
+				long keepSize = (long) (Schema.Responses.MAX_SIZE * Schema.Responses.TRIM_FACTOR);
+				long removeTime = -1;
+				try (Cursor cursor = database.rawQuery("SELECT " + Schema.Responses.Columns.TIME + ", " +
+						"LENGTH(" + Schema.Responses.Columns.DATA + ") FROM " + Schema.Responses.TABLE_NAME + " " +
+						"ORDER BY " + Schema.Responses.Columns.TIME + " ASC", null)) {
+					while (size > keepSize && cursor.moveToNext()) {
+						removeTime = cursor.getLong(0);
+						size -= cursor.getLong(1);
+					}
+				}
+				if (removeTime >= 0) {
+					database.delete(Schema.Responses.TABLE_NAME, Schema.Responses.Columns.TIME + " <= ?",
+							new String[] {Long.toString(removeTime)});
+					size = getResponsesSize();
+				}
+			}
+			responsesSize = size;
+		}
+	}
+
+	public static class SearchPost {
+		public final String boardName;
+		public final String threadNumber;
+		public final Post post;
+
+		public SearchPost(String boardName, String threadNumber, Post post) {
+			this.boardName = boardName;
+			this.threadNumber = threadNumber;
+			this.post = post;
+		}
+	}
+
+	private static class RankedPost {
+		public final SearchPost searchPost;
+		public final double rank;
+
+		public RankedPost(SearchPost searchPost, double rank) {
+			this.searchPost = searchPost;
+			this.rank = rank;
+		}
+	}
+
+	// Weights of subject, name and comment columns
+	private static final double[] SEARCH_WEIGHTS = {2.0, 1.0, 1.0};
+
+	public boolean isSearchSupported() {
+		return supportsSearch;
+	}
+
+	private static String getSearchName(Post post) {
+		StringBuilder builder = new StringBuilder();
+		for (String part : Arrays.asList(post.name, post.identifier, post.tripcode, post.capcode)) {
+			if (!StringUtils.isEmptyOrWhitespace(part)) {
+				if (builder.length() > 0) {
+					builder.append(' ');
+				}
+				builder.append(part.trim());
+			}
+		}
+		return builder.toString();
+	}
+
+	private void insertSearchPosts(Map<Long, Post> posts) {
+		if (!database.inTransaction()) {
+			throw new IllegalStateException();
+		}
+		Iterator<Map.Entry<Long, Post>> iterator = posts.entrySet().iterator();
+		Expression.batchInsert(posts.size(), 10, 4,
+				values -> database.compileStatement("INSERT INTO " + Schema.Search.TABLE_NAME + " (docid, " +
+						Schema.Search.Columns.SUBJECT + ", " +
+						Schema.Search.Columns.NAME + ", " +
+						Schema.Search.Columns.COMMENT + ") " +
+						"VALUES " + values),
+				(statement, start) -> {
+					Map.Entry<Long, Post> entry = iterator.next();
+					Post post = entry.getValue();
+					statement.bindLong(start + 1, entry.getKey());
+					// Invalid posts are indexed with empty text, so they are not indexed again
+					statement.bindString(start + 2, post != null ? StringUtils.emptyIfNull(post.subject) : "");
+					statement.bindString(start + 3, post != null ? getSearchName(post) : "");
+					statement.bindString(start + 4, post != null && !StringUtils.isEmpty(post.comment)
+							? HtmlParser.clear(post.comment) : "");
+				});
+	}
+
+	private HashMap<Long, Post> readSearchPosts(String selection, String[] selectionArgs, String limit) {
+		String[] projection = {"rowid", Schema.Posts.Columns.POST_NUMBER_MAJOR,
+				Schema.Posts.Columns.POST_NUMBER_MINOR, Schema.Posts.Columns.FLAGS, Schema.Posts.Columns.DATA};
+		HashMap<Long, Post> posts = new HashMap<>();
+		try (Cursor cursor = database.query(Schema.Posts.TABLE_NAME, projection,
+				selection, selectionArgs, null, null, "rowid DESC", limit)) {
+			while (cursor.moveToNext()) {
+				PostNumber postNumber = new PostNumber(cursor.getInt(1), cursor.getInt(2));
+				boolean deleted = FlagUtils.get(cursor.getInt(3), Schema.Posts.Flags.DELETED);
+				Post post;
+				try {
+					post = Post.deserialize(postNumber, deleted, cursor.getBlob(4));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} catch (ParseException e) {
+					post = null;
+				}
+				posts.put(cursor.getLong(0), post);
+			}
+		}
+		return posts;
+	}
+
+	// Indexes posts stored before search table was created.
+	// New posts always get greater row IDs, so not indexed posts are below the least indexed row ID.
+	private void indexSearchPosts() {
+		if (!supportsSearch) {
+			return;
+		}
+		long lastId;
+		try (Cursor cursor = database.rawQuery("SELECT docid FROM " + Schema.Search.TABLE_NAME + " " +
+				"ORDER BY docid ASC LIMIT 1", null)) {
+			lastId = cursor.moveToFirst() ? cursor.getLong(0) : Long.MAX_VALUE;
+		}
+		while (true) {
+			database.beginTransaction();
+			try {
+				HashMap<Long, Post> posts = readSearchPosts("rowid < " + lastId, null,
+						Integer.toString(Schema.Search.INDEX_BATCH_SIZE));
+				if (!posts.isEmpty()) {
+					insertSearchPosts(posts);
+					lastId = Collections.min(posts.keySet());
+				}
+				database.setTransactionSuccessful();
+				if (posts.isEmpty()) {
+					break;
+				}
+			} finally {
+				database.endTransaction();
+			}
+		}
+	}
+
+	private void mergeSearchSegments() {
+		if (supportsSearch) {
+			// Incremental merge reclaims space of deleted posts without rewriting the whole index
+			database.execSQL("INSERT INTO " + Schema.Search.TABLE_NAME + " (" + Schema.Search.TABLE_NAME + ") " +
+					"VALUES ('merge=500,8')");
+		}
+	}
+
+	private static String buildSearchQuery(String query) {
+		StringBuilder builder = new StringBuilder();
+		for (String word : query.split("\\s+")) {
+			word = word.replace("\"", "").replace("*", "");
+			if (!word.isEmpty()) {
+				if (builder.length() > 0) {
+					builder.append(' ');
+				}
+				// Prefix queries handle word endings, shorter words would scan the whole terms range
+				builder.append('"').append(word)
+						.append(word.length() >= Schema.Search.MIN_PREFIX_LENGTH ? "*\"" : "\"");
+			}
+		}
+		return builder.toString();
+	}
+
+	// Calculates BM25-like rank using matchinfo with "pcnx" format
+	private static double calculateSearchRank(byte[] matchInfo) {
+		IntBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+		int phrases = buffer.get(0);
+		int columns = buffer.get(1);
+		int rows = buffer.get(2);
+		double rank = 0;
+		for (int i = 0; i < phrases; i++) {
+			for (int j = 0; j < columns; j++) {
+				int index = 3 + 3 * (i * columns + j);
+				int hits = buffer.get(index);
+				if (hits > 0) {
+					int documents = buffer.get(index + 2);
+					double idf = Math.log((rows - documents + 0.5) / (documents + 0.5) + 1);
+					double weight = j < SEARCH_WEIGHTS.length ? SEARCH_WEIGHTS[j] : 1.0;
+					rank += weight * idf * hits / (hits + 1.2);
+				}
+			}
+		}
+		return rank;
+	}
+
+	// Returns ranked posts among the most recent matches, posts of all boards are searched if board name is null
+	public List<SearchPost> searchPosts(@NonNull String chanName, String boardName, @NonNull String query,
+			CancellationSignal signal) throws OperationCanceledException {
+		Objects.requireNonNull(chanName);
+		Objects.requireNonNull(query);
+		String matchQuery = buildSearchQuery(query);
+		if (!supportsSearch || matchQuery.isEmpty()) {
+			return Collections.emptyList();
+		}
+		ArrayList<RankedPost> rankedPosts = new ArrayList<>();
+		try (Cursor cursor = database.rawQuery("SELECT " +
+				"p." + Schema.Posts.Columns.BOARD_NAME + ", " +
+				"p." + Schema.Posts.Columns.THREAD_NUMBER + ", " +
+				"p." + Schema.Posts.Columns.POST_NUMBER_MAJOR + ", " +
+				"p." + Schema.Posts.Columns.POST_NUMBER_MINOR + ", " +
+				"p." + Schema.Posts.Columns.FLAGS + ", " +
+				"p." + Schema.Posts.Columns.DATA + ", " +
+				"matchinfo(" + Schema.Search.TABLE_NAME + ", 'pcnx') " +
+				"FROM " + Schema.Search.TABLE_NAME + " " +
+				"JOIN " + Schema.Posts.TABLE_NAME + " AS p " +
+				"ON p.rowid = " + Schema.Search.TABLE_NAME + ".docid " +
+				"WHERE " + Schema.Search.TABLE_NAME + " MATCH ? " +
+				"AND p." + Schema.Posts.Columns.CHAN_NAME + " = ? " +
+				(boardName != null ? "AND p." + Schema.Posts.Columns.BOARD_NAME + " = ? " : "") +
+				"ORDER BY " + Schema.Search.TABLE_NAME + ".docid DESC " +
+				"LIMIT " + Schema.Search.MAX_CANDIDATES, boardName != null
+				? new String[] {matchQuery, chanName, boardName} : new String[] {matchQuery, chanName}, signal)) {
+			while (cursor.moveToNext()) {
+				PostNumber postNumber = new PostNumber(cursor.getInt(2), cursor.getInt(3));
+				boolean deleted = FlagUtils.get(cursor.getInt(4), Schema.Posts.Flags.DELETED);
+				Post post;
+				try {
+					post = Post.deserialize(postNumber, deleted, cursor.getBlob(5));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} catch (ParseException e) {
+					continue;
+				}
+				SearchPost searchPost = new SearchPost(cursor.getString(0), cursor.getString(1), post);
+				rankedPosts.add(new RankedPost(searchPost, calculateSearchRank(cursor.getBlob(6))));
+			}
+		} catch (SQLiteException e) {
+			// Malformed query
+			e.printStackTrace();
+			return Collections.emptyList();
+		}
+		// Sort is stable, so posts with equal rank remain sorted from newest
+		Collections.sort(rankedPosts, (lhs, rhs) -> Double.compare(rhs.rank, lhs.rank));
+		ArrayList<SearchPost> searchPosts = new ArrayList<>(rankedPosts.size());
+		for (RankedPost rankedPost : rankedPosts) {
+			searchPosts.add(rankedPost.searchPost);
+		}
+		return searchPosts;
+	}
+
 	private final HashMap<ThreadKey, Cache.State> cacheStates = new HashMap<>();
 
 	public Cache.State getCacheState(ThreadKey threadKey) {
@@ -694,6 +1465,165 @@ public class PagesDatabase {
 		}
 	}
 
+	private final LinkedHashMap<ThreadKey, HashIndex> hashIndexes = new LinkedHashMap<>(0, 0.75f, true);
+	private final int hashIndexesMaxSize = MainApplication.getInstance().isLowRam() ? 20000 : 100000;
+	private int hashIndexesSize;
+	private int hashIndexesGeneration;
+
+	private static class Rehashed {
+		public final byte[] data;
+		public final byte[] hash;
+
+		private Rehashed(byte[] data, byte[] hash) {
+			this.data = data;
+			this.hash = hash;
+		}
+	}
+
+	private HashIndex readHashIndex(ThreadKey threadKey) {
+		// Data is only required to migrate posts stored as JSON or hashed with another hash mode
+		String[] projection = {"rowid", Schema.Posts.Columns.POST_NUMBER_MAJOR,
+				Schema.Posts.Columns.POST_NUMBER_MINOR, Schema.Posts.Columns.FLAGS, Schema.Posts.Columns.HASH,
+				"CASE WHEN length(" + Schema.Posts.Columns.HASH + ") = " + HASH_MODE.length + " " +
+						"AND substr(" + Schema.Posts.Columns.DATA + ", 1, 1) != X'7b' " +
+						"THEN NULL ELSE " + Schema.Posts.Columns.DATA + " END"};
+		Expression.Filter filter = threadKey.filterPosts().build();
+		HashMap<PostNumber, HashIndex.Item> items;
+		LongSparseArray<Rehashed> rehashed = null;
+		try (Cursor cursor = database.query(Schema.Posts.TABLE_NAME,
+				projection, filter.value, filter.args, null, null, null)) {
+			items = new HashMap<>(cursor.getCount());
+			while (cursor.moveToNext()) {
+				long id = cursor.getLong(0);
+				PostNumber postNumber = new PostNumber(cursor.getInt(1), cursor.getInt(2));
+				int flags = cursor.getInt(3);
+				byte[] hash = cursor.getBlob(4);
+				byte[] data = cursor.isNull(5) ? null : cursor.getBlob(5);
+				if (data != null) {
+					try {
+						Post post = Post.deserialize(postNumber, false, data);
+						PostSerializer.Item item = PostSerializer.serialize(Collections.singletonList(post),
+								HASH_MODE).get(0);
+						data = item.data;
+						hash = item.hash;
+					} catch (IOException | ParseException e) {
+						// Keep invalid data as is, it will be replaced on the next update
+						hash = PostSerializer.hash(HASH_MODE, data, 0, data.length);
+						data = null;
+					}
+					if (rehashed == null) {
+						rehashed = new LongSparseArray<>();
+					}
+					rehashed.put(id, new Rehashed(data, hash));
+				}
+				items.put(postNumber, new HashIndex.Item(id, hash, flags));
+			}
+		}
+		if (rehashed != null) {
+			database.beginTransaction();
+			try {
+				SQLiteStatement updateHash = database.compileStatement("UPDATE " +
+						Schema.Posts.TABLE_NAME + " SET " + Schema.Posts.Columns.HASH + " = ? WHERE rowid = ?");
+				SQLiteStatement updateDataHash = database.compileStatement("UPDATE " +
+						Schema.Posts.TABLE_NAME + " SET " + Schema.Posts.Columns.DATA + " = ?, " +
+						Schema.Posts.Columns.HASH + " = ? WHERE rowid = ?");
+				for (int i = 0; i < rehashed.size(); i++) {
+					Rehashed item = rehashed.valueAt(i);
+					if (item.data != null) {
+						updateDataHash.bindBlob(1, item.data);
+						updateDataHash.bindBlob(2, item.hash);
+						updateDataHash.bindLong(3, rehashed.keyAt(i));
+						updateDataHash.executeUpdateDelete();
+					} else {
+						updateHash.bindBlob(1, item.hash);
+						updateHash.bindLong(2, rehashed.keyAt(i));
+						updateHash.executeUpdateDelete();
+					}
+				}
+				database.setTransactionSuccessful();
+			} finally {
+				database.endTransaction();
+			}
+		}
+		return new HashIndex(items);
+	}
+
+	private HashMap<PostNumber, HashIndex.Item> readInsertedHashIndexItems(ThreadKey threadKey,
+			Map<PostNumber, Serialized> serializedMap) {
+		// Inserted posts usually go last, so only a tail of the thread is read
+		PostNumber firstPostNumber = Collections.min(serializedMap.keySet());
+		String[] projection = {"rowid", Schema.Posts.Columns.POST_NUMBER_MAJOR, Schema.Posts.Columns.POST_NUMBER_MINOR};
+		Expression.Filter filter = threadKey.filterPosts()
+				.raw(Schema.Posts.Columns.POST_NUMBER_MAJOR + " >= " + firstPostNumber.major)
+				.build();
+		HashMap<PostNumber, HashIndex.Item> items = new HashMap<>(serializedMap.size());
+		try (Cursor cursor = database.query(Schema.Posts.TABLE_NAME,
+				projection, filter.value, filter.args, null, null, null)) {
+			while (cursor.moveToNext()) {
+				PostNumber postNumber = new PostNumber(cursor.getInt(1), cursor.getInt(2));
+				Serialized serialized = serializedMap.get(postNumber);
+				if (serialized != null) {
+					items.put(postNumber, new HashIndex.Item(cursor.getLong(0), serialized.hash, serialized.flags));
+				}
+			}
+		}
+		return items;
+	}
+
+	private void putHashIndex(ThreadKey threadKey, HashIndex index) {
+		synchronized (hashIndexes) {
+			HashIndex oldIndex = hashIndexes.remove(threadKey);
+			if (oldIndex != null) {
+				hashIndexesSize -= oldIndex.size;
+			}
+			index.size = index.items.size();
+			hashIndexes.put(threadKey, index);
+			hashIndexesSize += index.size;
+			Iterator<HashIndex> iterator = hashIndexes.values().iterator();
+			while (hashIndexesSize > hashIndexesMaxSize && iterator.hasNext()) {
+				HashIndex eldestIndex = iterator.next();
+				if (eldestIndex != index) {
+					hashIndexesSize -= eldestIndex.size;
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private void removeHashIndex(ThreadKey threadKey) {
+		synchronized (hashIndexes) {
+			HashIndex index = hashIndexes.remove(threadKey);
+			if (index != null) {
+				hashIndexesSize -= index.size;
+			}
+		}
+	}
+
+	private void clearHashIndexes() {
+		synchronized (hashIndexes) {
+			hashIndexes.clear();
+			hashIndexesSize = 0;
+			hashIndexesGeneration++;
+		}
+	}
+
+	private void updateHashIndexFlags(ThreadKey threadKey, Map<PostNumber, Long> posts, int flags) {
+		if (posts == null || posts.isEmpty()) {
+			return;
+		}
+		synchronized (hashIndexes) {
+			HashIndex index = hashIndexes.get(threadKey);
+			if (index != null) {
+				for (Map.Entry<PostNumber, Long> entry : posts.entrySet()) {
+					HashIndex.Item item = index.items.get(entry.getKey());
+					if (item != null && item.id == entry.getValue()) {
+						item.flags &= ~flags;
+					}
+				}
+			}
+		}
+	}
+
 	private void updateFlags(ThreadKey threadKey, Expression.LongIterator iterator, String transform) {
 		// Use filter to properly handle reused rowid
 		Expression.Filter filter = threadKey.filterPosts().build();
@@ -729,20 +1659,10 @@ public class PagesDatabase {
 		Objects.requireNonNull(threadKey);
 		Objects.requireNonNull(posts);
 		Objects.requireNonNull(meta);
-		byte[][] dataArray = new byte[posts.size()][];
-		for (int i = 0; i < posts.size(); i++) {
-			try (JsonSerial.Writer writer = JsonSerial.writer()) {
-				posts.get(i).serialize(writer);
-				dataArray[i] = writer.build();
-			}
-		}
-		HashMap<PostNumber, Serialized> serializedMap = new HashMap<>(dataArray.length);
-		Hasher hasher = Hasher.getInstanceSha256();
-		for (int i = 0; i < dataArray.length; i++) {
-			Post post = posts.get(i);
-			byte[] data = dataArray[i];
-			byte[] hash = hasher.calculate(data);
-			serializedMap.put(post.number, new Serialized(post, data, hash, newThread));
+		List<PostSerializer.Item> items = PostSerializer.serialize(posts, HASH_MODE);
+		HashMap<PostNumber, Serialized> serializedMap = new HashMap<>(items.size());
+		for (PostSerializer.Item item : items) {
+			serializedMap.put(item.post.number, new Serialized(item.post, item.data, item.hash, newThread));
 		}
 		Set<PostNumber> userPosts = CommonDatabase.getInstance().getPosts()
 				.getFlags(threadKey.chanName, threadKey.boardName, threadKey.threadNumber).userPosts;
@@ -753,45 +1673,57 @@ public class PagesDatabase {
 	private InsertResult insertNewPostsLocked(ThreadKey threadKey,
 			Meta meta, boolean temporary, boolean newThread, boolean partial,
 			HashMap<PostNumber, Serialized> serializedMap, Set<PostNumber> userPosts) throws IOException {
-		LongSparseArray<Void> deleted = null;
-		LongSparseArray<Void> restored = null;
+		int generation;
+		HashIndex index;
+		synchronized (hashIndexes) {
+			generation = hashIndexesGeneration;
+			index = hashIndexes.get(threadKey);
+		}
+		if (index == null) {
+			index = readHashIndex(threadKey);
+		}
+		HashSet<PostNumber> received = partial ? null : new HashSet<>(serializedMap.keySet());
+		LongSparseArray<PostNumber> deleted = null;
+		LongSparseArray<PostNumber> restored = null;
+		ArrayList<Long> replaced = null;
 		int newCount = 0;
-		String[] projection = {"rowid", Schema.Posts.Columns.POST_NUMBER_MAJOR,
-				Schema.Posts.Columns.POST_NUMBER_MINOR, Schema.Posts.Columns.FLAGS, Schema.Posts.Columns.HASH};
-		Expression.Filter filter = threadKey.filterPosts().build();
-		try (Cursor cursor = database.query(Schema.Posts.TABLE_NAME,
-				projection, filter.value, filter.args, null, null, null)) {
-			while (cursor.moveToNext()) {
-				long id = cursor.getLong(0);
-				PostNumber postNumber = new PostNumber(cursor.getInt(1), cursor.getInt(2));
-				int flags = cursor.getInt(3);
-				byte[] hash = cursor.getBlob(4);
-				Serialized serialized = serializedMap.get(postNumber);
-				if (serialized != null) {
-					if (Arrays.equals(serialized.hash, hash)) {
-						serializedMap.remove(postNumber);
-						serialized = null;
-						if (FlagUtils.get(flags, Schema.Posts.Flags.DELETED)) {
-							if (restored == null) {
-								restored = new LongSparseArray<>();
-							}
-							restored.put(id, null);
+		Iterator<Serialized> serializedIterator = serializedMap.values().iterator();
+		while (serializedIterator.hasNext()) {
+			Serialized serialized = serializedIterator.next();
+			HashIndex.Item item = index.items.get(serialized.post.number);
+			if (item != null) {
+				if (Arrays.equals(serialized.hash, item.hash)) {
+					serializedIterator.remove();
+					if (FlagUtils.get(item.flags, Schema.Posts.Flags.DELETED)) {
+						if (restored == null) {
+							restored = new LongSparseArray<>();
 						}
-					} else {
-						flags = FlagUtils.set(flags, Schema.Posts.Flags.DELETED |
-								Schema.Posts.Flags.MARK_DELETED, false);
-						flags = FlagUtils.set(flags, Schema.Posts.Flags.MARK_EDITED, true);
-						serialized.flags = flags;
+						restored.put(item.id, serialized.post.number);
 					}
-				} else if (!partial && !FlagUtils.get(flags, Schema.Posts.Flags.DELETED)) {
-					if (deleted == null) {
-						deleted = new LongSparseArray<>();
+				} else {
+					int flags = FlagUtils.set(item.flags, Schema.Posts.Flags.DELETED |
+							Schema.Posts.Flags.MARK_DELETED, false);
+					flags = FlagUtils.set(flags, Schema.Posts.Flags.MARK_EDITED, true);
+					serialized.flags = flags;
+					if (replaced == null) {
+						replaced = new ArrayList<>();
 					}
-					deleted.put(id, null);
+					replaced.add(item.id);
 				}
-				if (serialized == null && FlagUtils.get(flags, Schema.Posts.Flags.MARK_NEW)) {
-					newCount++;
+			}
+		}
+		for (Map.Entry<PostNumber, HashIndex.Item> entry : index.items.entrySet()) {
+			PostNumber postNumber = entry.getKey();
+			HashIndex.Item item = entry.getValue();
+			if (received != null && !received.contains(postNumber) &&
+					!FlagUtils.get(item.flags, Schema.Posts.Flags.DELETED)) {
+				if (deleted == null) {
+					deleted = new LongSparseArray<>();
 				}
+				deleted.put(item.id, postNumber);
+			}
+			if (!serializedMap.containsKey(postNumber) && FlagUtils.get(item.flags, Schema.Posts.Flags.MARK_NEW)) {
+				newCount++;
 			}
 		}
 		for (Serialized serialized : serializedMap.values()) {
@@ -801,6 +1733,7 @@ public class PagesDatabase {
 		}
 
 		ArrayList<InsertResult.Reply> replies = new ArrayList<>();
+		HashMap<PostNumber, HashIndex.Item> inserted = null;
 		database.beginTransaction();
 		try {
 			upsertMeta(threadKey, temporary ? 0 : System.currentTimeMillis(), meta);
@@ -830,13 +1763,12 @@ public class PagesDatabase {
 								"VALUES " + values),
 						(statement, start) -> {
 							Serialized serialized = iterator.next();
-							int flags = serialized.flags;
-							if (referencesTo != null && FlagUtils.get(flags, Schema.Posts.Flags.MARK_NEW)) {
+							if (referencesTo != null && FlagUtils.get(serialized.flags, Schema.Posts.Flags.MARK_NEW)) {
 								referencesTo.clear();
 								PostItem.collectReferences(referencesTo, serialized.post.comment);
 								for (PostNumber reference : referencesTo) {
 									if (userPosts.contains(reference)) {
-										flags |= Schema.Posts.Flags.MARK_REPLY;
+										serialized.flags |= Schema.Posts.Flags.MARK_REPLY;
 										replies.add(new InsertResult.Reply(serialized.post.number,
 												serialized.post.comment, serialized.post.timestamp));
 										break;
@@ -848,16 +1780,48 @@ public class PagesDatabase {
 							statement.bindString(start + 3, threadKey.threadNumber);
 							statement.bindLong(start + 4, serialized.post.number.major);
 							statement.bindLong(start + 5, serialized.post.number.minor);
-							statement.bindLong(start + 6, flags);
+							statement.bindLong(start + 6, serialized.flags);
 							statement.bindBlob(start + 7, serialized.data);
 							statement.bindBlob(start + 8, serialized.hash);
 						});
+				inserted = readInsertedHashIndexItems(threadKey, serializedMap);
+				if (supportsSearch) {
+					if (replaced != null) {
+						SQLiteStatement deleteSearch = database.compileStatement("DELETE FROM " +
+								Schema.Search.TABLE_NAME + " WHERE docid = ?");
+						for (long id : replaced) {
+							deleteSearch.bindLong(1, id);
+							deleteSearch.executeUpdateDelete();
+						}
+					}
+					HashMap<Long, Post> searchPosts = new HashMap<>(inserted.size());
+					for (Map.Entry<PostNumber, HashIndex.Item> entry : inserted.entrySet()) {
+						searchPosts.put(entry.getValue().id, serializedMap.get(entry.getKey()).post);
+					}
+					insertSearchPosts(searchPosts);
+				}
 			}
 			database.setTransactionSuccessful();
 		} finally {
 			database.endTransaction();
 		}
 
+		synchronized (hashIndexes) {
+			if (generation == hashIndexesGeneration) {
+				if (deleted != null) {
+					index.updateFlags(deleted, Schema.Posts.Flags.DELETED | Schema.Posts.Flags.MARK_DELETED, true);
+				}
+				if (restored != null) {
+					index.updateFlags(restored, Schema.Posts.Flags.DELETED | Schema.Posts.Flags.MARK_DELETED, false);
+					index.updateFlags(restored, Schema.Posts.Flags.MARK_EDITED, true);
+				}
+				if (inserted != null) {
+					index.items.putAll(inserted);
+				}
+				putHashIndex(threadKey, index);
+			}
+		}
+
 		Cache.State state = new Cache.State(UUID.randomUUID(), newThread);
 		synchronized (cacheStates) {
 			cacheStates.put(threadKey, state);
@@ -865,6 +1829,12 @@ public class PagesDatabase {
 		return new InsertResult(state, replies, newCount);
 	}
 
+	private void clearMarkFlags(ThreadKey threadKey, Map<PostNumber, Long> posts, int flags) {
+		if (posts != null && !posts.isEmpty()) {
+			updateFlags(threadKey, Expression.LongIterator.create(posts.values().iterator()), "& " + ~flags);
+		}
+	}
+
 	private final Expression.KeyLock<ThreadKey> collectLocks = new Expression.KeyLock<>();
 
 	public Diff collectDiffPosts(@NonNull ThreadKey threadKey, Cache cache, @NonNull Cleanup cleanup,
@@ -878,8 +1848,7 @@ public class PagesDatabase {
 		return diff;
 	}
 
-	private Diff collectDiffPostsLocked(ThreadKey threadKey, Cache cache, Cleanup cleanup,
-			CancellationSignal signal) throws ParseException, OperationCanceledException {
+	private void cleanupPostsLocked(ThreadKey threadKey, Cache cache, Cleanup cleanup) {
 		switch (cleanup) {
 			case NONE: {
 				break;
@@ -929,6 +1898,17 @@ public class PagesDatabase {
 				throw new IllegalArgumentException();
 			}
 		}
+	}
+
+	private Diff collectDiffPostsLocked(ThreadKey threadKey, Cache cache, Cleanup cleanup,
+			CancellationSignal signal) throws ParseException, OperationCanceledException {
+		if (cleanup != Cleanup.NONE) {
+			insertLocks.lock(threadKey, () -> {
+				cleanupPostsLocked(threadKey, cache, cleanup);
+				removeHashIndex(threadKey);
+				return null;
+			});
+		}
 
 		List<Extracted> extractedList = null;
 		Map<PostNumber, DiffItem> newItems = null;
@@ -1005,8 +1985,8 @@ public class PagesDatabase {
 			for (int i = 0; i < extractedList.size(); i++) {
 				Extracted extracted = extractedList.get(i);
 				Post post;
-				try (JsonSerial.Reader reader = JsonSerial.reader(extracted.data)) {
-					post = Post.deserialize(extracted.postNumber, extracted.deleted, reader);
+				try {
+					post = Post.deserialize(extracted.postNumber, extracted.deleted, extracted.data);
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -1039,28 +2019,27 @@ public class PagesDatabase {
 
 		if (newPosts != null && !newPosts.isEmpty() || deletedPosts != null && !deletedPosts.isEmpty() ||
 				editedPosts != null && !editedPosts.isEmpty() || replyPosts != null && !replyPosts.isEmpty()) {
-			database.beginTransaction();
-			try {
-				if (newPosts != null && !newPosts.isEmpty()) {
-					updateFlags(threadKey, Expression.LongIterator.create(newPosts.values().iterator()),
-							"& " + ~Schema.Posts.Flags.MARK_NEW);
-				}
-				if (deletedPosts != null && !deletedPosts.isEmpty()) {
-					updateFlags(threadKey, Expression.LongIterator.create(deletedPosts.values().iterator()),
-							"& " + ~Schema.Posts.Flags.MARK_DELETED);
+			Map<PostNumber, Long> finalNewPosts = newPosts;
+			Map<PostNumber, Long> finalDeletedPosts = deletedPosts;
+			Map<PostNumber, Long> finalEditedPosts = editedPosts;
+			Map<PostNumber, Long> finalReplyPosts = replyPosts;
+			insertLocks.lock(threadKey, () -> {
+				database.beginTransaction();
+				try {
+					clearMarkFlags(threadKey, finalNewPosts, Schema.Posts.Flags.MARK_NEW);
+					clearMarkFlags(threadKey, finalDeletedPosts, Schema.Posts.Flags.MARK_DELETED);
+					clearMarkFlags(threadKey, finalEditedPosts, Schema.Posts.Flags.MARK_EDITED);
+					clearMarkFlags(threadKey, finalReplyPosts, Schema.Posts.Flags.MARK_REPLY);
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
 				}
-				if (editedPosts != null && !editedPosts.isEmpty()) {
-					updateFlags(threadKey, Expression.LongIterator.create(editedPosts.values().iterator()),
-							"& " + ~Schema.Posts.Flags.MARK_EDITED);
-				}
-				if (replyPosts != null && !replyPosts.isEmpty()) {
-					updateFlags(threadKey, Expression.LongIterator.create(replyPosts.values().iterator()),
-							"& " + ~Schema.Posts.Flags.MARK_REPLY);
-				}
-				database.setTransactionSuccessful();
-			} finally {
-				database.endTransaction();
-			}
+				updateHashIndexFlags(threadKey, finalNewPosts, Schema.Posts.Flags.MARK_NEW);
+				updateHashIndexFlags(threadKey, finalDeletedPosts, Schema.Posts.Flags.MARK_DELETED);
+				updateHashIndexFlags(threadKey, finalEditedPosts, Schema.Posts.Flags.MARK_EDITED);
+				updateHashIndexFlags(threadKey, finalReplyPosts, Schema.Posts.Flags.MARK_REPLY);
+				return null;
+			});
 		}
 
 		Cache newCache = new Cache(newItems != null ? newItems : oldItems, originalPostNumber, state);
@@ -1231,7 +2210,11 @@ public class PagesDatabase {
 					}
 				}
 			}
-			boolean success = migratePostsLocked(threadKey);
+			boolean success = insertLocks.lock(threadKey, () -> {
+				boolean result = migratePostsLocked(threadKey);
+				removeHashIndex(threadKey);
+				return result;
+			});
 			synchronized (migrated) {
 				if (success && request != null) {
 					HashSet<MigrationRequest> newRequests = new HashSet<>(Arrays.asList(MigrationRequest.values()));
@@ -1391,15 +2374,12 @@ public class PagesDatabase {
 			posts.add(builder.build(deleted));
 		}
 
-		byte[][] data = new byte[posts.size()][];
-		for (int i = 0; i < posts.size(); i++) {
-			try (JsonSerial.Writer writer = JsonSerial.writer()) {
-				posts.get(i).serialize(writer);
-				data[i] = writer.build();
-			} catch (IOException e) {
-				e.printStackTrace();
-				return false;
-			}
+		List<PostSerializer.Item> items;
+		try {
+			items = PostSerializer.serialize(posts, HASH_MODE);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
 		}
 		if (legacyPosts.mLocalAutohide != null) {
 			HidePerformer hidePerformer = new HidePerformer(null);
@@ -1433,9 +2413,8 @@ public class PagesDatabase {
 				e.printStackTrace();
 				return false;
 			}
-			int[] index = {0};
-			Hasher hasher = Hasher.getInstanceSha256();
-			Expression.batchInsert(posts.size(), 10, 8,
+			Iterator<PostSerializer.Item> iterator = items.iterator();
+			Expression.batchInsert(items.size(), 10, 8,
 					values -> database.compileStatement("INSERT OR REPLACE " +
 							"INTO " + Schema.Posts.TABLE_NAME + " (" +
 							Schema.Posts.Columns.CHAN_NAME + ", " +
@@ -1448,18 +2427,24 @@ public class PagesDatabase {
 							Schema.Posts.Columns.HASH + ") " +
 							"VALUES " + values),
 					(statement, start) -> {
-						int i = index[0];
-						Post post = posts.get(i);
+						PostSerializer.Item item = iterator.next();
+						Post post = item.post;
 						statement.bindString(start + 1, threadKey.chanName);
 						statement.bindString(start + 2, threadKey.boardName);
 						statement.bindString(start + 3, threadKey.threadNumber);
 						statement.bindLong(start + 4, post.number.major);
 						statement.bindLong(start + 5, post.number.minor);
 						statement.bindLong(start + 6, post.deleted ? Schema.Posts.Flags.DELETED : 0);
-						statement.bindBlob(start + 7, data[i]);
-						statement.bindBlob(start + 8, hasher.calculate(data[i]));
-						index[0]++;
+						statement.bindBlob(start + 7, item.data);
+						statement.bindBlob(start + 8, item.hash);
 					});
+			if (supportsSearch) {
+				Expression.Filter filter = threadKey.filterPosts()
+						.raw("NOT EXISTS (SELECT 1 FROM " + Schema.Search.TABLE_NAME + " " +
+								"WHERE docid = " + Schema.Posts.TABLE_NAME + ".rowid)")
+						.build();
+				insertSearchPosts(readSearchPosts(filter.value, filter.args, null));
+			}
 			database.setTransactionSuccessful();
 		} finally {
 			database.endTransaction();
@@ -0,0 +1,96 @@
+package com.mishiranu.dashchan.content.database;
+
+import com.mishiranu.dashchan.content.model.Post;
+import com.mishiranu.dashchan.util.Hasher;
+import com.mishiranu.dashchan.util.Murmur3;
+import com.mishiranu.dashchan.util.ParallelLoop;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+class PostSerializer {
+	public enum HashMode {
+		SHA_256(32),
+		MURMUR3_128(16);
+
+		public final int length;
+
+		HashMode(int length) {
+			this.length = length;
+		}
+	}
+
+	public static class Item {
+		public final Post post;
+		public final byte[] data;
+		public final byte[] hash;
+
+		private Item(Post post, byte[] data, byte[] hash) {
+			this.post = post;
+			this.data = data;
+			this.hash = hash;
+		}
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+		private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+		public Buffer() {
+			super(4096);
+		}
+
+		public byte[] getArray() {
+			return buf;
+		}
+
+		public void trim() {
+			if (buf.length > MAX_RETAINED_SIZE) {
+				buf = new byte[4096];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Buffer> BUFFER = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer();
+		}
+	};
+
+	private static final int CHUNK_SIZE = 50;
+
+	private PostSerializer() {}
+
+	public static byte[] hash(HashMode hashMode, byte[] data, int offset, int length) {
+		switch (hashMode) {
+			case SHA_256: {
+				return Hasher.getInstanceSha256().calculate(data, offset, length);
+			}
+			case MURMUR3_128: {
+				return Murmur3.hash128(data, offset, length);
+			}
+			default: {
+				throw new IllegalArgumentException();
+			}
+		}
+	}
+
+	private static Item serialize(Post post, HashMode hashMode) throws IOException {
+		Buffer buffer = BUFFER.get();
+		buffer.reset();
+		try {
+			post.serialize(buffer);
+			byte[] hash = hash(hashMode, buffer.getArray(), 0, buffer.size());
+			return new Item(post, buffer.toByteArray(), hash);
+		} finally {
+			buffer.trim();
+		}
+	}
+
+	public static List<Item> serialize(List<Post> posts, HashMode hashMode) throws IOException {
+		Item[] items = new Item[posts.size()];
+		ParallelLoop.run(items.length, CHUNK_SIZE, null, i -> items[i] = serialize(posts.get(i), hashMode));
+		return Arrays.asList(items);
+	}
+}
@@ -4,8 +4,10 @@ import android.net.Uri;
 import chan.text.JsonSerial;
 import chan.text.ParseException;
 import chan.util.StringUtils;
+import com.mishiranu.dashchan.util.CompactSerial;
 import com.mishiranu.dashchan.util.FlagUtils;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -132,6 +134,33 @@ public final class Post implements Comparable<Post> {
 		int BUMP_LIMIT_REACHED = 0x00000200;
 	}
 
+	private interface CompactFields {
+		int SUBJECT = 0x00000001;
+		int COMMENT = 0x00000002;
+		int COMMENT_MARKUP = 0x00000004;
+		int NAME = 0x00000008;
+		int IDENTIFIER = 0x00000010;
+		int TRIPCODE = 0x00000020;
+		int CAPCODE = 0x00000040;
+		int EMAIL = 0x00000080;
+		int ATTACHMENTS = 0x00000100;
+		int ICONS = 0x00000200;
+	}
+
+	private interface CompactAttachmentFields {
+		int FILE_URI = 0x00000001;
+		int THUMBNAIL_URI = 0x00000002;
+		int NAME = 0x00000004;
+		int SPOILER = 0x00000008;
+		int CAN_DOWNLOAD = 0x00000010;
+	}
+
+	// JSON data always starts with '{'
+	private static final int COMPACT_SCHEMA = 1;
+	private static final int COMPACT_ATTACHMENT_FILE = 0;
+	private static final int COMPACT_ATTACHMENT_EMBEDDED = 1;
+	private static final int COMPACT_DEFLATE_MIN_LENGTH = 512;
+
 	public final PostNumber number;
 	public final boolean deleted;
 	private final int flags;
@@ -332,6 +361,179 @@ public final class Post implements Comparable<Post> {
 		writer.endObject();
 	}
 
+	public void serialize(OutputStream output) throws IOException {
+		CompactSerial.Writer writer = new CompactSerial.Writer(output);
+		writer.writeByte(COMPACT_SCHEMA);
+		int fields = (!subject.isEmpty() ? CompactFields.SUBJECT : 0) |
+				(!comment.isEmpty() ? CompactFields.COMMENT : 0) |
+				(!commentMarkup.isEmpty() ? CompactFields.COMMENT_MARKUP : 0) |
+				(!name.isEmpty() ? CompactFields.NAME : 0) |
+				(!identifier.isEmpty() ? CompactFields.IDENTIFIER : 0) |
+				(!tripcode.isEmpty() ? CompactFields.TRIPCODE : 0) |
+				(!capcode.isEmpty() ? CompactFields.CAPCODE : 0) |
+				(!email.isEmpty() ? CompactFields.EMAIL : 0) |
+				(!attachments.isEmpty() ? CompactFields.ATTACHMENTS : 0) |
+				(!icons.isEmpty() ? CompactFields.ICONS : 0);
+		writer.writeVarInt(fields);
+		writer.writeVarInt(flags);
+		writer.writeVarLong(timestamp);
+		if (!subject.isEmpty()) {
+			writer.writeString(subject);
+		}
+		if (!comment.isEmpty()) {
+			writer.writeDeflatedString(comment, COMPACT_DEFLATE_MIN_LENGTH);
+		}
+		if (!commentMarkup.isEmpty()) {
+			writer.writeDeflatedString(commentMarkup, COMPACT_DEFLATE_MIN_LENGTH);
+		}
+		if (!name.isEmpty()) {
+			writer.writeString(name);
+		}
+		if (!identifier.isEmpty()) {
+			writer.writeString(identifier);
+		}
+		if (!tripcode.isEmpty()) {
+			writer.writeString(tripcode);
+		}
+		if (!capcode.isEmpty()) {
+			writer.writeString(capcode);
+		}
+		if (!email.isEmpty()) {
+			writer.writeString(email);
+		}
+		if (!attachments.isEmpty()) {
+			int count = 0;
+			for (Attachment attachment : attachments) {
+				if (attachment instanceof Attachment.File || attachment instanceof Attachment.Embedded) {
+					count++;
+				}
+			}
+			writer.writeVarInt(count);
+			for (Attachment attachment : attachments) {
+				if (attachment instanceof Attachment.File) {
+					Attachment.File file = (Attachment.File) attachment;
+					writer.writeByte(COMPACT_ATTACHMENT_FILE);
+					writer.writeVarInt((file.fileUri != null ? CompactAttachmentFields.FILE_URI : 0) |
+							(file.thumbnailUri != null ? CompactAttachmentFields.THUMBNAIL_URI : 0) |
+							(!file.originalName.isEmpty() ? CompactAttachmentFields.NAME : 0) |
+							(file.spoiler ? CompactAttachmentFields.SPOILER : 0));
+					if (file.fileUri != null) {
+						writer.writePrefixedString(file.fileUri.toString());
+					}
+					if (file.thumbnailUri != null) {
+						writer.writePrefixedString(file.thumbnailUri.toString());
+					}
+					if (!file.originalName.isEmpty()) {
+						writer.writeString(file.originalName);
+					}
+					writer.writeVarInt(file.size);
+					writer.writeVarInt(file.width);
+					writer.writeVarInt(file.height);
+				} else if (attachment instanceof Attachment.Embedded) {
+					Attachment.Embedded embedded = (Attachment.Embedded) attachment;
+					writer.writeByte(COMPACT_ATTACHMENT_EMBEDDED);
+					writer.writeVarInt(CompactAttachmentFields.FILE_URI |
+							(embedded.thumbnailUri != null ? CompactAttachmentFields.THUMBNAIL_URI : 0) |
+							(!embedded.forcedName.isEmpty() ? CompactAttachmentFields.NAME : 0) |
+							(embedded.canDownload ? CompactAttachmentFields.CAN_DOWNLOAD : 0));
+					writer.writePrefixedString(embedded.fileUri.toString());
+					if (embedded.thumbnailUri != null) {
+						writer.writePrefixedString(embedded.thumbnailUri.toString());
+					}
+					if (!embedded.forcedName.isEmpty()) {
+						writer.writeString(embedded.forcedName);
+					}
+					writer.writeString(embedded.embeddedType);
+					writer.writeVarInt(embedded.contentType.ordinal());
+				}
+			}
+		}
+		if (!icons.isEmpty()) {
+			writer.writeVarInt(icons.size());
+			for (Icon icon : icons) {
+				writer.writeVarInt(icon.uri != null ? CompactAttachmentFields.FILE_URI : 0);
+				if (icon.uri != null) {
+					writer.writePrefixedString(icon.uri.toString());
+				}
+				writer.writeString(icon.title);
+			}
+		}
+	}
+
+	public static Post deserialize(PostNumber number, boolean deleted, byte[] data)
+			throws IOException, ParseException {
+		if (data.length > 0 && data[0] == '{') {
+			try (JsonSerial.Reader reader = JsonSerial.reader(data)) {
+				return deserialize(number, deleted, reader);
+			}
+		}
+		CompactSerial.Reader reader = new CompactSerial.Reader(data, 0);
+		int schema = reader.readByte();
+		if (schema != COMPACT_SCHEMA) {
+			throw new ParseException("Unsupported schema: " + schema);
+		}
+		int fields = reader.readVarInt();
+		int flags = reader.readVarInt();
+		long timestamp = reader.readVarLong();
+		String subject = FlagUtils.get(fields, CompactFields.SUBJECT) ? reader.readString() : "";
+		String comment = FlagUtils.get(fields, CompactFields.COMMENT) ? reader.readDeflatedString() : "";
+		String commentMarkup = FlagUtils.get(fields, CompactFields.COMMENT_MARKUP)
+				? reader.readDeflatedString() : "";
+		String name = FlagUtils.get(fields, CompactFields.NAME) ? reader.readString() : "";
+		String identifier = FlagUtils.get(fields, CompactFields.IDENTIFIER) ? reader.readString() : "";
+		String tripcode = FlagUtils.get(fields, CompactFields.TRIPCODE) ? reader.readString() : "";
+		String capcode = FlagUtils.get(fields, CompactFields.CAPCODE) ? reader.readString() : "";
+		String email = FlagUtils.get(fields, CompactFields.EMAIL) ? reader.readString() : "";
+		List<Attachment> attachments = Collections.emptyList();
+		if (FlagUtils.get(fields, CompactFields.ATTACHMENTS)) {
+			int count = reader.readVarInt();
+			attachments = new ArrayList<>(Math.min(count, 100));
+			for (int i = 0; i < count; i++) {
+				int type = reader.readByte();
+				int attachmentFields = reader.readVarInt();
+				Uri fileUri = FlagUtils.get(attachmentFields, CompactAttachmentFields.FILE_URI)
+						? Uri.parse(reader.readPrefixedString()) : null;
+				Uri thumbnailUri = FlagUtils.get(attachmentFields, CompactAttachmentFields.THUMBNAIL_URI)
+						? Uri.parse(reader.readPrefixedString()) : null;
+				String attachmentName = FlagUtils.get(attachmentFields, CompactAttachmentFields.NAME)
+						? reader.readString() : "";
+				if (type == COMPACT_ATTACHMENT_FILE) {
+					int size = reader.readVarInt();
+					int width = reader.readVarInt();
+					int height = reader.readVarInt();
+					attachments.add(new Attachment.File(fileUri, thumbnailUri, attachmentName, size, width, height,
+							FlagUtils.get(attachmentFields, CompactAttachmentFields.SPOILER)));
+				} else if (type == COMPACT_ATTACHMENT_EMBEDDED) {
+					String embeddedType = reader.readString();
+					int contentTypeIndex = reader.readVarInt();
+					Attachment.Embedded.ContentType[] contentTypes = Attachment.Embedded.ContentType.values();
+					Attachment.Embedded.ContentType contentType = contentTypeIndex >= 0 &&
+							contentTypeIndex < contentTypes.length ? contentTypes[contentTypeIndex] : null;
+					if (Attachment.Embedded.validate(false, fileUri, embeddedType, contentType)) {
+						attachments.add(new Attachment.Embedded(fileUri, thumbnailUri, embeddedType, contentType,
+								FlagUtils.get(attachmentFields, CompactAttachmentFields.CAN_DOWNLOAD),
+								attachmentName));
+					}
+				} else {
+					throw new ParseException("Unknown attachment type: " + type);
+				}
+			}
+		}
+		List<Icon> icons = Collections.emptyList();
+		if (FlagUtils.get(fields, CompactFields.ICONS)) {
+			int count = reader.readVarInt();
+			icons = new ArrayList<>(Math.min(count, 100));
+			for (int i = 0; i < count; i++) {
+				int iconFields = reader.readVarInt();
+				Uri uri = FlagUtils.get(iconFields, CompactAttachmentFields.FILE_URI)
+						? Uri.parse(reader.readPrefixedString()) : null;
+				icons.add(new Icon(uri, reader.readString()));
+			}
+		}
+		return new Post(number, deleted, flags, timestamp, subject, comment, commentMarkup,
+				name, identifier, tripcode, capcode, email, attachments, icons);
+	}
+
 	public static Post deserialize(PostNumber number, boolean deleted, JsonSerial.Reader reader)
 			throws IOException, ParseException {
 		int flags = 0;
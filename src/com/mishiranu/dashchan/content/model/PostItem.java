@@ -8,11 +8,13 @@ import androidx.annotation.NonNull;
 import chan.content.Chan;
 import chan.content.ChanConfiguration;
 import chan.content.ChanMarkup;
+import chan.text.ParseException;
 import chan.util.StringUtils;
 import com.mishiranu.dashchan.R;
 import com.mishiranu.dashchan.content.Preferences;
 import com.mishiranu.dashchan.graphics.ColorScheme;
 import com.mishiranu.dashchan.text.HtmlParser;
+import com.mishiranu.dashchan.text.SpannedSerial;
 import com.mishiranu.dashchan.text.style.LinkSpan;
 import com.mishiranu.dashchan.text.style.LinkSuffixSpan;
 import com.mishiranu.dashchan.text.style.MediumSpan;
@@ -91,7 +93,11 @@ public class PostItem implements AttachmentItem.Master, ChanMarkup.MarkupExtra,
 	private int ordinalIndex = ORDINAL_INDEX_NONE;
 
 	private String subject;
-	private CharSequence comment;
+	// Comment and its data are also read by getCommentText from other threads
+	private volatile CharSequence comment;
+	private boolean commentCache;
+	private volatile byte[] commentData;
+	private boolean commentDataPending;
 	private CharSequence fullName;
 	private ColorScheme.Span[] commentSpans;
 	private ColorScheme.Span[] fullNameSpans;
@@ -350,6 +356,16 @@ public class PostItem implements AttachmentItem.Master, ChanMarkup.MarkupExtra,
 		return fullName;
 	}
 
+	// Returns full name text without caching it, so it can be called from any thread
+	@NonNull
+	public String getFullNameText(Chan chan) {
+		CharSequence fullName = this.fullName;
+		if (fullName == null) {
+			fullName = makeFullName(chan.configuration);
+		}
+		return fullName != null ? fullName.toString() : "";
+	}
+
 	public ColorScheme.Span[] getFullNameSpans() {
 		return fullNameSpans;
 	}
@@ -467,19 +483,86 @@ public class PostItem implements AttachmentItem.Master, ChanMarkup.MarkupExtra,
 	@NonNull
 	public CharSequence getComment(Chan chan) {
 		if (comment == null) {
-			CharSequence comment = obtainComment(post.comment, chan.markup,
-					getThreadNumber(), getOriginalPostNumber(), this);
-			comment = StringUtils.reduceEmptyLines(comment);
-			commentSpans = ColorScheme.getSpans(comment);
-			linkSpans = comment instanceof Spanned ? ((Spanned) comment)
-					.getSpans(0, comment.length(), LinkSpan.class) : null;
-			linkSuffixSpans = comment instanceof Spanned ? ((Spanned) comment)
-					.getSpans(0, comment.length(), LinkSuffixSpan.class) : null;
-			this.comment = comment;
+			CharSequence comment = null;
+			if (commentData != null) {
+				try {
+					comment = SpannedSerial.decode(commentData);
+				} catch (ParseException e) {
+					commentData = null;
+				}
+			}
+			if (comment == null) {
+				comment = StringUtils.reduceEmptyLines(obtainComment(post.comment, chan.markup,
+						getThreadNumber(), getOriginalPostNumber(), this));
+				if (commentCache && !StringUtils.isEmpty(post.comment)) {
+					commentData = SpannedSerial.encode(comment);
+					commentDataPending = true;
+				}
+			}
+			setComment(comment);
 		}
 		return comment;
 	}
 
+	// Enables parsed comments cache for this post, data is null if the comment is not cached yet.
+	// Cached comment is decoded instead of being parsed, parsed comment is serialized to be stored later.
+	public void setCommentCache(byte[] data) {
+		commentCache = true;
+		commentData = data;
+	}
+
+	// Returns serialized comment parsed since the last call if it's not stored in the cache yet
+	public byte[] takePendingCommentData() {
+		if (commentDataPending) {
+			commentDataPending = false;
+			return commentData;
+		}
+		return null;
+	}
+
+	// Returns comment text without caching the parsed comment, so it can be called from any thread
+	@NonNull
+	public String getCommentText(Chan chan) {
+		CharSequence comment = this.comment;
+		if (comment == null) {
+			byte[] commentData = this.commentData;
+			if (commentData != null) {
+				try {
+					comment = SpannedSerial.decode(commentData);
+				} catch (ParseException e) {
+					// Parse comment instead
+				}
+			}
+		}
+		if (comment == null) {
+			comment = StringUtils.reduceEmptyLines(obtainComment(post.comment, chan.markup,
+					getThreadNumber(), getOriginalPostNumber(), this));
+		}
+		return comment.toString();
+	}
+
+	// Sets comment previously obtained with getComment, e.g. restored from parsed comments cache
+	public void setComment(CharSequence comment) {
+		commentSpans = ColorScheme.getSpans(comment);
+		linkSpans = comment instanceof Spanned ? ((Spanned) comment)
+				.getSpans(0, comment.length(), LinkSpan.class) : null;
+		linkSuffixSpans = comment instanceof Spanned ? ((Spanned) comment)
+				.getSpans(0, comment.length(), LinkSuffixSpan.class) : null;
+		this.comment = comment;
+	}
+
+	public boolean isCommentParsed() {
+		return comment != null;
+	}
+
+	// Parsed comment will be obtained again on the next getComment call
+	public void releaseComment() {
+		comment = null;
+		commentSpans = null;
+		linkSpans = null;
+		linkSuffixSpans = null;
+	}
+
 	@NonNull
 	public CharSequence getComment(Chan chan, PostNumber repliesToPost) {
 		SpannableString comment = new SpannableString(getComment(chan));
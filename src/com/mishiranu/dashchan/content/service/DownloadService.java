@@ -23,6 +23,7 @@ import android.util.Pair;
 import androidx.core.app.NotificationCompat;
 import chan.content.Chan;
 import chan.content.ChanManager;
+import chan.http.HttpHolder;
 import chan.util.CommonUtils;
 import chan.util.DataFile;
 import chan.util.StringUtils;
@@ -266,6 +267,7 @@ public class DownloadService extends BaseService implements ReadFileTask.Callbac
 				ReadFileTask readFileTask = ReadFileTask.createShared(this, chan,
 						taskData.uri, getDataFile(taskData), taskData.overwrite,
 						taskData.checkSha256, taskData.checkFingerprints);
+				readFileTask.setPriority(HttpHolder.Priority.DOWNLOAD);
 				activeTask = new Pair<>(taskData, readFileTask);
 				readFileTask.execute(SINGLE_THREAD_EXECUTOR);
 			}
@@ -0,0 +1,317 @@
+package com.mishiranu.dashchan.content.service;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import chan.content.Chan;
+import chan.content.RedirectException;
+import chan.http.HttpHolder;
+import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.content.AdvancedPreferences;
+import com.mishiranu.dashchan.content.Preferences;
+import com.mishiranu.dashchan.content.WatcherNotifications;
+import com.mishiranu.dashchan.content.async.ExecutorTask;
+import com.mishiranu.dashchan.content.async.ReadPostsTask;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
+import com.mishiranu.dashchan.content.model.ErrorItem;
+import com.mishiranu.dashchan.content.model.PendingUserPost;
+import com.mishiranu.dashchan.content.storage.FavoritesStorage;
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.widget.ThemeEngine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+// Refreshes watched threads while the application is closed. The system runs the job within a flexible window,
+// so wakeups are batched with other applications, and all due threads are read in a single network burst.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class WatcherJobService extends JobService {
+	private static final long PERIOD = 30 * 60 * 1000;
+	private static final long FLEX = 15 * 60 * 1000;
+	// Threads refreshed recently by the application are skipped
+	private static final long MIN_AGE = FLEX;
+
+	private static final Executor EXECUTOR = ConcurrentUtils.newThreadPool(0, getThreads(), 1000,
+			"WatcherJob", null);
+
+	private static int getThreads() {
+		int threads = AdvancedPreferences.getWatcherThreads(null);
+		return Math.max(2, threads > 0 ? threads : 3);
+	}
+
+	public static boolean isSupported() {
+		return C.API_LOLLIPOP;
+	}
+
+	public static void configure(Context context) {
+		if (!isSupported()) {
+			return;
+		}
+		JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+		boolean enabled = Preferences.isWatcherBackground() &&
+				Preferences.getWatcherRefreshInterval() != Preferences.DISABLED_WATCHER_REFRESH_INTERVAL;
+		if (enabled) {
+			int networkType = Preferences.isWatcherWifiOnly() ? JobInfo.NETWORK_TYPE_UNMETERED
+					: JobInfo.NETWORK_TYPE_ANY;
+			for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+				if (jobInfo.getId() == C.JOB_ID_WATCHER && jobInfo.getNetworkType() == networkType) {
+					// Rescheduling would restart the period
+					return;
+				}
+			}
+			JobInfo.Builder builder = new JobInfo.Builder(C.JOB_ID_WATCHER,
+					new ComponentName(context, WatcherJobService.class))
+					.setRequiredNetworkType(networkType)
+					.setPersisted(true);
+			if (C.API_NOUGAT) {
+				builder.setPeriodic(PERIOD, FLEX);
+			} else {
+				builder.setPeriodic(PERIOD);
+			}
+			jobScheduler.schedule(builder.build());
+		} else {
+			jobScheduler.cancel(C.JOB_ID_WATCHER);
+		}
+	}
+
+	private static class Item {
+		public final String chanName;
+		public final String boardName;
+		public final String threadNumber;
+
+		public Item(String chanName, String boardName, String threadNumber) {
+			this.chanName = chanName;
+			this.boardName = boardName;
+			this.threadNumber = threadNumber;
+		}
+	}
+
+	private static class ResolveItemsTask extends ExecutorTask<Void, List<Item>> {
+		public interface Callback {
+			void onResolveItemsResult(List<Item> items);
+		}
+
+		private final Callback callback;
+		private final List<Item> items;
+
+		public ResolveItemsTask(Callback callback, List<Item> items) {
+			this.callback = callback;
+			this.items = items;
+		}
+
+		@Override
+		protected List<Item> run() {
+			ArrayList<Item> dueItems = new ArrayList<>();
+			long time = System.currentTimeMillis();
+			for (Item item : items) {
+				PagesDatabase.WatcherState watcherState = PagesDatabase.getInstance().getWatcherState
+						(new PagesDatabase.ThreadKey(item.chanName, item.boardName, item.threadNumber));
+				if (!watcherState.deleted && watcherState.time + MIN_AGE <= time) {
+					dueItems.add(item);
+				}
+			}
+			return dueItems;
+		}
+
+		@Override
+		protected void onComplete(List<Item> result) {
+			callback.onResolveItemsResult(result);
+		}
+	}
+
+	private class Run implements ResolveItemsTask.Callback {
+		private final JobParameters parameters;
+		private final ArrayList<ReadTask> tasks = new ArrayList<>();
+		private final ArrayList<WatcherNotifications.ThreadReplies> threadRepliesList = new ArrayList<>();
+
+		private ResolveItemsTask resolveItemsTask;
+		private long startTime;
+		private long fetchEndTime;
+		private int fetchCount;
+		private int finishCount;
+
+		public Run(JobParameters parameters) {
+			this.parameters = parameters;
+		}
+
+		public void start(List<Item> items) {
+			resolveItemsTask = new ResolveItemsTask(this, items);
+			resolveItemsTask.execute(ConcurrentUtils.PARALLEL_EXECUTOR);
+		}
+
+		@Override
+		public void onResolveItemsResult(List<Item> items) {
+			resolveItemsTask = null;
+			if (items.isEmpty() || WatcherService.isRunning()) {
+				finish();
+				return;
+			}
+			// All threads are enqueued at once, so the radio is woken up only once
+			startTime = SystemClock.elapsedRealtime();
+			for (Item item : items) {
+				ReadTask task = new ReadTask(this, item);
+				tasks.add(task);
+				task.execute();
+			}
+		}
+
+		public void onFetched(ReadTask task) {
+			if (!task.fetched) {
+				task.fetched = true;
+				fetchCount++;
+				if (fetchCount == tasks.size()) {
+					fetchEndTime = SystemClock.elapsedRealtime();
+				}
+			}
+		}
+
+		public void onFinished(ReadTask task) {
+			onFetched(task);
+			finishCount++;
+			if (finishCount == tasks.size()) {
+				finish();
+			}
+		}
+
+		private void finish() {
+			if (!threadRepliesList.isEmpty()) {
+				Set<Preferences.NotificationFeature> notificationFeatures = Preferences.getWatcherNotifications();
+				if (notificationFeatures.contains(Preferences.NotificationFeature.ENABLED)) {
+					boolean important = notificationFeatures.contains(Preferences.NotificationFeature.IMPORTANT);
+					boolean sound = notificationFeatures.contains(Preferences.NotificationFeature.SOUND);
+					boolean vibration = notificationFeatures.contains(Preferences.NotificationFeature.VIBRATION);
+					int color = ThemeEngine.attachAndApply(WatcherJobService.this).accent;
+					WatcherNotifications.configure(WatcherJobService.this);
+					WatcherNotifications.notifyReplies(WatcherJobService.this,
+							color, important, sound, vibration, threadRepliesList);
+				}
+			}
+			if (!tasks.isEmpty()) {
+				Preferences.addWatcherBackgroundRun(tasks.size(), fetchEndTime - startTime);
+			}
+			if (run == this) {
+				run = null;
+			}
+			jobFinished(parameters, false);
+		}
+
+		public void cancel() {
+			if (resolveItemsTask != null) {
+				resolveItemsTask.cancel();
+				resolveItemsTask = null;
+			}
+			for (ReadTask task : tasks) {
+				task.cancel();
+			}
+		}
+	}
+
+	private static class ReadTask implements ReadPostsTask.Callback {
+		private final Run run;
+		private final Item item;
+
+		private ReadPostsTask task;
+		private boolean fetched;
+
+		public ReadTask(Run run, Item item) {
+			this.run = run;
+			this.item = item;
+		}
+
+		public void execute() {
+			Set<PendingUserPost> pendingUserPosts = PostingService.getPendingUserPosts(item.chanName,
+					item.boardName, item.threadNumber);
+			task = new ReadPostsTask(this, Chan.get(item.chanName), item.boardName, item.threadNumber,
+					false, pendingUserPosts);
+			task.setPriority(HttpHolder.Priority.WATCHER);
+			task.execute(EXECUTOR);
+		}
+
+		public void cancel() {
+			task.cancel();
+		}
+
+		@Override
+		public void onPendingUserPostsConsumed(Set<PendingUserPost> pendingUserPosts) {
+			if (pendingUserPosts != null && !pendingUserPosts.isEmpty()) {
+				PostingService.consumePendingUserPosts(item.chanName, item.boardName,
+						item.threadNumber, pendingUserPosts);
+			}
+		}
+
+		@Override
+		public void onReadPostsFetched() {
+			run.onFetched(this);
+		}
+
+		@Override
+		public void onReadPostsWritten(long duration) {}
+
+		@Override
+		public void onReadPostsSuccess(PagesDatabase.Cache.State cacheState,
+				List<PagesDatabase.InsertResult.Reply> replies, Integer newCount,
+				ReadPostsTask.ThreadState threadState) {
+			if (!replies.isEmpty()) {
+				String title = WatcherService.getNotificationTitle(item.chanName, item.boardName, item.threadNumber);
+				run.threadRepliesList.add(new WatcherNotifications.ThreadReplies(title,
+						item.chanName, item.boardName, item.threadNumber, replies));
+			}
+			run.onFinished(this);
+		}
+
+		@Override
+		public void onReadPostsRedirect(RedirectException.Target target) {
+			FavoritesStorage.getInstance().setWatcherEnabled(item.chanName, item.boardName, item.threadNumber, false);
+			run.onFinished(this);
+		}
+
+		@Override
+		public void onReadPostsFail(ErrorItem errorItem) {
+			if (errorItem.type == ErrorItem.Type.THREAD_NOT_EXISTS) {
+				FavoritesStorage.getInstance().setWatcherEnabled(item.chanName,
+						item.boardName, item.threadNumber, false);
+			}
+			run.onFinished(this);
+		}
+	}
+
+	private Run run;
+
+	@Override
+	public boolean onStartJob(JobParameters params) {
+		if (WatcherService.isRunning()) {
+			return false;
+		}
+		ArrayList<Item> items = new ArrayList<>();
+		for (FavoritesStorage.FavoriteItem favoriteItem : FavoritesStorage.getInstance().getThreads(null)) {
+			if (favoriteItem.watcherEnabled && WatcherService.isWatcherSupported(Chan.get(favoriteItem.chanName))) {
+				items.add(new Item(favoriteItem.chanName, favoriteItem.boardName, favoriteItem.threadNumber));
+			}
+		}
+		if (items.isEmpty()) {
+			return false;
+		}
+		if (run != null) {
+			run.cancel();
+		}
+		run = new Run(params);
+		run.start(items);
+		return true;
+	}
+
+	@Override
+	public boolean onStopJob(JobParameters params) {
+		if (run != null) {
+			run.cancel();
+			run = null;
+		}
+		return true;
+	}
+}
@@ -2,18 +2,23 @@ package com.mishiranu.dashchan.content.service;
 
 import android.content.Intent;
 import android.os.SystemClock;
+import android.util.Pair;
 import androidx.activity.ComponentActivity;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.ViewModelProvider;
 import chan.content.Chan;
 import chan.content.ChanConfiguration;
 import chan.content.RedirectException;
+import chan.http.HttpClient;
+import chan.http.HttpHolder;
 import chan.util.CommonUtils;
 import chan.util.StringUtils;
 import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.content.AdvancedPreferences;
 import com.mishiranu.dashchan.content.NetworkObserver;
 import com.mishiranu.dashchan.content.Preferences;
 import com.mishiranu.dashchan.content.WatcherNotifications;
+import com.mishiranu.dashchan.content.async.CheckThreadSummariesTask;
 import com.mishiranu.dashchan.content.async.ExecutorTask;
 import com.mishiranu.dashchan.content.async.ReadPostsTask;
 import com.mishiranu.dashchan.content.database.ChanDatabase;
@@ -31,6 +36,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -215,7 +221,7 @@ public class WatcherService extends BaseService {
 		public void refreshAll(String chanName) {
 			WatcherService service = getService();
 			if (service != null) {
-				service.refreshAll(chanName, true, true);
+				service.refreshAll(chanName, true);
 			}
 		}
 
@@ -401,10 +407,28 @@ public class WatcherService extends BaseService {
 		}
 	}
 
-	private static boolean isWatcherSupported(Chan chan) {
+	static boolean isWatcherSupported(Chan chan) {
 		return chan.name != null && !chan.configuration.getOption(ChanConfiguration.OPTION_LOCAL_MODE);
 	}
 
+	static String getNotificationTitle(String chanName, String boardName, String threadNumber) {
+		FavoritesStorage.FavoriteItem favoriteItem = FavoritesStorage.getInstance()
+				.getFavorite(chanName, boardName, threadNumber);
+		String title = favoriteItem != null ? StringUtils.emptyIfNull(favoriteItem.title) : "";
+		if (title.trim().isEmpty()) {
+			Chan chan = Chan.get(chanName);
+			title = chan.configuration.getTitle() + " / " + boardName + " / " + threadNumber;
+		}
+		return title;
+	}
+
+	private static boolean running;
+
+	// Background job is not needed while threads are watched by the service
+	static boolean isRunning() {
+		return running;
+	}
+
 	private static class ConcurrentIterable<T> implements Iterable<T> {
 		private static final Iterator<?> EMPTY = new Iterator<Object>() {
 			@Override
@@ -520,18 +544,33 @@ public class WatcherService extends BaseService {
 	}
 
 	private static class WatcherTask {
-		public final ReadPostsTask task;
+		public final ExecutorTask<?, ?> task;
 		public final Worker worker;
+		public final String chanName;
 
-		public WatcherTask(ReadPostsTask task, Worker worker) {
+		private boolean fetched;
+
+		public WatcherTask(ExecutorTask<?, ?> task, Worker worker, String chanName) {
 			this.task = task;
 			this.worker = worker;
-			worker.acquire();
+			this.chanName = chanName;
+			worker.acquire(chanName);
+		}
+
+		public void onFetched() {
+			if (!fetched) {
+				fetched = true;
+				worker.onFetched(chanName);
+			}
+		}
+
+		public void release() {
+			worker.release(chanName, fetched);
 		}
 
 		public void cancel() {
 			task.cancel();
-			worker.release();
+			release();
 		}
 	}
 
@@ -539,6 +578,15 @@ public class WatcherService extends BaseService {
 
 	private static final Session.Callback.ConsumeReplies CONSUME_REPLIES_EMPTY = () -> {};
 
+	// Posting rate is decayed exponentially, so old activity has less effect on refresh interval
+	private static final long RATE_DECAY_TIME = 30 * 60 * 1000;
+	private static final long START_INTERVAL = 60 * 1000;
+	private static final int MAX_INTERVAL_GROWTH = 2;
+	private static final long MAX_INTERVAL_ACTIVE = 30 * 60 * 1000;
+	private static final long MAX_INTERVAL_BUMP_LIMIT = 2 * 60 * 60 * 1000;
+	private static final long MAX_INTERVAL_CLOSED = 12 * 60 * 60 * 1000;
+	private static final int BUMP_LIMIT_INTERVAL_FACTOR = 4;
+
 	private class WatcherItem implements Comparable<WatcherItem>, ReadPostsTask.Callback {
 		public final ThreadKey threadKey;
 
@@ -548,6 +596,17 @@ public class WatcherService extends BaseService {
 		public boolean error;
 		public long lastUpdate;
 
+		// Posts per millisecond
+		public double rate;
+		public long rateTime;
+		public long adaptiveInterval;
+		public ReadPostsTask.ThreadState threadState = ReadPostsTask.ThreadState.ACTIVE;
+		public long dueTime;
+
+		// Board thread summaries are checked before reading the thread
+		public boolean summaryPending;
+		public boolean summaryChecked;
+
 		public WatcherTask task;
 		public WatcherState state = WatcherState.IDLE;
 
@@ -568,13 +627,15 @@ public class WatcherService extends BaseService {
 					threadKey.boardName, threadKey.threadNumber);
 			ReadPostsTask task = new ReadPostsTask(this, Chan.get(threadKey.chanName),
 					threadKey.boardName, threadKey.threadNumber, reload, pendingUserPosts);
+			task.setPriority(worker == WORKER_FOREGROUND ? HttpHolder.Priority.INTERACTIVE
+					: HttpHolder.Priority.WATCHER);
 			task.execute(worker.executor);
 			if (notifyBeforeStart) {
 				for (InternalSession session : getSessionConcurrentIterable(threadKey)) {
 					session.notifyRefreshStarted();
 				}
 			}
-			this.task = new WatcherTask(task, worker);
+			this.task = new WatcherTask(task, worker, threadKey.chanName);
 			notifyWatcherUpdate(this);
 		}
 
@@ -582,6 +643,40 @@ public class WatcherService extends BaseService {
 			return lastUpdate + interval - 1000 <= now;
 		}
 
+		public void updateRate(long now, int addedCount, ReadPostsTask.ThreadState threadState) {
+			if (threadState != null) {
+				this.threadState = threadState;
+			}
+			if (rateTime > 0) {
+				rate *= Math.exp((double) (rateTime - now) / RATE_DECAY_TIME);
+			}
+			rate += (double) addedCount / RATE_DECAY_TIME;
+			rateTime = now;
+			long maxInterval;
+			switch (this.threadState) {
+				case BUMP_LIMIT: {
+					maxInterval = MAX_INTERVAL_BUMP_LIMIT;
+					break;
+				}
+				case CLOSED: {
+					// Closed threads don't get new posts, so only deletion is checked
+					adaptiveInterval = MAX_INTERVAL_CLOSED;
+					return;
+				}
+				default: {
+					maxInterval = MAX_INTERVAL_ACTIVE;
+					break;
+				}
+			}
+			// Refresh when about 1 new post is expected, interval grows gradually
+			long interval = rate > 0 ? (long) Math.min(1 / rate, maxInterval) : maxInterval;
+			if (this.threadState == ReadPostsTask.ThreadState.BUMP_LIMIT) {
+				interval *= BUMP_LIMIT_INTERVAL_FACTOR;
+			}
+			long lastInterval = adaptiveInterval > 0 ? adaptiveInterval : START_INTERVAL;
+			adaptiveInterval = Math.min(Math.min(interval, lastInterval * MAX_INTERVAL_GROWTH), maxInterval);
+		}
+
 		@Override
 		public int compareTo(WatcherItem o) {
 			return Long.compare(lastUpdate, o.lastUpdate);
@@ -595,9 +690,27 @@ public class WatcherService extends BaseService {
 			}
 		}
 
+		@Override
+		public void onReadPostsFetched() {
+			if (task != null) {
+				task.onFetched();
+				startNext();
+			}
+		}
+
+		@Override
+		public void onReadPostsWritten(long duration) {
+			// Exponential moving average, the last write has weight of 1/4
+			writeDuration = writeDuration > 0 ? (3 * writeDuration + duration) / 4 : duration;
+		}
+
 		@Override
 		public void onReadPostsSuccess(PagesDatabase.Cache.State cacheState,
-				List<PagesDatabase.InsertResult.Reply> replies, Integer newCount) {
+				List<PagesDatabase.InsertResult.Reply> replies, Integer newCount,
+				ReadPostsTask.ThreadState threadState) {
+			// New count is reset when the thread is viewed, so the difference is a number of added posts
+			int addedCount = newCount != null ? Math.max(0, newCount - this.newCount) : 0;
+			updateRate(SystemClock.elapsedRealtime(), addedCount, threadState);
 			if (newCount != null) {
 				resolved = true;
 				this.newCount = newCount;
@@ -619,14 +732,8 @@ public class WatcherService extends BaseService {
 			if (notify != null && notify[0] && !replies.isEmpty()) {
 				Set<Preferences.NotificationFeature> notificationFeatures = Preferences.getWatcherNotifications();
 				if (notificationFeatures.contains(Preferences.NotificationFeature.ENABLED)) {
-					FavoritesStorage.FavoriteItem favoriteItem = FavoritesStorage.getInstance()
-							.getFavorite(threadKey.chanName, threadKey.boardName, threadKey.threadNumber);
-					String title = favoriteItem != null ? StringUtils.emptyIfNull(favoriteItem.title) : "";
-					if (title.trim().isEmpty()) {
-						Chan chan = Chan.get(threadKey.chanName);
-						title = chan.configuration.getTitle() + " / " +
-								threadKey.boardName + " / " + threadKey.threadNumber;
-					}
+					String title = getNotificationTitle(threadKey.chanName,
+							threadKey.boardName, threadKey.threadNumber);
 					boolean important = notificationFeatures.contains(Preferences.NotificationFeature.IMPORTANT);
 					boolean sound = notificationFeatures.contains(Preferences.NotificationFeature.SOUND);
 					boolean vibration = notificationFeatures.contains(Preferences.NotificationFeature.VIBRATION);
@@ -649,6 +756,7 @@ public class WatcherService extends BaseService {
 
 		@Override
 		public void onReadPostsFail(ErrorItem errorItem) {
+			updateRate(SystemClock.elapsedRealtime(), 0, null);
 			boolean notExists = errorItem.type == ErrorItem.Type.THREAD_NOT_EXISTS;
 			deleted = notExists;
 			error = !notExists;
@@ -659,11 +767,9 @@ public class WatcherService extends BaseService {
 		}
 
 		private void onTaskFinished() {
-			task.worker.release();
+			task.release();
 			task = null;
-			lastUpdate = SystemClock.elapsedRealtime();
-			state = WatcherState.IDLE;
-			enqueuedWatcherItems.remove(this);
+			finishRefresh();
 			if (deleted) {
 				FavoritesStorage.getInstance().setWatcherEnabled(threadKey.chanName,
 						threadKey.boardName, threadKey.threadNumber, false);
@@ -671,12 +777,29 @@ public class WatcherService extends BaseService {
 			startNext();
 			notifyWatcherUpdate(this);
 		}
+
+		public void onSummaryUnmodified() {
+			updateRate(SystemClock.elapsedRealtime(), 0, null);
+			finishRefresh();
+			notifyWatcherUpdate(this);
+		}
+
+		private void finishRefresh() {
+			summaryChecked = false;
+			lastUpdate = SystemClock.elapsedRealtime();
+			state = WatcherState.IDLE;
+			enqueuedWatcherItems.remove(this);
+			schedule(this);
+		}
 	}
 
 	private final HashMap<Client, String> clients = new HashMap<>();
 	private final HashMap<ThreadKey, HashSet<InternalSession>> sessionsMap = new HashMap<>();
 	private final HashMap<ThreadKey, WatcherItem> watcherItems = new HashMap<>();
 	private final ArrayList<WatcherItem> enqueuedWatcherItems = new ArrayList<>();
+	private final PriorityQueue<WatcherItem> scheduledWatcherItems = new PriorityQueue<>(11,
+			(lhs, rhs) -> Long.compare(lhs.dueTime, rhs.dueTime));
+	private final HashMap<Pair<String, String>, WatcherTask> summaryTasks = new HashMap<>();
 
 	private final Iterable<ThreadKey> workWatcherKeys = new ConcurrentIterable<>(watcherItems::keySet);
 	private final Iterable<Client> workClients = new ConcurrentIterable<>(clients::keySet);
@@ -685,12 +808,14 @@ public class WatcherService extends BaseService {
 
 	private int notificationColor;
 	private ResolveItemsTask resolveItemsTask;
-	private long lastRefreshAll;
+	private double writeDuration;
+	private boolean scheduledForeground;
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
 
+		running = true;
 		WatcherNotifications.configure(this);
 		updateNotificationColor();
 		addOnDestroyListener(ChanDatabase.getInstance().requireCookies());
@@ -702,13 +827,14 @@ public class WatcherService extends BaseService {
 			addWatcherItem(threadKey, false);
 		}
 		resolveWatcherItems();
-		refreshAll(null, false, true);
+		refreshAll(null, false);
 	}
 
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
 
+		running = false;
 		for (WatcherItem watcherItem : watcherItems.values()) {
 			if (watcherItem.task != null) {
 				watcherItem.cancel();
@@ -717,13 +843,17 @@ public class WatcherService extends BaseService {
 				}
 			}
 		}
+		for (WatcherTask summaryTask : summaryTasks.values()) {
+			summaryTask.cancel();
+		}
+		summaryTasks.clear();
 		if (resolveItemsTask != null) {
 			resolveItemsTask.cancel();
 			resolveItemsTask = null;
 		}
 		Preferences.PREFERENCES.unregister(preferencesListener);
 		FavoritesStorage.getInstance().getObservable().unregister(favoritesObserver);
-		ConcurrentUtils.HANDLER.removeCallbacks(refreshAllRunnable);
+		ConcurrentUtils.HANDLER.removeCallbacks(refreshScheduledRunnable);
 	}
 
 	private final FavoritesStorage.Observer favoritesObserver = (favoriteItem, action) -> {
@@ -793,6 +923,7 @@ public class WatcherService extends BaseService {
 				watcherItem.deleted = item.deleted;
 				watcherItem.error = item.error;
 				watcherItem.lastUpdate = item.lastUpdate;
+				schedule(watcherItem);
 				notifyWatcherUpdate(watcherItem);
 			}
 		}
@@ -805,13 +936,14 @@ public class WatcherService extends BaseService {
 		HashSet<String> priorityChanNames = workPriorityChanNames;
 		priorityChanNames.clear();
 		priorityChanNames.addAll(clients.values());
+		startCheckSummaries(priorityChanNames);
 		Iterator<WatcherItem> iterator = enqueuedWatcherItems.iterator();
 		while (iterator.hasNext()) {
 			WatcherItem watcherItem = iterator.next();
 			if (watcherItem.resolved) {
 				if (watcherItem.state != WatcherState.ENQUEUED) {
 					iterator.remove();
-				} else if (watcherItem.task == null) {
+				} else if (watcherItem.task == null && !watcherItem.summaryPending) {
 					Chan chan = Chan.get(watcherItem.threadKey.chanName);
 					if (isWatcherSupported(chan) && !isBlocked(watcherItem.threadKey)) {
 						HashSet<InternalSession> sessions = sessionsMap.get(watcherItem.threadKey);
@@ -826,7 +958,7 @@ public class WatcherService extends BaseService {
 							iterator.remove();
 							worker = null;
 						}
-						if (worker != null && worker.isAvailable()) {
+						if (worker != null && worker.isAvailable(watcherItem.threadKey.chanName, writeDuration)) {
 							watcherItem.createAndExecuteTask(worker, false, true);
 						}
 					} else {
@@ -839,8 +971,81 @@ public class WatcherService extends BaseService {
 		startNextFinished(false);
 	}
 
+	private void startCheckSummaries(HashSet<String> priorityChanNames) {
+		HashMap<Pair<String, String>, ArrayList<WatcherItem>> boardWatcherItems = null;
+		for (WatcherItem watcherItem : enqueuedWatcherItems) {
+			if (watcherItem.resolved && watcherItem.state == WatcherState.ENQUEUED && watcherItem.task == null &&
+					!watcherItem.summaryPending && !watcherItem.summaryChecked) {
+				ThreadKey threadKey = watcherItem.threadKey;
+				HashSet<InternalSession> sessions = sessionsMap.get(threadKey);
+				Chan chan = Chan.get(threadKey.chanName);
+				if ((sessions == null || sessions.isEmpty()) && isWatcherSupported(chan) &&
+						chan.configuration.getOption(ChanConfiguration.OPTION_READ_ACTIVE_THREAD_SUMMARIES) &&
+						isEnabled(threadKey) && !isBlocked(threadKey)) {
+					Pair<String, String> boardKey = new Pair<>(threadKey.chanName, threadKey.boardName);
+					if (!summaryTasks.containsKey(boardKey)) {
+						if (boardWatcherItems == null) {
+							boardWatcherItems = new HashMap<>();
+						}
+						ArrayList<WatcherItem> boardItems = boardWatcherItems.get(boardKey);
+						if (boardItems == null) {
+							boardItems = new ArrayList<>();
+							boardWatcherItems.put(boardKey, boardItems);
+						}
+						boardItems.add(watcherItem);
+					}
+				}
+			}
+		}
+		if (boardWatcherItems != null) {
+			for (HashMap.Entry<Pair<String, String>, ArrayList<WatcherItem>> entry : boardWatcherItems.entrySet()) {
+				ArrayList<WatcherItem> boardItems = entry.getValue();
+				// Single thread is cheaper to read directly
+				if (boardItems.size() >= 2) {
+					Pair<String, String> boardKey = entry.getKey();
+					Worker worker = priorityChanNames.contains(boardKey.first) ? WORKER_PRIORITY : WORKER_BACKGROUND;
+					if (worker.isAvailable(boardKey.first, writeDuration)) {
+						long now = SystemClock.elapsedRealtime();
+						long time = System.currentTimeMillis();
+						HashMap<String, Long> lastUpdates = new HashMap<>();
+						for (WatcherItem watcherItem : boardItems) {
+							watcherItem.summaryPending = true;
+							lastUpdates.put(watcherItem.threadKey.threadNumber, time - now + watcherItem.lastUpdate);
+						}
+						CheckThreadSummariesTask task = new CheckThreadSummariesTask(this::onCheckThreadSummariesResult,
+								Chan.get(boardKey.first), boardKey.second, lastUpdates);
+						task.setPriority(HttpHolder.Priority.WATCHER);
+						task.execute(worker.executor);
+						summaryTasks.put(boardKey, new WatcherTask(task, worker, boardKey.first));
+					}
+				}
+			}
+		}
+	}
+
+	private void onCheckThreadSummariesResult(String chanName, String boardName, Set<String> unmodifiedThreadNumbers) {
+		WatcherTask summaryTask = summaryTasks.remove(new Pair<>(chanName, boardName));
+		if (summaryTask != null) {
+			summaryTask.release();
+		}
+		for (WatcherItem watcherItem : watcherItems.values()) {
+			ThreadKey threadKey = watcherItem.threadKey;
+			if (watcherItem.summaryPending && threadKey.chanName.equals(chanName) &&
+					CommonUtils.equals(threadKey.boardName, boardName)) {
+				watcherItem.summaryPending = false;
+				if (unmodifiedThreadNumbers != null && unmodifiedThreadNumbers.contains(threadKey.threadNumber) &&
+						watcherItem.state == WatcherState.ENQUEUED && watcherItem.task == null) {
+					watcherItem.onSummaryUnmodified();
+				} else {
+					watcherItem.summaryChecked = true;
+				}
+			}
+		}
+		startNext();
+	}
+
 	private void startNextFinished(boolean forceForeground) {
-		ConcurrentUtils.HANDLER.removeCallbacks(refreshAllRunnable);
+		ConcurrentUtils.HANDLER.removeCallbacks(refreshScheduledRunnable);
 		if (enqueuedWatcherItems.isEmpty()) {
 			boolean foreground = forceForeground;
 			if (!foreground) {
@@ -852,14 +1057,32 @@ public class WatcherService extends BaseService {
 					}
 				}
 			}
-			int interval = getRefreshInterval(foreground);
-			if (interval > 0) {
-				if (lastRefreshAll == 0) {
-					lastRefreshAll = SystemClock.elapsedRealtime();
-				}
-				long time = Math.max(0, lastRefreshAll + interval - SystemClock.elapsedRealtime());
-				ConcurrentUtils.HANDLER.postDelayed(refreshAllRunnable, time);
+			if (foreground != scheduledForeground) {
+				scheduledForeground = foreground;
+				rescheduleAll();
 			}
+			WatcherItem nextWatcherItem = scheduledWatcherItems.peek();
+			if (nextWatcherItem != null && getRefreshInterval(foreground) > 0) {
+				long time = Math.max(0, nextWatcherItem.dueTime - SystemClock.elapsedRealtime());
+				ConcurrentUtils.HANDLER.postDelayed(refreshScheduledRunnable, time);
+			}
+		}
+	}
+
+	private void rescheduleAll() {
+		ArrayList<WatcherItem> watcherItems = new ArrayList<>(scheduledWatcherItems);
+		scheduledWatcherItems.clear();
+		for (WatcherItem watcherItem : watcherItems) {
+			schedule(watcherItem);
+		}
+	}
+
+	private void schedule(WatcherItem watcherItem) {
+		scheduledWatcherItems.remove(watcherItem);
+		if (watcherItem.resolved) {
+			long interval = Math.max(getRefreshInterval(scheduledForeground), watcherItem.adaptiveInterval);
+			watcherItem.dueTime = watcherItem.lastUpdate + interval - 1000;
+			scheduledWatcherItems.add(watcherItem);
 		}
 	}
 
@@ -911,6 +1134,7 @@ public class WatcherService extends BaseService {
 			} else {
 				watcherItems.remove(threadKey);
 				enqueuedWatcherItems.remove(watcherItem);
+				scheduledWatcherItems.remove(watcherItem);
 			}
 			startNext();
 			return null;
@@ -971,35 +1195,62 @@ public class WatcherService extends BaseService {
 		return workSessions;
 	}
 
-	private final Runnable refreshAllRunnable = () -> {
-		lastRefreshAll = 0;
-		refreshAll(null, false, false);
-	};
+	private final Runnable refreshScheduledRunnable = this::refreshScheduled;
+
+	private boolean isRefreshUnavailable(boolean forceNetwork) {
+		return !forceNetwork && Preferences.isWatcherWifiOnly() && !NetworkObserver.getInstance().isWifiConnected();
+	}
 
-	private void refreshAll(String chanName, boolean forceNetwork, boolean forceNow) {
+	// Returns false if the thread shouldn't be scheduled anymore
+	private boolean enqueueRefresh(WatcherItem watcherItem, boolean unavailable) {
+		Chan chan = Chan.get(watcherItem.threadKey.chanName);
+		if (isWatcherSupported(chan) && isEnabled(watcherItem.threadKey)) {
+			if (isBlocked(watcherItem.threadKey)) {
+				return true;
+			} else if (unavailable) {
+				if (watcherItem.state == WatcherState.IDLE) {
+					watcherItem.state = WatcherState.UNAVAILABLE;
+					notifyWatcherUpdate(watcherItem);
+				}
+			} else if (watcherItem.state != WatcherState.ENQUEUED) {
+				watcherItem.state = WatcherState.ENQUEUED;
+				notifyWatcherUpdate(watcherItem);
+				enqueuedWatcherItems.add(watcherItem);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void refreshScheduled() {
 		long now = SystemClock.elapsedRealtime();
-		int interval = getRefreshInterval(true);
-		boolean unavailable = !forceNetwork && Preferences.isWatcherWifiOnly() &&
-				!NetworkObserver.getInstance().isWifiConnected();
+		boolean unavailable = isRefreshUnavailable(false);
+		ArrayList<WatcherItem> postponedWatcherItems = null;
+		while (!scheduledWatcherItems.isEmpty() && scheduledWatcherItems.peek().dueTime <= now) {
+			WatcherItem watcherItem = scheduledWatcherItems.poll();
+			if (enqueueRefresh(watcherItem, unavailable) && watcherItem.state != WatcherState.ENQUEUED) {
+				// Check again after regular interval
+				if (postponedWatcherItems == null) {
+					postponedWatcherItems = new ArrayList<>();
+				}
+				postponedWatcherItems.add(watcherItem);
+			}
+		}
+		if (postponedWatcherItems != null) {
+			for (WatcherItem watcherItem : postponedWatcherItems) {
+				watcherItem.dueTime = now + getRefreshInterval(scheduledForeground);
+				scheduledWatcherItems.add(watcherItem);
+			}
+		}
+		Collections.sort(enqueuedWatcherItems);
+		startNext();
+	}
+
+	private void refreshAll(String chanName, boolean forceNetwork) {
+		boolean unavailable = isRefreshUnavailable(forceNetwork);
 		for (WatcherItem watcherItem : watcherItems.values()) {
 			if (chanName == null || chanName.equals(watcherItem.threadKey.chanName)) {
-				Chan chan = Chan.get(watcherItem.threadKey.chanName);
-				if (isWatcherSupported(chan) && !isBlocked(watcherItem.threadKey) &&
-						isEnabled(watcherItem.threadKey)) {
-					if (unavailable) {
-						if (watcherItem.state == WatcherState.IDLE) {
-							watcherItem.state = WatcherState.UNAVAILABLE;
-							notifyWatcherUpdate(watcherItem);
-						}
-					} else {
-						if (watcherItem.state != WatcherState.ENQUEUED &&
-								(forceNow || watcherItem.checkInterval(now, interval))) {
-							watcherItem.state = WatcherState.ENQUEUED;
-							notifyWatcherUpdate(watcherItem);
-							enqueuedWatcherItems.add(watcherItem);
-						}
-					}
-				}
+				enqueueRefresh(watcherItem, unavailable);
 			}
 		}
 		Collections.sort(enqueuedWatcherItems);
@@ -1060,7 +1311,8 @@ public class WatcherService extends BaseService {
 
 	private final SharedPreferences.Listener preferencesListener = key -> {
 		if (Preferences.KEY_WATCHER_REFRESH_INTERVAL.equals(key)) {
-			ConcurrentUtils.HANDLER.removeCallbacks(refreshAllRunnable);
+			ConcurrentUtils.HANDLER.removeCallbacks(refreshScheduledRunnable);
+			rescheduleAll();
 			startNext();
 		} else if (Preferences.KEY_THEME.equals(key)) {
 			updateNotificationColor();
@@ -1074,14 +1326,32 @@ public class WatcherService extends BaseService {
 		}
 	}
 
+	private static final int DEFAULT_WORKER_LIMIT = 3;
+	// Database write stage is considered congested when the average write takes longer
+	private static final double CONGESTED_WRITE_DURATION = 500;
+
 	private static final Worker WORKER_FOREGROUND = new Worker(ConcurrentUtils.PARALLEL_EXECUTOR);
-	private static final Worker WORKER_PRIORITY = new Worker("WatcherPriority", 3);
-	private static final Worker WORKER_BACKGROUND = new Worker("WatcherBackground", 3);
+	private static final Worker WORKER_PRIORITY = new Worker("WatcherPriority", getWorkerLimit());
+	private static final Worker WORKER_BACKGROUND = new Worker("WatcherBackground", getWorkerLimit());
+
+	private static int getWorkerLimit() {
+		int limit = AdvancedPreferences.getWatcherThreads(null);
+		return limit > 0 ? limit : DEFAULT_WORKER_LIMIT;
+	}
 
+	private static int getChanLimit(String chanName) {
+		// Waiting for the scheduler would only hold the worker threads needed by other chans
+		return HttpClient.getInstance().isSerialized(chanName) ? 1 : AdvancedPreferences.getWatcherThreads(chanName);
+	}
+
+	// Limit applies to network stage, while fetched threads are written to database using extra threads.
+	// Counters are modified on main thread only.
 	private static class Worker {
 		private final Executor executor;
 		private final int limit;
+		private final HashMap<String, Integer> chanCounts = new HashMap<>();
 		private int count;
+		private int writeCount;
 
 		private Worker(Executor executor, int limit) {
 			this.executor = executor;
@@ -1093,19 +1363,53 @@ public class WatcherService extends BaseService {
 		}
 
 		public Worker(String name, int limit) {
-			this(ConcurrentUtils.newThreadPool(limit, limit, 0, name, null), limit);
+			this(ConcurrentUtils.newThreadPool(2 * limit, 2 * limit, 0, name, null), limit);
 		}
 
-		public boolean isAvailable() {
-			return limit <= 0 || count < limit;
+		public boolean isAvailable(String chanName, double writeDuration) {
+			if (limit <= 0) {
+				return true;
+			}
+			int fetchLimit = limit;
+			if (writeDuration > CONGESTED_WRITE_DURATION) {
+				// Fetch less when database can't keep up with network
+				fetchLimit = Math.max(1, (int) (limit * CONGESTED_WRITE_DURATION / writeDuration));
+			}
+			if (count >= fetchLimit || count + writeCount >= 2 * limit) {
+				return false;
+			}
+			int chanLimit = getChanLimit(chanName);
+			Integer chanCount = chanCounts.get(chanName);
+			return chanLimit <= 0 || chanCount == null || chanCount < chanLimit;
 		}
 
-		public void acquire() {
+		public void acquire(String chanName) {
 			count++;
+			Integer chanCount = chanCounts.get(chanName);
+			chanCounts.put(chanName, chanCount != null ? chanCount + 1 : 1);
 		}
 
-		public void release() {
+		public void onFetched(String chanName) {
+			releaseFetch(chanName);
+			writeCount++;
+		}
+
+		public void release(String chanName, boolean fetched) {
+			if (fetched) {
+				writeCount--;
+			} else {
+				releaseFetch(chanName);
+			}
+		}
+
+		private void releaseFetch(String chanName) {
 			count--;
+			Integer chanCount = chanCounts.get(chanName);
+			if (chanCount != null && chanCount > 1) {
+				chanCounts.put(chanName, chanCount - 1);
+			} else {
+				chanCounts.remove(chanName);
+			}
 		}
 	}
 }
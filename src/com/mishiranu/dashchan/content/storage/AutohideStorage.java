@@ -34,6 +34,7 @@ public class AutohideStorage extends StorageManager.JsonOrgStorage<List<Autohide
 	}
 
 	private final ArrayList<AutohideItem> autohideItems = new ArrayList<>();
+	private volatile int version;
 
 	private AutohideStorage() {
 		super("autohide", 1000, 10000);
@@ -44,6 +45,11 @@ public class AutohideStorage extends StorageManager.JsonOrgStorage<List<Autohide
 		return autohideItems;
 	}
 
+	// Version is changed every time items are changed
+	public int getVersion() {
+		return version;
+	}
+
 	@Override
 	public List<AutohideItem> onClone() {
 		ArrayList<AutohideItem> autohideItems = new ArrayList<>(this.autohideItems.size());
@@ -134,16 +140,19 @@ public class AutohideStorage extends StorageManager.JsonOrgStorage<List<Autohide
 
 	public void add(AutohideItem autohideItem) {
 		autohideItems.add(autohideItem);
+		version++;
 		serialize();
 	}
 
 	public void update(int index, AutohideItem autohideItem) {
 		autohideItems.set(index, autohideItem);
+		version++;
 		serialize();
 	}
 
 	public void delete(int index) {
 		autohideItems.remove(index);
+		version++;
 		serialize();
 	}
 
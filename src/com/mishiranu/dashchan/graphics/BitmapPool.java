@@ -0,0 +1,293 @@
+package com.mishiranu.dashchan.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.SparseArray;
+import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.content.MainApplication;
+import com.mishiranu.dashchan.util.GraphicsUtils;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+// Keeps unused mutable bitmaps grouped by power of two size classes to be reused with inBitmap option
+public class BitmapPool {
+	public interface Decoder {
+		Bitmap decode(BitmapFactory.Options options);
+	}
+
+	public static class Statistics {
+		public final int hits;
+		public final int misses;
+		public final long size;
+		public final long maxSize;
+
+		private Statistics(int hits, int misses, long size, long maxSize) {
+			this.hits = hits;
+			this.misses = misses;
+			this.size = size;
+			this.maxSize = maxSize;
+		}
+	}
+
+	private static final BitmapPool INSTANCE = new BitmapPool();
+
+	public static BitmapPool getInstance() {
+		return INSTANCE;
+	}
+
+	private static final int MAX_BOUNDS_LENGTH = 256 * 1024;
+
+	// Reusing bitmaps of different size is possible only since KitKat
+	private final boolean enabled = C.API_KITKAT;
+	private final long maxSize = Runtime.getRuntime().maxMemory() /
+			(MainApplication.getInstance().isLowRam() ? 32 : 16);
+
+	private final SparseArray<ArrayList<Bitmap>> classes = new SparseArray<>();
+	private final LinkedHashSet<Bitmap> bitmaps = new LinkedHashSet<>();
+	private long size;
+	private int hits;
+	private int misses;
+
+	private BitmapPool() {}
+
+	private static int getSizeClass(long bytes) {
+		return 64 - Long.numberOfLeadingZeros(Math.max(bytes - 1, 0));
+	}
+
+	private static int divideCeil(int value, int divider) {
+		return (value + divider - 1) / divider;
+	}
+
+	private Bitmap obtain(long bytes) {
+		return obtain(bytes, 0, 0);
+	}
+
+	// Bitmap of exactly the given width and height is returned unless they are 0
+	private synchronized Bitmap obtain(long bytes, int width, int height) {
+		int sizeClass = getSizeClass(bytes);
+		// Bitmaps in the next class are always large enough
+		for (int i = sizeClass; i <= sizeClass + 1; i++) {
+			ArrayList<Bitmap> bitmaps = classes.get(i);
+			if (bitmaps != null) {
+				for (int j = bitmaps.size() - 1; j >= 0; j--) {
+					Bitmap bitmap = bitmaps.get(j);
+					int allocation = GraphicsUtils.getAllocationByteCount(bitmap);
+					if (allocation >= bytes && (width <= 0 || bitmap.getWidth() == width &&
+							bitmap.getHeight() == height)) {
+						bitmaps.remove(j);
+						this.bitmaps.remove(bitmap);
+						size -= allocation;
+						hits++;
+						return bitmap;
+					}
+				}
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	public void release(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		int allocation = GraphicsUtils.getAllocationByteCount(bitmap);
+		if (!enabled || !bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888 ||
+				allocation > maxSize / 4) {
+			bitmap.recycle();
+			return;
+		}
+		synchronized (this) {
+			if (!bitmaps.add(bitmap)) {
+				return;
+			}
+			int sizeClass = getSizeClass(allocation);
+			ArrayList<Bitmap> bitmaps = classes.get(sizeClass);
+			if (bitmaps == null) {
+				bitmaps = new ArrayList<>();
+				classes.put(sizeClass, bitmaps);
+			}
+			bitmaps.add(bitmap);
+			size += allocation;
+			Iterator<Bitmap> iterator = this.bitmaps.iterator();
+			while (size > maxSize && iterator.hasNext()) {
+				Bitmap oldBitmap = iterator.next();
+				iterator.remove();
+				int oldAllocation = GraphicsUtils.getAllocationByteCount(oldBitmap);
+				classes.get(getSizeClass(oldAllocation)).remove(oldBitmap);
+				size -= oldAllocation;
+				oldBitmap.recycle();
+			}
+		}
+	}
+
+	// Width and height are the size of source image, the size of decoded bitmap is calculated using inSampleSize
+	public Bitmap decode(BitmapFactory.Options options, int width, int height, Decoder decoder) {
+		if (enabled && width > 0 && height > 0) {
+			int sampleSize = Math.max(options.inSampleSize, 1);
+			long bytes = 4L * divideCeil(width, sampleSize) * divideCeil(height, sampleSize);
+			options.inMutable = true;
+			Bitmap reuseBitmap = obtain(bytes);
+			if (reuseBitmap != null) {
+				options.inBitmap = reuseBitmap;
+				Bitmap bitmap = null;
+				try {
+					bitmap = decoder.decode(options);
+				} catch (IllegalArgumentException e) {
+					// Bitmap can't be reused for this image
+				} finally {
+					options.inBitmap = null;
+				}
+				if (bitmap != null) {
+					return bitmap;
+				}
+				release(reuseBitmap);
+			}
+		}
+		return decoder.decode(options);
+	}
+
+	// Region decoder draws into the reused bitmap without reconfiguring it, so only bitmaps
+	// with the same size as the sampled region are reused
+	public Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect rect, BitmapFactory.Options options) {
+		Bitmap.Config config = options.inPreferredConfig;
+		if (enabled && (config == null || config == Bitmap.Config.ARGB_8888)) {
+			int sampleSize = Math.max(options.inSampleSize, 1);
+			int width = Math.max(rect.width() / sampleSize, 1);
+			int height = Math.max(rect.height() / sampleSize, 1);
+			options.inMutable = true;
+			Bitmap reuseBitmap = obtain(4L * width * height, width, height);
+			if (reuseBitmap != null) {
+				options.inBitmap = reuseBitmap;
+				Bitmap bitmap = null;
+				try {
+					bitmap = decoder.decodeRegion(rect, options);
+				} catch (IllegalArgumentException e) {
+					// Bitmap can't be reused for this region
+				} finally {
+					options.inBitmap = null;
+				}
+				if (bitmap != null) {
+					return bitmap;
+				}
+				release(reuseBitmap);
+			}
+		}
+		return decoder.decodeRegion(rect, options);
+	}
+
+	public Bitmap decodeByteArray(byte[] bytes, int offset, int length) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(bytes, offset, length, options);
+		options.inJustDecodeBounds = false;
+		return decode(options, options.outWidth, options.outHeight,
+				o -> BitmapFactory.decodeByteArray(bytes, offset, length, o));
+	}
+
+	// Bounds are decoded from the marked beginning of the stream, which requires KitKat,
+	// since older BitmapFactory marks the stream again with a smaller limit.
+	// Bytes consumed by the pooled decoding are kept to decode the image again if the bitmap can't be reused.
+	public Bitmap decodeStream(InputStream input) throws IOException {
+		if (!input.markSupported()) {
+			input = new BufferedInputStream(input);
+		}
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		input.mark(MAX_BOUNDS_LENGTH);
+		BitmapFactory.decodeStream(input, null, options);
+		input.reset();
+		options.inJustDecodeBounds = false;
+		int width = options.outWidth;
+		int height = options.outHeight;
+		if (enabled && width > 0 && height > 0) {
+			long bytes = 4L * width * height;
+			options.inMutable = true;
+			Bitmap reuseBitmap = obtain(bytes);
+			if (reuseBitmap != null) {
+				RecordInputStream recordInput = new RecordInputStream(input);
+				options.inBitmap = reuseBitmap;
+				Bitmap bitmap = null;
+				try {
+					bitmap = BitmapFactory.decodeStream(recordInput, null, options);
+				} catch (IllegalArgumentException e) {
+					// Bitmap can't be reused for this image
+				} finally {
+					options.inBitmap = null;
+				}
+				if (bitmap != null) {
+					return bitmap;
+				}
+				release(reuseBitmap);
+				input = new SequenceInputStream(new ByteArrayInputStream(recordInput.output.toByteArray()), input);
+			}
+		}
+		return BitmapFactory.decodeStream(input, null, options);
+	}
+
+	private static class RecordInputStream extends FilterInputStream {
+		public final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		public RecordInputStream(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result >= 0) {
+				output.write(result);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b) throws IOException {
+			return read(b, 0, b.length);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count > 0) {
+				output.write(b, off, count);
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped bytes are required to decode the image again
+			byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			int count = read(buffer, 0, buffer.length);
+			return Math.max(count, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void mark(int readLimit) {}
+
+		@Override
+		public void reset() throws IOException {
+			throw new IOException("Mark is not supported");
+		}
+	}
+
+	public synchronized Statistics getStatistics() {
+		return new Statistics(hits, misses, size, maxSize);
+	}
+}
@@ -32,7 +32,8 @@ public class DecoderDrawable extends BaseDrawable {
 	private final BitmapRegionDecoder decoder;
 
 	private final LinkedHashMap<Integer, DecodeTask> tasks = new LinkedHashMap<>();
-	private final LruCache<Integer, Bitmap> fragments = new LruCache<>(MIN_MAX_ENTRIES, (k, v) -> v.recycle());
+	private final LruCache<Integer, Bitmap> fragments = new LruCache<>(MIN_MAX_ENTRIES,
+			(k, v) -> releaseFragment(v));
 
 	private final int width;
 	private final int height;
@@ -169,11 +170,17 @@ public class DecoderDrawable extends BaseDrawable {
 		}
 		tasks.clear();
 		for (Bitmap fragment : fragments.values()) {
-			fragment.recycle();
+			releaseFragment(fragment);
 		}
 		fragments.clear();
 	}
 
+	private static void releaseFragment(Bitmap fragment) {
+		if (fragment != NULL_BITMAP) {
+			BitmapPool.getInstance().release(fragment);
+		}
+	}
+
 	public void setEnabled(boolean enabled) {
 		if (this.enabled != enabled) {
 			this.enabled = enabled;
@@ -236,7 +243,7 @@ public class DecoderDrawable extends BaseDrawable {
 		protected Bitmap run() {
 			try {
 				synchronized (DecoderDrawable.this) {
-					Bitmap bitmap = decoder.decodeRegion(rect, options);
+					Bitmap bitmap = BitmapPool.getInstance().decodeRegion(decoder, rect, options);
 					bitmap = GraphicsUtils.applyRotation(bitmap, rotation);
 					if (gammaCorrection != null) {
 						bitmap = GraphicsUtils.applyGammaCorrection(bitmap, gammaCorrection);
@@ -260,9 +267,7 @@ public class DecoderDrawable extends BaseDrawable {
 
 		@Override
 		protected void onCancel(Bitmap bitmap) {
-			if (bitmap != null) {
-				bitmap.recycle();
-			}
+			BitmapPool.getInstance().release(bitmap);
 		}
 
 		@Override
@@ -15,6 +15,7 @@ import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import com.mishiranu.dashchan.content.model.FileHolder;
 import com.mishiranu.dashchan.graphics.BaseDrawable;
+import com.mishiranu.dashchan.graphics.BitmapPool;
 import com.mishiranu.dashchan.util.GraphicsUtils;
 import com.mishiranu.dashchan.util.IOUtils;
 import java.io.BufferedInputStream;
@@ -221,7 +222,9 @@ public class AnimatedPngDecoder implements Runnable {
 				crc32.update(head, 12, 17);
 				IOUtils.intToBytes((int) crc32.getValue(), false, 29, 4, head);
 				crc32.reset();
-				frame.bitmap = BitmapFactory.decodeStream(new FrameInputStream(head, frame));
+				byte[] frameHead = head;
+				frame.bitmap = BitmapPool.getInstance().decode(new BitmapFactory.Options(), frame.width, frame.height,
+						o -> BitmapFactory.decodeStream(new FrameInputStream(frameHead, frame), null, o));
 				Float gammaCorrection = fileHolder.getImageGammaCorrectionForSkia();
 				if (gammaCorrection != null) {
 					frame.bitmap = GraphicsUtils.applyGammaCorrection(frame.bitmap, gammaCorrection);
@@ -245,7 +248,7 @@ public class AnimatedPngDecoder implements Runnable {
 	private static void recycleFrames(Frame[] frames) {
 		for (Frame frame : frames) {
 			if (frame.bitmap != null) {
-				frame.bitmap.recycle();
+				BitmapPool.getInstance().release(frame.bitmap);
 				frame.bitmap = null;
 			}
 		}
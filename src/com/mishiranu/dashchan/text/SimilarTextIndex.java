@@ -0,0 +1,170 @@
+package com.mishiranu.dashchan.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+// Finds similar texts with MinHash signatures of word shingles. Signatures are split into LSH bands,
+// texts sharing at least one band bucket become candidates, and only candidates are compared by the estimator.
+// Estimator accepts texts with Jaccard similarity of word sets as low as 1/3. With 64 bands of 1 row,
+// such texts are missed with probability (2/3)^64, which is less than 10^-11.
+public class SimilarTextIndex<E> {
+	private static final int BANDS = 64;
+	private static final int ROWS = 1;
+	private static final int HASHES = BANDS * ROWS;
+
+	private static final long[] SEEDS = new long[HASHES];
+
+	static {
+		long seed = 0x5851f42d4c957f2dL;
+		for (int i = 0; i < HASHES; i++) {
+			seed = mix(seed + 0x9e3779b97f4a7c15L);
+			SEEDS[i] = seed;
+		}
+	}
+
+	private final SimilarTextEstimator estimator;
+	private final ArrayList<SimilarTextEstimator.WordsData<E>> items = new ArrayList<>();
+	private final HashMap<Long, int[]> buckets = new HashMap<>();
+
+	private int[] marks = new int[0];
+	private int mark;
+
+	public SimilarTextIndex(SimilarTextEstimator estimator) {
+		this.estimator = estimator;
+	}
+
+	private static long mix(long value) {
+		value = (value ^ value >>> 30) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ value >>> 27) * 0x94d049bb133111ebL;
+		return value ^ value >>> 31;
+	}
+
+	private static long[] getBucketKeys(SimilarTextEstimator.WordsData<?> wordsData) {
+		int[] signature = new int[HASHES];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		for (String word : wordsData.words) {
+			long hash = word.hashCode();
+			for (int i = 0; i < HASHES; i++) {
+				int value = (int) (mix(hash ^ SEEDS[i]) >>> 33);
+				if (value < signature[i]) {
+					signature[i] = value;
+				}
+			}
+		}
+		long[] keys = new long[BANDS];
+		for (int i = 0; i < BANDS; i++) {
+			long key = i;
+			for (int j = 0; j < ROWS; j++) {
+				key = mix(key * 31 + signature[i * ROWS + j]);
+			}
+			keys[i] = key;
+		}
+		return keys;
+	}
+
+	public int add(SimilarTextEstimator.WordsData<E> wordsData) {
+		return add(wordsData, getBucketKeys(wordsData));
+	}
+
+	private int add(SimilarTextEstimator.WordsData<E> wordsData, long[] keys) {
+		int id = items.size();
+		items.add(wordsData);
+		for (long key : keys) {
+			int[] ids = buckets.get(key);
+			if (ids == null) {
+				ids = new int[] {id};
+			} else if (ids[ids.length - 1] != id) {
+				ids = Arrays.copyOf(ids, ids.length + 1);
+				ids[ids.length - 1] = id;
+			}
+			buckets.put(key, ids);
+		}
+		return id;
+	}
+
+	// Returns similar items ids in ascending order
+	private List<Integer> find(SimilarTextEstimator.WordsData<E> wordsData, long[] keys, boolean first) {
+		if (marks.length < items.size()) {
+			marks = new int[Math.max(items.size(), marks.length * 2)];
+			mark = 0;
+		}
+		mark++;
+		ArrayList<Integer> candidates = new ArrayList<>();
+		for (long key : keys) {
+			int[] ids = buckets.get(key);
+			if (ids != null) {
+				for (int id : ids) {
+					if (marks[id] != mark) {
+						marks[id] = mark;
+						candidates.add(id);
+					}
+				}
+			}
+		}
+		if (candidates.size() > 1) {
+			Collections.sort(candidates);
+		}
+		ArrayList<Integer> result = new ArrayList<>();
+		for (int id : candidates) {
+			if (estimator.checkSimiliar(wordsData, items.get(id))) {
+				result.add(id);
+				if (first) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	public SimilarTextEstimator.WordsData<E> findFirst(SimilarTextEstimator.WordsData<E> wordsData) {
+		if (items.isEmpty()) {
+			return null;
+		}
+		List<Integer> result = find(wordsData, getBucketKeys(wordsData), true);
+		return result.isEmpty() ? null : items.get(result.get(0));
+	}
+
+	// Groups texts in a single pass, texts are grouped transitively, so variations of the same text
+	// end up in one group even if the first and the last variations are not similar
+	public static <E> List<List<E>> group(SimilarTextEstimator estimator,
+			List<SimilarTextEstimator.WordsData<E>> wordsDataList) {
+		SimilarTextIndex<E> index = new SimilarTextIndex<>(estimator);
+		int[] parents = new int[wordsDataList.size()];
+		for (SimilarTextEstimator.WordsData<E> wordsData : wordsDataList) {
+			long[] keys = getBucketKeys(wordsData);
+			List<Integer> similar = index.find(wordsData, keys, false);
+			int id = index.add(wordsData, keys);
+			parents[id] = id;
+			for (int similarId : similar) {
+				int root = findRoot(parents, similarId);
+				if (root != id) {
+					parents[root] = id;
+				}
+			}
+		}
+		HashMap<Integer, List<E>> groups = new HashMap<>();
+		ArrayList<List<E>> result = new ArrayList<>();
+		for (int i = 0; i < parents.length; i++) {
+			int root = findRoot(parents, i);
+			List<E> group = groups.get(root);
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(root, group);
+				result.add(group);
+			}
+			group.add(wordsDataList.get(i).extra);
+		}
+		return result;
+	}
+
+	private static int findRoot(int[] parents, int id) {
+		while (parents[id] != id) {
+			parents[id] = parents[parents[id]];
+			id = parents[id];
+		}
+		return id;
+	}
+}
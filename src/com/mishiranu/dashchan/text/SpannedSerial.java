@@ -0,0 +1,250 @@
+package com.mishiranu.dashchan.text;
+
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.StrikethroughSpan;
+import android.text.style.UnderlineSpan;
+import chan.text.ParseException;
+import com.mishiranu.dashchan.content.model.PostNumber;
+import com.mishiranu.dashchan.text.style.GainedColorSpan;
+import com.mishiranu.dashchan.text.style.HeadingSpan;
+import com.mishiranu.dashchan.text.style.ItalicSpan;
+import com.mishiranu.dashchan.text.style.LinkSpan;
+import com.mishiranu.dashchan.text.style.LinkSuffixSpan;
+import com.mishiranu.dashchan.text.style.MediumSpan;
+import com.mishiranu.dashchan.text.style.MonospaceSpan;
+import com.mishiranu.dashchan.text.style.OverlineSpan;
+import com.mishiranu.dashchan.text.style.QuoteSpan;
+import com.mishiranu.dashchan.text.style.ScriptSpan;
+import com.mishiranu.dashchan.text.style.SpoilerSpan;
+import com.mishiranu.dashchan.text.style.TabulationSpan;
+import com.mishiranu.dashchan.text.style.UnderlyingSpoilerSpan;
+import com.mishiranu.dashchan.util.CompactSerial;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// Stores text with spans produced by markup parser as plain text and compact span table
+public class SpannedSerial {
+	public static final int VERSION = 1;
+
+	private interface Type {
+		int TABULATION = 1;
+		int MEDIUM = 2;
+		int ITALIC = 3;
+		int SUBSCRIPT = 4;
+		int SUPERSCRIPT = 5;
+		int QUOTE = 6;
+		int UNDERLYING_SPOILER = 7;
+		int UNDERLINE = 8;
+		int OVERLINE = 9;
+		int STRIKE = 10;
+		int CODE = 11;
+		int ASCII_ART = 12;
+		int HEADING = 13;
+		int LINK = 14;
+		int COLOR = 15;
+		int LINK_SUFFIX = 16;
+		int SPOILER = 17;
+	}
+
+	private static final int[] LINK_SUFFIXES = {LinkSuffixSpan.SUFFIX_ORIGINAL_POSTER,
+			LinkSuffixSpan.SUFFIX_DIFFERENT_THREAD, LinkSuffixSpan.SUFFIX_USER_POST};
+
+	private SpannedSerial() {}
+
+	private static int getType(Object span) {
+		Class<?> spanClass = span.getClass();
+		if (spanClass == TabulationSpan.class) {
+			return Type.TABULATION;
+		} else if (spanClass == MediumSpan.class) {
+			return Type.MEDIUM;
+		} else if (spanClass == ItalicSpan.class) {
+			return Type.ITALIC;
+		} else if (spanClass == ScriptSpan.class) {
+			return ((ScriptSpan) span).isSuperscript() ? Type.SUPERSCRIPT : Type.SUBSCRIPT;
+		} else if (spanClass == QuoteSpan.class) {
+			return Type.QUOTE;
+		} else if (spanClass == UnderlyingSpoilerSpan.class) {
+			return Type.UNDERLYING_SPOILER;
+		} else if (spanClass == UnderlineSpan.class) {
+			return Type.UNDERLINE;
+		} else if (spanClass == OverlineSpan.class) {
+			return Type.OVERLINE;
+		} else if (spanClass == StrikethroughSpan.class) {
+			return Type.STRIKE;
+		} else if (spanClass == MonospaceSpan.class) {
+			return ((MonospaceSpan) span).isAsciiArt() ? Type.ASCII_ART : Type.CODE;
+		} else if (spanClass == HeadingSpan.class) {
+			return Type.HEADING;
+		} else if (spanClass == LinkSpan.class) {
+			return Type.LINK;
+		} else if (spanClass == GainedColorSpan.class) {
+			return Type.COLOR;
+		} else if (spanClass == LinkSuffixSpan.class) {
+			return Type.LINK_SUFFIX;
+		} else if (spanClass == SpoilerSpan.class) {
+			return Type.SPOILER;
+		} else {
+			return 0;
+		}
+	}
+
+	private static void writePostNumber(CompactSerial.Writer writer, PostNumber postNumber) throws IOException {
+		if (postNumber != null) {
+			writer.writeVarInt(postNumber.major + 1);
+			writer.writeVarInt(postNumber.minor);
+		} else {
+			writer.writeVarInt(0);
+		}
+	}
+
+	private static PostNumber readPostNumber(CompactSerial.Reader reader) throws ParseException {
+		int major = reader.readVarInt();
+		return major > 0 ? new PostNumber(major - 1, reader.readVarInt()) : null;
+	}
+
+	// Returns null if text contains spans which can't be stored
+	public static byte[] encode(CharSequence text) {
+		Object[] spans = text instanceof Spanned ? ((Spanned) text).getSpans(0, text.length(), Object.class) : null;
+		ByteArrayOutputStream output = new ByteArrayOutputStream(text.length() + 16);
+		CompactSerial.Writer writer = new CompactSerial.Writer(output);
+		try {
+			writer.writeString(text.toString());
+			writer.writeVarInt(spans != null ? spans.length : 0);
+			if (spans != null) {
+				Spanned spanned = (Spanned) text;
+				for (Object span : spans) {
+					int type = getType(span);
+					if (type == 0) {
+						return null;
+					}
+					writer.writeByte(type);
+					int start = spanned.getSpanStart(span);
+					writer.writeVarInt(start);
+					writer.writeVarInt(spanned.getSpanEnd(span) - start);
+					writer.writeVarInt(spanned.getSpanFlags(span));
+					switch (type) {
+						case Type.LINK: {
+							LinkSpan linkSpan = (LinkSpan) span;
+							writer.writeString(linkSpan.uriString);
+							writePostNumber(writer, linkSpan.postNumber);
+							break;
+						}
+						case Type.COLOR: {
+							writer.writeVarInt(((GainedColorSpan) span).getForegroundColor());
+							break;
+						}
+						case Type.LINK_SUFFIX: {
+							LinkSuffixSpan linkSuffixSpan = (LinkSuffixSpan) span;
+							int suffix = 0;
+							for (int linkSuffix : LINK_SUFFIXES) {
+								if (linkSuffixSpan.isSuffixPresent(linkSuffix)) {
+									suffix |= linkSuffix;
+								}
+							}
+							writer.writeVarInt(suffix);
+							writePostNumber(writer, linkSuffixSpan.getPostNumber());
+							break;
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return output.toByteArray();
+	}
+
+	public static CharSequence decode(byte[] data) throws ParseException {
+		CompactSerial.Reader reader = new CompactSerial.Reader(data, 0);
+		String string = reader.readString();
+		int count = reader.readVarInt();
+		if (count == 0) {
+			return string;
+		}
+		SpannableString spannable = new SpannableString(string);
+		for (int i = 0; i < count; i++) {
+			int type = reader.readByte();
+			int start = reader.readVarInt();
+			int end = start + reader.readVarInt();
+			int flags = reader.readVarInt();
+			if (end > string.length() || end < start) {
+				throw new ParseException("Invalid span bounds");
+			}
+			Object span;
+			switch (type) {
+				case Type.TABULATION: {
+					span = new TabulationSpan();
+					break;
+				}
+				case Type.MEDIUM: {
+					span = new MediumSpan();
+					break;
+				}
+				case Type.ITALIC: {
+					span = new ItalicSpan();
+					break;
+				}
+				case Type.SUBSCRIPT:
+				case Type.SUPERSCRIPT: {
+					span = new ScriptSpan(type == Type.SUPERSCRIPT);
+					break;
+				}
+				case Type.QUOTE: {
+					span = new QuoteSpan();
+					break;
+				}
+				case Type.UNDERLYING_SPOILER: {
+					span = new UnderlyingSpoilerSpan();
+					break;
+				}
+				case Type.UNDERLINE: {
+					span = new UnderlineSpan();
+					break;
+				}
+				case Type.OVERLINE: {
+					@SuppressWarnings("InstantiationOfUtilityClass")
+					OverlineSpan result = new OverlineSpan();
+					span = result;
+					break;
+				}
+				case Type.STRIKE: {
+					span = new StrikethroughSpan();
+					break;
+				}
+				case Type.CODE:
+				case Type.ASCII_ART: {
+					span = new MonospaceSpan(type == Type.ASCII_ART);
+					break;
+				}
+				case Type.HEADING: {
+					span = new HeadingSpan();
+					break;
+				}
+				case Type.LINK: {
+					String uriString = reader.readString();
+					span = new LinkSpan(uriString, readPostNumber(reader));
+					break;
+				}
+				case Type.COLOR: {
+					span = new GainedColorSpan(reader.readVarInt());
+					break;
+				}
+				case Type.LINK_SUFFIX: {
+					int suffix = reader.readVarInt();
+					span = new LinkSuffixSpan(suffix, readPostNumber(reader));
+					break;
+				}
+				case Type.SPOILER: {
+					span = new SpoilerSpan();
+					break;
+				}
+				default: {
+					throw new ParseException("Unknown span type");
+				}
+			}
+			spannable.setSpan(span, start, end, flags);
+		}
+		return spannable;
+	}
+}
@@ -17,6 +17,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import chan.content.Chan;
 import chan.util.CommonUtils;
 import com.mishiranu.dashchan.R;
+import com.mishiranu.dashchan.content.MainApplication;
 import com.mishiranu.dashchan.content.HidePerformer;
 import com.mishiranu.dashchan.content.model.AttachmentItem;
 import com.mishiranu.dashchan.content.model.GalleryItem;
@@ -27,6 +28,7 @@ import com.mishiranu.dashchan.ui.navigator.manager.ViewUnit;
 import com.mishiranu.dashchan.ui.posting.Replyable;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
 import com.mishiranu.dashchan.util.ListViewUtils;
+import com.mishiranu.dashchan.util.LruCache;
 import com.mishiranu.dashchan.util.ResourceUtils;
 import com.mishiranu.dashchan.widget.ClickableToast;
 import com.mishiranu.dashchan.widget.CommentTextView;
@@ -60,6 +62,11 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
 	private static final String PAYLOAD_INVALIDATE_COMMENT = "invalidateComment";
 
+	// Parse comments only around the visible position, keep parsed comments for a limited number of posts
+	private static final int PRELOAD_WINDOW = 50;
+	private static final int PARSED_COMMENTS_LOW_RAM = 150;
+	private static final int PARSED_COMMENTS = 500;
+
 	private final UiManager uiManager;
 	private final UiManager.ConfigurationSet configurationSet;
 	private final UiManager.DemandSet demandSet = new UiManager.DemandSet();
@@ -69,7 +76,10 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 	private final ArrayList<PostNumber> postNumbers = new ArrayList<>();
 	private final Map<PostNumber, PostItem> postItemsMap;
 	private final HashSet<PostNumber> selected = new HashSet<>();
+	private final LruCache<PostNumber, PostItem> parsedComments = new LruCache<>(MainApplication.getInstance()
+			.isLowRam() ? PARSED_COMMENTS_LOW_RAM : PARSED_COMMENTS, (postNumber, postItem) -> postItem.releaseComment());
 
+	private PostNumber preloadPostNumber;
 	private int bumpLimitOrdinalIndex = PostItem.ORDINAL_INDEX_NONE;
 	private boolean selection = false;
 
@@ -91,6 +101,7 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 				gallerySet.setThreadTitle(postItem.getSubjectOrComment());
 			}
 			gallerySet.put(postItem.getPostNumber(), postItem.getAttachmentItems());
+			retainParsedComment(postItem);
 		}
 	}
 
@@ -142,6 +153,7 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 				demandSet.lastInList = position == getItemCount() - 1;
 				if (payloads.isEmpty() || payloads.contains(SimpleViewHolder.EMPTY_PAYLOAD)) {
 					uiManager.view().bindPostView(holder, postItem, configurationSet, demandSet);
+					retainParsedComment(postItem);
 				} else {
 					if (payloads.contains(PAYLOAD_INVALIDATE_COMMENT)) {
 						uiManager.view().bindPostViewInvalidateComment(holder);
@@ -261,6 +273,8 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
 		postItemsMap.putAll(changed);
 		postItemsMap.keySet().removeAll(removed);
+		parsedComments.keySet().removeAll(changed.keySet());
+		parsedComments.keySet().removeAll(removed);
 		postNumbers.clear();
 		postNumbers.addAll(postItemsMap.keySet());
 		Collections.sort(postNumbers);
@@ -270,6 +284,7 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 				gallerySet.setThreadTitle(postItem.getSubjectOrComment());
 			}
 			gallerySet.put(postItem.getPostNumber(), postItem.getAttachmentItems());
+			retainParsedComment(postItem);
 			for (PostNumber referenceTo : postItem.getReferencesTo()) {
 				PostItem referenced = postItemsMap.get(referenceTo);
 				if (referenced != null) {
@@ -295,7 +310,8 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 		}
 
 		notifyDataSetChanged();
-		preloadPosts(0);
+		int preloadPosition = preloadPostNumber != null ? positionOfPostNumber(preloadPostNumber) : -1;
+		preloadPosts(Math.max(preloadPosition, 0));
 	}
 
 	public void invalidateComment(int position) {
@@ -323,6 +339,7 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 					}
 				}
 				gallerySet.remove(postItem.getPostNumber());
+				parsedComments.remove(postItem.getPostNumber());
 				iterator.remove();
 			}
 		}
@@ -389,11 +406,19 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 		preloadHandler.removeMessages(0);
 	}
 
+	private void retainParsedComment(PostItem postItem) {
+		PostNumber postNumber = postItem.getPostNumber();
+		if (postItem.isCommentParsed() && parsedComments.get(postNumber) != postItem) {
+			parsedComments.put(postNumber, postItem);
+		}
+	}
+
 	private static class PreloadIterator implements Iterator<PostItem> {
 		private final Iterator<PostItem> ascending;
 		private final Iterator<PostItem> descending;
 
 		private boolean lastAscending;
+		private int remaining = 2 * PRELOAD_WINDOW;
 
 		public PreloadIterator(Iterator<PostItem> ascending, Iterator<PostItem> descending) {
 			this.ascending = ascending;
@@ -402,11 +427,12 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
 		@Override
 		public boolean hasNext() {
-			return ascending.hasNext() || descending.hasNext();
+			return remaining > 0 && (ascending.hasNext() || descending.hasNext());
 		}
 
 		@Override
 		public PostItem next() {
+			remaining--;
 			if (lastAscending) {
 				lastAscending = false;
 				return (descending.hasNext() ? descending : ascending).next();
@@ -432,6 +458,7 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 	public void preloadPosts(int from) {
 		if (from >= 0 && from < getItemCount()) {
 			cancelPreloading();
+			preloadPostNumber = postNumbers.get(from);
 			// Preload to both sides
 			Iterator<PostItem> ascending = new PostsIterator(true, from);
 			Iterator<PostItem> descending = new PostsIterator(false, from);
@@ -452,6 +479,7 @@ public class PostsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 				PostItem postItem = iterator.next();
 				configurationSet.postStateProvider.isHiddenResolve(postItem);
 				postItem.getComment(chan);
+				retainParsedComment(postItem);
 			}
 			if (iterator.hasNext()) {
 				msg.getTarget().obtainMessage(0, 0, 0, iterator).sendToTarget();
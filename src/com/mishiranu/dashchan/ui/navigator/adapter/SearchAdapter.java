@@ -124,9 +124,19 @@ public class SearchAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 		gallerySet.clear();
 		if (postItems.size() > 0) {
 			if (groupMode) {
+				boolean multipleBoards = false;
+				String boardName = postItems.get(0).getBoardName();
+				for (PostItem postItem : postItems) {
+					if (!CommonUtils.equals(boardName, postItem.getBoardName())) {
+						multipleBoards = true;
+						break;
+					}
+				}
 				LinkedHashMap<String, ArrayList<PostItem>> map = new LinkedHashMap<>();
 				for (PostItem postItem : postItems) {
-					String threadNumber = postItem.getThreadNumber();
+					// Threads of different boards may have the same number
+					String threadNumber = multipleBoards ? "/" + postItem.getBoardName() + "/" +
+							postItem.getThreadNumber() : postItem.getThreadNumber();
 					ArrayList<PostItem> postItems = map.get(threadNumber);
 					if (postItems == null) {
 						postItems = new ArrayList<>();
@@ -134,6 +134,10 @@ public class ThreadsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 		return postItems.isEmpty();
 	}
 
+	public List<PostItem> getRealItems() {
+		return Collections.unmodifiableList(postItems);
+	}
+
 	@Override
 	public int getItemViewType(int position) {
 		PostItem postItem = getItem(position);
@@ -38,9 +38,11 @@ import chan.util.StringUtils;
 import com.mishiranu.dashchan.C;
 import com.mishiranu.dashchan.R;
 import com.mishiranu.dashchan.content.HidePerformer;
+import com.mishiranu.dashchan.content.PostsSearchIndex;
 import com.mishiranu.dashchan.content.Preferences;
 import com.mishiranu.dashchan.content.WatcherNotifications;
 import com.mishiranu.dashchan.content.async.CallbackProxy;
+import com.mishiranu.dashchan.content.async.ExecutorTask;
 import com.mishiranu.dashchan.content.async.ExtractPostsTask;
 import com.mishiranu.dashchan.content.async.TaskViewModel;
 import com.mishiranu.dashchan.content.database.CommonDatabase;
@@ -86,6 +88,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 public class PostsPage extends ListPage implements PostsAdapter.Callback, FavoritesStorage.Observer,
@@ -100,6 +103,8 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		public final HashMap<PostNumber, PostItem> postItems = new HashMap<>();
 		public final PostItem.HideState.Map<PostNumber> hiddenPosts = new PostItem.HideState.Map<>();
 		public final HashSet<PostNumber> userPosts = new HashSet<>();
+		public final HashMap<PostNumber, PagesDatabase.HideVerdict> hideVerdicts = new HashMap<>();
+		public final HashMap<PostNumber, PagesDatabase.HideVerdict> pendingHideVerdicts = new HashMap<>();
 		public byte[] threadExtra;
 		public ErrorItem errorItem;
 
@@ -109,6 +114,7 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		public List<PostNumber> searchPostNumbers = Collections.emptyList();
 		public boolean searching = false;
 		public int searchLastIndex;
+		public PostsSearchIndex searchIndex;
 
 		public DialogUnit.StackInstance.State dialogsState;
 
@@ -329,6 +335,27 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		}
 	};
 
+	private final HidePerformer.VerdictStore verdictStore = new HidePerformer.VerdictStore() {
+		@Override
+		public byte[] getPostHash(PostNumber postNumber) {
+			RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
+			return retainableExtra.cache != null ? retainableExtra.cache.getHash(postNumber) : null;
+		}
+
+		@Override
+		public PagesDatabase.HideVerdict getHideVerdict(PostNumber postNumber) {
+			RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
+			return retainableExtra.hideVerdicts.get(postNumber);
+		}
+
+		@Override
+		public void putHideVerdict(PostNumber postNumber, PagesDatabase.HideVerdict hideVerdict) {
+			RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
+			retainableExtra.hideVerdicts.put(postNumber, hideVerdict);
+			retainableExtra.pendingHideVerdicts.put(postNumber, hideVerdict);
+		}
+	};
+
 	private PostsAdapter getAdapter() {
 		return (PostsAdapter) getRecyclerView().getAdapter();
 	}
@@ -365,6 +392,7 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		uiManager.observable().register(this);
 		FavoritesStorage.getInstance().getObservable().register(this);
 		hidePerformer.setPostsProvider(adapter);
+		hidePerformer.setVerdictStore(verdictStore);
 
 		Context toolbarContext = getToolbarContext();
 		LinearLayout searchControlLayout = new LinearLayout(toolbarContext);
@@ -461,6 +489,8 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 				if (!retainableExtra.postItems.isEmpty()) {
 					throw new IllegalStateException();
 				}
+				retainableExtra.searchIndex = null;
+				retainableExtra.hideVerdicts.clear();
 				retainableExtra.initialExtract = true;
 				retainableExtra.searching = false;
 			}
@@ -525,6 +555,23 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		}
 		FavoritesStorage.getInstance().getObservable().unregister(this);
 		setCustomSearchView(null);
+		storeHideVerdicts();
+		ExtractPostsTask.storePendingComments(getChan(),
+				getRetainableExtra(RetainableExtra.FACTORY).postItems.values());
+	}
+
+	private void storeHideVerdicts() {
+		RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
+		if (!retainableExtra.pendingHideVerdicts.isEmpty()) {
+			HashMap<PostNumber, PagesDatabase.HideVerdict> hideVerdicts =
+					new HashMap<>(retainableExtra.pendingHideVerdicts);
+			retainableExtra.pendingHideVerdicts.clear();
+			Page page = getPage();
+			PagesDatabase.ThreadKey threadKey = new PagesDatabase.ThreadKey(page.chanName,
+					page.boardName, page.threadNumber);
+			ConcurrentUtils.PARALLEL_EXECUTOR.execute(() -> PagesDatabase.getInstance()
+					.putHideVerdicts(threadKey, hideVerdicts));
+		}
 	}
 
 	@Override
@@ -565,6 +612,8 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 				parcelableExtra.selectedPosts.add(postItem.getPostNumber());
 			}
 		}
+		storeHideVerdicts();
+		ExtractPostsTask.storePendingComments(getChan(), retainableExtra.postItems.values());
 	}
 
 	@Override
@@ -1029,7 +1078,11 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		if (searchWorker != null) {
 			searchWorker.cancel();
 		}
-		searchWorker = new SearchWorker(postStateProvider, getChan(), postItems, query,
+		RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
+		if (retainableExtra.searchIndex == null) {
+			retainableExtra.searchIndex = new PostsSearchIndex(getChan());
+		}
+		searchWorker = new SearchWorker(postStateProvider, retainableExtra.searchIndex, postItems, query,
 				lastEditedPostNumbers, lastNewPostNumbers, this::onSearchResult);
 		setCustomSearchView(searchProcessView);
 		return false;
@@ -1305,6 +1358,14 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 			ConcurrentUtils.HANDLER.removeCallbacks(storePositionRunnable);
 			ConcurrentUtils.HANDLER.postDelayed(storePositionRunnable, 2000L);
 		}
+
+		@Override
+		public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+			if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+				getAdapter().preloadPosts(((LinearLayoutManager) recyclerView.getLayoutManager())
+						.findFirstVisibleItemPosition());
+			}
+		}
 	};
 
 	private Pair<PostNumber, Integer> transformListPositionToPair(ListPosition listPosition) {
@@ -1519,6 +1580,11 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 			if (retainableExtra.cacheState == null) {
 				retainableExtra.cacheState = retainableExtra.cache.state;
 			}
+			for (Map.Entry<PostNumber, PagesDatabase.HideVerdict> entry : result.hideVerdicts.entrySet()) {
+				if (!retainableExtra.hideVerdicts.containsKey(entry.getKey())) {
+					retainableExtra.hideVerdicts.put(entry.getKey(), entry.getValue());
+				}
+			}
 			if (result.cacheChanged) {
 				retainableExtra.archivedThreadUri = result.archivedThreadUri;
 				retainableExtra.uniquePosters = result.uniquePosters;
@@ -1533,6 +1599,9 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 					keepPositionPair = transformListPositionToPair(listPosition);
 				}
 				adapter.insertItems(result.postItems, result.removedPosts);
+				if (retainableExtra.searchIndex != null) {
+					retainableExtra.searchIndex.update(result.postItems.values(), result.removedPosts);
+				}
 				updateAdapters = true;
 			}
 			if (result.flags != null) {
@@ -1854,13 +1923,13 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		}
 	}
 
-	private static class SearchWorker implements Runnable {
+	// Posts are matched with the search index in background, flags and hidden state are checked here
+	private static class SearchWorker implements Runnable, PostsSearchIndex.Callback {
 		public interface Callback {
 			void onResult(List<PostNumber> foundPostNumbers, Set<String> queries);
 		}
 
 		private final UiManager.PostStateProvider postStateProvider;
-		private final Chan chan;
 		private final List<PostItem> postItems;
 		private final Set<PostNumber> editedPostNumbers;
 		private final Set<PostNumber> newPostNumbers;
@@ -1868,15 +1937,16 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 
 		private final SearchHelper helper;
 		private final Set<String> queries;
-		private final HashSet<String> fileNames = new HashSet<>();
 		private final ArrayList<PostNumber> foundPostNumbers = new ArrayList<>();
 
+		private ExecutorTask<?, ?> queryTask;
+		private Set<PostNumber> matchedPostNumbers;
 		private int start = 0;
 
-		public SearchWorker(UiManager.PostStateProvider postStateProvider, Chan chan, List<PostItem> postItems,
-				String query, Set<PostNumber> editedPostNumbers, Set<PostNumber> newPostNumbers, Callback callback) {
+		public SearchWorker(UiManager.PostStateProvider postStateProvider, PostsSearchIndex searchIndex,
+				List<PostItem> postItems, String query, Set<PostNumber> editedPostNumbers,
+				Set<PostNumber> newPostNumbers, Callback callback) {
 			this.postStateProvider = postStateProvider;
-			this.chan = chan;
 			this.postItems = postItems;
 			this.newPostNumbers = newPostNumbers;
 			this.editedPostNumbers = editedPostNumbers;
@@ -1884,15 +1954,20 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 			helper = new SearchHelper(Preferences.isAdvancedSearch());
 			helper.setFlags("m", "r", "a", "d", "e", "n", "op");
 			queries = helper.handleQueries(Locale.getDefault(), query);
-			ConcurrentUtils.HANDLER.post(this);
+			queryTask = searchIndex.query(postItems, helper.getIncluded(), helper.getExcluded(), this);
+		}
+
+		@Override
+		public void onSearchIndexResult(HashSet<PostNumber> postNumbers) {
+			queryTask = null;
+			matchedPostNumbers = postNumbers;
+			run();
 		}
 
 		@Override
 		public void run() {
 			long time = SystemClock.elapsedRealtime();
-			Locale locale = Locale.getDefault();
-			HashSet<String> fileNames = this.fileNames;
-			OUTER: while (true) {
+			while (true) {
 				if (SystemClock.elapsedRealtime() - time >= ConcurrentUtils.HALF_FRAME_TIME_MS) {
 					ConcurrentUtils.HANDLER.post(this);
 					break;
@@ -1904,9 +1979,8 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 					break;
 				}
 				PostItem postItem = postItems.get(index);
-				if (!postStateProvider.isHiddenResolve(postItem)) {
-					PostNumber postNumber = postItem.getPostNumber();
-					String comment = postItem.getComment(chan).toString().toLowerCase(locale);
+				PostNumber postNumber = postItem.getPostNumber();
+				if (matchedPostNumbers.contains(postNumber) && !postStateProvider.isHiddenResolve(postItem)) {
 					boolean userPost = postStateProvider.isUserPost(postNumber);
 					boolean reply = false;
 					for (PostNumber referenceTo : postItem.getReferencesTo()) {
@@ -1920,56 +1994,8 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 					boolean edited = editedPostNumbers.contains(postNumber);
 					boolean newPost = newPostNumbers.contains(postNumber);
 					boolean originalPoster = postItem.isOriginalPoster();
-					if (!helper.checkFlags("m", userPost, "r", reply, "a", hasAttachments, "d", deleted, "e", edited,
+					if (helper.checkFlags("m", userPost, "r", reply, "a", hasAttachments, "d", deleted, "e", edited,
 							"n", newPost, "op", originalPoster)) {
-						continue;
-					}
-					for (String lowQuery : helper.getExcluded()) {
-						if (comment.contains(lowQuery)) {
-							continue OUTER;
-						}
-					}
-					String subject = postItem.getSubject().toLowerCase(locale);
-					String name = postItem.getFullName(chan).toString().toLowerCase(locale);
-					fileNames.clear();
-					List<AttachmentItem> attachmentItems = postItem.getAttachmentItems();
-					if (attachmentItems != null) {
-						for (AttachmentItem attachmentItem : attachmentItems) {
-							String fileName = attachmentItem.getFileName(chan);
-							if (!StringUtils.isEmpty(fileName)) {
-								fileNames.add(fileName.toLowerCase(locale));
-								String originalName = attachmentItem.getOriginalName();
-								if (!StringUtils.isEmpty(originalName)) {
-									fileNames.add(originalName.toLowerCase(locale));
-								}
-							}
-						}
-					}
-					boolean found = false;
-					if (helper.hasIncluded()) {
-						QUERIES: for (String lowQuery : helper.getIncluded()) {
-							if (comment.contains(lowQuery)) {
-								found = true;
-								break;
-							} else if (subject.contains(lowQuery)) {
-								found = true;
-								break;
-							} else if (name.contains(lowQuery)) {
-								found = true;
-								break;
-							} else {
-								for (String fileName : fileNames) {
-									if (fileName.contains(lowQuery)) {
-										found = true;
-										break QUERIES;
-									}
-								}
-							}
-						}
-					} else {
-						found = true;
-					}
-					if (found) {
 						foundPostNumbers.add(postNumber);
 					}
 				}
@@ -1977,6 +2003,10 @@ public class PostsPage extends ListPage implements PostsAdapter.Callback, Favori
 		}
 
 		public void cancel() {
+			if (queryTask != null) {
+				queryTask.cancel();
+				queryTask = null;
+			}
 			ConcurrentUtils.HANDLER.removeCallbacks(this);
 		}
 	}
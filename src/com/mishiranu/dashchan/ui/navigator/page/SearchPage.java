@@ -6,10 +6,13 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import chan.content.Chan;
 import chan.content.ChanConfiguration;
 import com.mishiranu.dashchan.R;
+import com.mishiranu.dashchan.content.Preferences;
 import com.mishiranu.dashchan.content.async.ReadSearchTask;
 import com.mishiranu.dashchan.content.async.TaskViewModel;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
 import com.mishiranu.dashchan.content.model.AttachmentItem;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
@@ -54,6 +57,8 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 		public static final ExtraFactory<ParcelableExtra> FACTORY = ParcelableExtra::new;
 
 		public boolean groupMode = false;
+		public boolean local = false;
+		public boolean allBoards = false;
 
 		@Override
 		public int describeContents() {
@@ -63,6 +68,8 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 		@Override
 		public void writeToParcel(Parcel dest, int flags) {
 			dest.writeByte((byte) (groupMode ? 1 : 0));
+			dest.writeByte((byte) (local ? 1 : 0));
+			dest.writeByte((byte) (allBoards ? 1 : 0));
 		}
 
 		public static final Creator<ParcelableExtra> CREATOR = new Creator<ParcelableExtra>() {
@@ -70,6 +77,8 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 			public ParcelableExtra createFromParcel(Parcel in) {
 				ParcelableExtra parcelableExtra = new ParcelableExtra();
 				parcelableExtra.groupMode = in.readByte() != 0;
+				parcelableExtra.local = in.readByte() != 0;
+				parcelableExtra.allBoards = in.readByte() != 0;
 				return parcelableExtra;
 			}
 
@@ -111,6 +120,10 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 		ReadViewModel readViewModel = getViewModel(ReadViewModel.class);
 		if (initRequest.shouldLoad) {
 			parcelableExtra.groupMode = false;
+			// Search mode is kept across queries, cached threads are always searched if board has no search
+			parcelableExtra.local = Preferences.isSearchCachedThreads() ||
+					!getChan().configuration.safe().obtainBoard(page.boardName).allowSearch;
+			parcelableExtra.allBoards = Preferences.isSearchAllBoards();
 		}
 		adapter.setGroupMode(parcelableExtra.groupMode);
 		ListPosition listPosition = takeListPosition();
@@ -185,8 +198,7 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 
 	@Override
 	public void onItemClick(PostItem postItem) {
-		Page page = getPage();
-		getUiManager().navigator().navigatePosts(page.chanName, page.boardName,
+		getUiManager().navigator().navigatePosts(getPage().chanName, postItem.getBoardName(),
 				postItem.getThreadNumber(), postItem.getPostNumber(), null);
 	}
 
@@ -205,16 +217,27 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 				.setShowAsAction(MenuItem.SHOW_AS_ACTION_ALWAYS | MenuItem.SHOW_AS_ACTION_COLLAPSE_ACTION_VIEW);
 		menu.add(0, R.id.menu_refresh, 0, R.string.refresh);
 		menu.add(0, R.id.menu_group, 0, R.string.group).setCheckable(true);
+		menu.add(0, R.id.menu_cached_threads, 0, R.string.cached_threads).setCheckable(true);
+		menu.add(0, R.id.menu_all_boards, 0, R.string.all_boards).setCheckable(true);
 		menu.addSubMenu(0, R.id.menu_appearance, 0, R.string.appearance);
 	}
 
 	@Override
 	public void onPrepareOptionsMenu(Menu menu) {
-		ChanConfiguration.Board board = getChan().configuration.safe().obtainBoard(getPage().boardName);
-		this.allowSearch = board.allowSearch;
-		menu.findItem(R.id.menu_search).setVisible(board.allowSearch);
-		menu.findItem(R.id.menu_refresh).setVisible(board.allowSearch);
+		Chan chan = getChan();
+		ChanConfiguration.Board board = chan.configuration.safe().obtainBoard(getPage().boardName);
+		boolean searchSupported = PagesDatabase.getInstance().isSearchSupported();
+		ParcelableExtra parcelableExtra = getParcelableExtra(ParcelableExtra.FACTORY);
+		boolean local = parcelableExtra.local;
+		boolean singleBoardMode = chan.configuration.getOption(ChanConfiguration.OPTION_SINGLE_BOARD_MODE);
+		this.allowSearch = board.allowSearch || local && searchSupported;
+		menu.findItem(R.id.menu_search).setVisible(allowSearch);
+		menu.findItem(R.id.menu_refresh).setVisible(board.allowSearch || local);
 		menu.findItem(R.id.menu_group).setChecked(getAdapter().isGroupMode());
+		menu.findItem(R.id.menu_cached_threads).setChecked(local)
+				.setVisible(board.allowSearch && searchSupported);
+		menu.findItem(R.id.menu_all_boards).setChecked(parcelableExtra.allBoards)
+				.setVisible(local && searchSupported && !singleBoardMode);
 	}
 
 	@Override
@@ -231,10 +254,33 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 				getParcelableExtra(ParcelableExtra.FACTORY).groupMode = groupMode;
 				return true;
 			}
+			case R.id.menu_cached_threads: {
+				ParcelableExtra parcelableExtra = getParcelableExtra(ParcelableExtra.FACTORY);
+				parcelableExtra.local = !parcelableExtra.local;
+				Preferences.setSearchCachedThreads(parcelableExtra.local);
+				resetSearch();
+				return true;
+			}
+			case R.id.menu_all_boards: {
+				ParcelableExtra parcelableExtra = getParcelableExtra(ParcelableExtra.FACTORY);
+				parcelableExtra.allBoards = !parcelableExtra.allBoards;
+				Preferences.setSearchAllBoards(parcelableExtra.allBoards);
+				resetSearch();
+				return true;
+			}
 		}
 		return false;
 	}
 
+	private void resetSearch() {
+		RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
+		retainableExtra.postItems.clear();
+		retainableExtra.pageNumber = 0;
+		getAdapter().setItems(null);
+		refreshSearch(false, false);
+		updateOptionsMenu();
+	}
+
 	@Override
 	public void onAppearanceOptionChanged(int what) {
 		switch (what) {
@@ -274,8 +320,11 @@ public class SearchPage extends ListPage implements SearchAdapter.Callback,
 			}
 		}
 		ReadViewModel readViewModel = getViewModel(ReadViewModel.class);
+		ParcelableExtra parcelableExtra = getParcelableExtra(ParcelableExtra.FACTORY);
+		boolean local = parcelableExtra.local;
+		String boardName = local && parcelableExtra.allBoards ? null : page.boardName;
 		ReadSearchTask task = new ReadSearchTask(readViewModel.callback,
-				getChan(), page.boardName, page.searchQuery, pageNumber);
+				getChan(), boardName, page.searchQuery, pageNumber, local);
 		task.execute(ConcurrentUtils.PARALLEL_EXECUTOR);
 		readViewModel.attach(task);
 		PaddedRecyclerView recyclerView = getRecyclerView();
@@ -26,6 +26,7 @@ import com.mishiranu.dashchan.content.Preferences;
 import com.mishiranu.dashchan.content.async.ReadThreadsTask;
 import com.mishiranu.dashchan.content.async.TaskViewModel;
 import com.mishiranu.dashchan.content.database.CommonDatabase;
+import com.mishiranu.dashchan.content.database.PagesDatabase;
 import com.mishiranu.dashchan.content.model.AttachmentItem;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
@@ -132,7 +133,8 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 		uiManager.observable().register(this);
 		layoutManager.setSpanCount(adapter.setThreadsView(Preferences.getThreadsView()));
 		adapter.setCatalogSort(Preferences.getCatalogSort());
-		adapter.applyFilter(getInitSearch().currentQuery);
+		filterQuery = getInitSearch().currentQuery;
+		adapter.applyFilter(filterQuery);
 		FavoritesStorage.getInstance().getObservable().register(this);
 
 		InitRequest initRequest = getInitRequest();
@@ -286,11 +288,24 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 					threadsPage.setThreadHideState(postItem, PostItem.HideState.HIDDEN);
 					threadsPage.getAdapter().notifyDataSetChanged();
 				});
+				dialogMenu.add(R.string.hide_similar, () -> threadsPage.hideSimilarThreads(postItem));
 			}
 			return dialogMenu.create();
 		});
 	}
 
+	private void hideSimilarThreads(PostItem postItem) {
+		ThreadsAdapter adapter = getAdapter();
+		List<PostItem> postItems = hidePerformer.findSimilarPosts(getChan(), postItem, adapter.getRealItems());
+		setThreadHideState(postItem, PostItem.HideState.HIDDEN);
+		for (PostItem similarPostItem : postItems) {
+			if (!similarPostItem.getHideState().hidden) {
+				setThreadHideState(similarPostItem, PostItem.HideState.HIDDEN);
+			}
+		}
+		adapter.notifyDataSetChanged();
+	}
+
 	private void setThreadHideState(PostItem postItem, PostItem.HideState hideState) {
 		RetainableExtra retainableExtra = getRetainableExtra(RetainableExtra.FACTORY);
 		retainableExtra.hiddenThreads.set(postItem.getThreadNumber(), hideState);
@@ -300,6 +315,7 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 	}
 
 	private boolean allowSearch = false;
+	private String filterQuery;
 
 	@Override
 	public void onCreateOptionsMenu(Menu menu) {
@@ -308,6 +324,7 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 				.setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
 		menu.add(0, R.id.menu_search, 0, R.string.search)
 				.setShowAsAction(MenuItem.SHOW_AS_ACTION_COLLAPSE_ACTION_VIEW);
+		menu.add(0, R.id.menu_cached_threads, 0, R.string.search_in_cached_threads);
 		menu.add(0, R.id.menu_catalog, 0, R.string.catalog);
 		menu.add(0, R.id.menu_pages, 0, R.string.pages);
 		SubMenu sorting = menu.addSubMenu(0, R.id.menu_sorting, 0, R.string.sorting);
@@ -344,6 +361,9 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 		this.allowSearch = board.allowSearch;
 		boolean isCatalogOpen = retainableExtra.startPageNumber == PAGE_NUMBER_CATALOG;
 		menu.findItem(R.id.menu_search).setTitle(board.allowSearch ? R.string.search : R.string.filter);
+		// Boards without search can be searched in cached threads with the filter query
+		menu.findItem(R.id.menu_cached_threads).setVisible(!board.allowSearch &&
+				!StringUtils.isEmpty(filterQuery) && PagesDatabase.getInstance().isSearchSupported());
 		menu.findItem(R.id.menu_catalog).setVisible(board.allowCatalog && !isCatalogOpen);
 		menu.findItem(R.id.menu_pages).setVisible(board.allowCatalog && isCatalogOpen);
 		menu.findItem(R.id.menu_sorting).setVisible(board.allowCatalog && isCatalogOpen);
@@ -370,6 +390,10 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 				refreshThreads(RefreshPage.CURRENT);
 				return true;
 			}
+			case R.id.menu_cached_threads: {
+				getUiManager().navigator().navigateSearch(page.chanName, page.boardName, filterQuery);
+				return true;
+			}
 			case R.id.menu_catalog: {
 				loadThreadsPage(PAGE_NUMBER_CATALOG, false);
 				return true;
@@ -545,6 +569,11 @@ public class ThreadsPage extends ListPage implements ThreadsAdapter.Callback,
 	@Override
 	public void onSearchQueryChange(String query) {
 		getAdapter().applyFilter(query);
+		boolean updateMenu = !allowSearch && StringUtils.isEmpty(filterQuery) != StringUtils.isEmpty(query);
+		filterQuery = query;
+		if (updateMenu) {
+			updateOptionsMenu();
+		}
 	}
 
 	@Override
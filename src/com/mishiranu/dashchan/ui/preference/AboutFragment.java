@@ -47,6 +47,9 @@ public class AboutFragment extends PreferenceFragment implements FragmentHandler
 		addButton(R.string.statistics, 0)
 				.setOnClickListener(p -> ((FragmentHandler) requireActivity())
 						.pushFragment(new StatisticsFragment()));
+		addButton(R.string.network_statistics, 0)
+				.setOnClickListener(p -> ((FragmentHandler) requireActivity())
+						.pushFragment(new NetworkStatisticsFragment()));
 		addButton(R.string.backup_data, R.string.backup_data__summary)
 				.setOnClickListener(p -> new BackupDialog()
 						.show(getChildFragmentManager(), BackupDialog.class.getName()));
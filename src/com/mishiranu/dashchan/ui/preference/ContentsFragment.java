@@ -16,6 +16,7 @@ import com.mishiranu.dashchan.content.Preferences;
 import com.mishiranu.dashchan.content.async.ExecutorTask;
 import com.mishiranu.dashchan.content.async.TaskViewModel;
 import com.mishiranu.dashchan.content.database.PagesDatabase;
+import com.mishiranu.dashchan.content.service.WatcherJobService;
 import com.mishiranu.dashchan.content.storage.FavoritesStorage;
 import com.mishiranu.dashchan.ui.DrawerForm;
 import com.mishiranu.dashchan.ui.FragmentHandler;
@@ -70,8 +71,15 @@ public class ContentsFragment extends PreferenceFragment {
 				R.string.refresh_favorites, R.string.every_number_sec__format,
 				new Pair<>(Preferences.DISABLED_WATCHER_REFRESH_INTERVAL, R.string.disabled),
 				Preferences.MIN_WATCHER_REFRESH_INTERVAL, Preferences.MAX_WATCHER_REFRESH_INTERVAL,
-				Preferences.STEP_WATCHER_REFRESH_INTERVAL);
-		addCheck(true, Preferences.KEY_WATCHER_WIFI_ONLY, Preferences.DEFAULT_WATCHER_WIFI_ONLY, R.string.wifi_only, 0);
+				Preferences.STEP_WATCHER_REFRESH_INTERVAL)
+				.setOnAfterChangeListener(p -> WatcherJobService.configure(requireContext()));
+		addCheck(true, Preferences.KEY_WATCHER_WIFI_ONLY, Preferences.DEFAULT_WATCHER_WIFI_ONLY, R.string.wifi_only, 0)
+				.setOnAfterChangeListener(p -> WatcherJobService.configure(requireContext()));
+		if (WatcherJobService.isSupported()) {
+			addCheck(true, Preferences.KEY_WATCHER_BACKGROUND, Preferences.DEFAULT_WATCHER_BACKGROUND,
+					R.string.background_refresh, R.string.background_refresh__summary)
+					.setOnAfterChangeListener(p -> WatcherJobService.configure(requireContext()));
+		}
 		replyNotifications = addCheck(false, "reply_notifications", false,
 				R.string.reply_notifications, R.string.reply_notifications__format);
 		replyNotifications.setOnClickListener(p -> {
@@ -0,0 +1,119 @@
+package com.mishiranu.dashchan.ui.preference;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.Menu;
+import android.view.MenuItem;
+import chan.content.Chan;
+import chan.content.ChanManager;
+import chan.http.ConnectionStatistics;
+import chan.util.StringUtils;
+import com.mishiranu.dashchan.R;
+import com.mishiranu.dashchan.content.ImageLoader;
+import com.mishiranu.dashchan.content.Preferences;
+import com.mishiranu.dashchan.graphics.BitmapPool;
+import com.mishiranu.dashchan.ui.FragmentHandler;
+import com.mishiranu.dashchan.util.PostDateFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class NetworkStatisticsFragment extends BaseListFragment {
+	@Override
+	public void onActivityCreated(Bundle savedInstanceState) {
+		super.onActivityCreated(savedInstanceState);
+
+		ConnectionStatistics connectionStatistics = ConnectionStatistics.getInstance();
+		long startTime = System.currentTimeMillis() - SystemClock.elapsedRealtime() +
+				connectionStatistics.getStartTime();
+		((FragmentHandler) requireActivity()).setTitleSubtitle(getString(R.string.network_statistics),
+				getString(R.string.since_date__format, new PostDateFormatter(requireContext())
+						.formatDateTime(startTime)));
+
+		HashMap<String, ConnectionStatistics.Item> items = connectionStatistics.getItems();
+		ConnectionStatistics.Item total = ConnectionStatistics.getTotal(items);
+		ArrayList<Chan> chans = new ArrayList<>();
+		for (Chan chan : ChanManager.getInstance().getAvailableChans()) {
+			if (items.containsKey(chan.name)) {
+				chans.add(chan);
+			}
+		}
+
+		ArrayList<StatisticsFragment.Adapter.ListItem> listItems = new ArrayList<>();
+		listItems.add(new StatisticsFragment.Adapter.ListItem(null, getString(R.string.handshakes),
+				getString(R.string.reused), getString(R.string.handshake_time)));
+		listItems.add(createConnectionsListItem(getString(R.string.total), total));
+		for (Chan chan : chans) {
+			listItems.add(createConnectionsListItem(getTitle(chan), items.get(chan.name)));
+		}
+		listItems.add(new StatisticsFragment.Adapter.ListItem(null, getString(R.string.requests),
+				getString(R.string.received), getString(R.string.sent)));
+		listItems.add(createTrafficListItem(getString(R.string.total), total));
+		for (Chan chan : chans) {
+			listItems.add(createTrafficListItem(getTitle(chan), items.get(chan.name)));
+		}
+		ImageLoader.Statistics imageStatistics = ImageLoader.getInstance().getStatistics();
+		listItems.add(new StatisticsFragment.Adapter.ListItem(null, getString(R.string.hits),
+				getString(R.string.misses), getString(R.string.memory)));
+		listItems.add(createMemoryListItem(getString(R.string.thumbnails), imageStatistics.hits,
+				imageStatistics.misses, imageStatistics.size, imageStatistics.maxSize));
+		BitmapPool.Statistics poolStatistics = BitmapPool.getInstance().getStatistics();
+		listItems.add(createMemoryListItem(getString(R.string.bitmap_pool), poolStatistics.hits,
+				poolStatistics.misses, poolStatistics.size, poolStatistics.maxSize));
+		Preferences.WatcherBackgroundStatistics watcherStatistics = Preferences.getWatcherBackgroundStatistics();
+		if (watcherStatistics.runs > 0) {
+			listItems.add(new StatisticsFragment.Adapter.ListItem(null, getString(R.string.runs),
+					getString(R.string.threads), getString(R.string.radio_time)));
+			listItems.add(new StatisticsFragment.Adapter.ListItem(getString(R.string.background_refresh),
+					Integer.toString(watcherStatistics.runs), Integer.toString(watcherStatistics.threads),
+					getString(R.string.number_ms__format, watcherStatistics.getMeanRadioTime())));
+		}
+
+		getRecyclerView().setAdapter(new StatisticsFragment.Adapter(listItems));
+	}
+
+	private static String getTitle(Chan chan) {
+		String title = chan.configuration.getTitle();
+		return StringUtils.isEmpty(title) ? chan.name : title;
+	}
+
+	private StatisticsFragment.Adapter.ListItem createConnectionsListItem(String title,
+			ConnectionStatistics.Item item) {
+		return new StatisticsFragment.Adapter.ListItem(title, item.handshakes + " / " + item.resumedHandshakes,
+				Integer.toString(item.reusedConnections),
+				getString(R.string.number_ms__format, item.getMeanHandshakeTime()));
+	}
+
+	private static StatisticsFragment.Adapter.ListItem createTrafficListItem(String title,
+			ConnectionStatistics.Item item) {
+		return new StatisticsFragment.Adapter.ListItem(title, Integer.toString(item.secureRequests),
+				StringUtils.formatFileSize(item.bytesIn, true), StringUtils.formatFileSize(item.bytesOut, true));
+	}
+
+	private static StatisticsFragment.Adapter.ListItem createMemoryListItem(String title,
+			int hits, int misses, long size, long maxSize) {
+		int requests = hits + misses;
+		int hitRate = requests > 0 ? (int) (100L * hits / requests) : 0;
+		return new StatisticsFragment.Adapter.ListItem(title, hits + " (" + hitRate + "%)", Integer.toString(misses),
+				StringUtils.formatFileSize(size, true) + " / " + StringUtils.formatFileSize(maxSize, true));
+	}
+
+	@Override
+	public void onCreateOptionsMenu(Menu menu, boolean primary) {
+		menu.add(0, R.id.menu_clear, 0, R.string.clear)
+				.setIcon(((FragmentHandler) requireActivity()).getActionBarIcon(R.attr.iconActionDelete))
+				.setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+			case R.id.menu_clear: {
+				ConnectionStatistics.getInstance().clear();
+				Preferences.clearWatcherBackgroundStatistics();
+				((FragmentHandler) requireActivity()).removeFragment();
+				break;
+			}
+		}
+		return super.onOptionsItemSelected(item);
+	}
+}
@@ -100,7 +100,7 @@ public class StatisticsFragment extends BaseListFragment {
 		return super.onOptionsItemSelected(item);
 	}
 
-	private static class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> {
+	static class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> {
 		public static class ListItem {
 			public final String text1;
 			public final String text2;
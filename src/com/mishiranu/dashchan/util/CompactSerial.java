@@ -0,0 +1,187 @@
+package com.mishiranu.dashchan.util;
+
+import chan.text.ParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CompactSerial {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private CompactSerial() {}
+
+	public static class Writer {
+		private final OutputStream output;
+		private String lastPrefixedString = "";
+
+		public Writer(OutputStream output) {
+			this.output = output;
+		}
+
+		public void writeByte(int value) throws IOException {
+			output.write(value);
+		}
+
+		public void writeVarInt(int value) throws IOException {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		public void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7fL) != 0) {
+				output.write((int) (value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			output.write((int) value);
+		}
+
+		public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+			writeVarInt(length);
+			output.write(bytes, offset, length);
+		}
+
+		public void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(UTF_8);
+			writeBytes(bytes, 0, bytes.length);
+		}
+
+		// Writes only the part which differs from the previous prefixed string
+		public void writePrefixedString(String value) throws IOException {
+			String last = lastPrefixedString;
+			int count = Math.min(last.length(), value.length());
+			int prefix = 0;
+			while (prefix < count && last.charAt(prefix) == value.charAt(prefix)) {
+				prefix++;
+			}
+			if (prefix > 0 && Character.isHighSurrogate(value.charAt(prefix - 1))) {
+				prefix--;
+			}
+			writeVarInt(prefix);
+			writeString(value.substring(prefix));
+			lastPrefixedString = value;
+		}
+
+		public void writeDeflatedString(String value, int minLength) throws IOException {
+			byte[] bytes = value.getBytes(UTF_8);
+			if (bytes.length >= minLength) {
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+				try {
+					deflater.setInput(bytes);
+					deflater.finish();
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+					byte[] buffer = new byte[1024];
+					while (!deflater.finished() && compressed.size() < bytes.length) {
+						int count = deflater.deflate(buffer);
+						compressed.write(buffer, 0, count);
+					}
+					if (deflater.finished() && compressed.size() < bytes.length) {
+						writeVarInt(bytes.length);
+						writeBytes(compressed.toByteArray(), 0, compressed.size());
+						return;
+					}
+				} finally {
+					deflater.end();
+				}
+			}
+			writeVarInt(0);
+			writeBytes(bytes, 0, bytes.length);
+		}
+	}
+
+	public static class Reader {
+		private final byte[] input;
+		private int position;
+		private String lastPrefixedString = "";
+
+		public Reader(byte[] input, int position) {
+			this.input = input;
+			this.position = position;
+		}
+
+		private void require(int count) throws ParseException {
+			if (count < 0 || position + count > input.length) {
+				throw new ParseException("Unexpected end of data");
+			}
+		}
+
+		public int readByte() throws ParseException {
+			require(1);
+			return input[position++] & 0xff;
+		}
+
+		public int readVarInt() throws ParseException {
+			long value = readVarLong();
+			if ((value & ~0xffffffffL) != 0) {
+				throw new ParseException("Invalid integer");
+			}
+			return (int) value;
+		}
+
+		public long readVarLong() throws ParseException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new ParseException("Invalid integer");
+		}
+
+		public String readString() throws ParseException {
+			int length = readVarInt();
+			require(length);
+			String value = new String(input, position, length, UTF_8);
+			position += length;
+			return value;
+		}
+
+		public String readPrefixedString() throws ParseException {
+			int prefix = readVarInt();
+			if (prefix > lastPrefixedString.length()) {
+				throw new ParseException("Invalid prefix");
+			}
+			String value = lastPrefixedString.substring(0, prefix) + readString();
+			lastPrefixedString = value;
+			return value;
+		}
+
+		public String readDeflatedString() throws ParseException {
+			int length = readVarInt();
+			if (length == 0) {
+				return readString();
+			}
+			int compressedLength = readVarInt();
+			require(compressedLength);
+			Inflater inflater = new Inflater(true);
+			try {
+				// Nowrap mode requires an extra dummy byte at the end of input
+				byte[] compressed = new byte[compressedLength + 1];
+				System.arraycopy(input, position, compressed, 0, compressedLength);
+				position += compressedLength;
+				inflater.setInput(compressed);
+				byte[] bytes = new byte[length];
+				int count = 0;
+				while (count < length && !inflater.finished()) {
+					int read = inflater.inflate(bytes, count, length - count);
+					if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					count += read;
+				}
+				if (count != length) {
+					throw new ParseException("Invalid compressed data");
+				}
+				return new String(bytes, UTF_8);
+			} catch (DataFormatException e) {
+				throw new ParseException(e);
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+}
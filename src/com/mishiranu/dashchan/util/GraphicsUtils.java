@@ -21,6 +21,7 @@ import androidx.core.graphics.ColorUtils;
 import com.mishiranu.dashchan.C;
 import com.mishiranu.dashchan.content.MainApplication;
 import com.mishiranu.dashchan.content.model.FileHolder;
+import com.mishiranu.dashchan.graphics.BitmapPool;
 import com.mishiranu.dashchan.graphics.ScriptC_GammaCorrection;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
@@ -178,9 +179,47 @@ public class GraphicsUtils {
 		}
 	}
 
+	private static int getThumbnailSize(Resources resources) {
+		return (int) (72f * ResourceUtils.obtainDensity(resources));
+	}
+
 	public static Bitmap reduceThumbnailSize(Resources resources, Bitmap bitmap) {
-		int newSize = (int) (72f * ResourceUtils.obtainDensity(resources));
-		return reduceBitmapSize(bitmap, newSize, true);
+		return reduceBitmapSize(bitmap, getThumbnailSize(resources), true);
+	}
+
+	// Decodes subsampled bitmap when possible, so full size images are never allocated for thumbnails
+	public static Bitmap decodeThumbnail(Resources resources, byte[] bytes, int offset, int length) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(bytes, offset, length, options);
+		int oldSize = Math.min(options.outWidth, options.outHeight);
+		if (oldSize <= 0) {
+			return null;
+		}
+		int newSize = getThumbnailSize(resources);
+		int sampleSize = 1;
+		while (oldSize / (sampleSize * 2) >= newSize) {
+			sampleSize *= 2;
+		}
+		int width = options.outWidth;
+		int height = options.outHeight;
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		BitmapPool bitmapPool = BitmapPool.getInstance();
+		Bitmap bitmap = bitmapPool.decode(options, width, height,
+				o -> BitmapFactory.decodeByteArray(bytes, offset, length, o));
+		if (bitmap == null) {
+			return null;
+		}
+		Bitmap reducedBitmap = reduceBitmapSize(bitmap, newSize, false);
+		if (reducedBitmap != bitmap) {
+			bitmapPool.release(bitmap);
+		}
+		return reducedBitmap;
+	}
+
+	public static int getAllocationByteCount(Bitmap bitmap) {
+		return C.API_KITKAT ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
 	}
 
 	public static Bitmap reduceBitmapSize(Bitmap bitmap, int newSize, boolean recycleOld) {
@@ -32,6 +32,12 @@ public final class Hasher {
 		return digest.digest(bytes);
 	}
 
+	public byte[] calculate(byte[] bytes, int offset, int length) {
+		digest.reset();
+		digest.update(bytes, offset, length);
+		return digest.digest();
+	}
+
 	public byte[] calculate(String string) {
 		return calculate(StringUtils.emptyIfNull(string).getBytes());
 	}
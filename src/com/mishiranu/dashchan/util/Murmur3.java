@@ -0,0 +1,84 @@
+package com.mishiranu.dashchan.util;
+
+public final class Murmur3 {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private Murmur3() {}
+
+	public static byte[] hash128(byte[] data, int offset, int length) {
+		long h1 = 0;
+		long h2 = 0;
+		int blocks = length / 16;
+		for (int i = 0; i < blocks; i++) {
+			int index = offset + 16 * i;
+			long k1 = getLong(data, index);
+			long k2 = getLong(data, index + 8);
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		int tail = offset + 16 * blocks;
+		int remaining = length & 15;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = remaining - 1; i >= 8; i--) {
+			k2 ^= (long) (data[tail + i] & 0xff) << (8 * (i - 8));
+		}
+		for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+			k1 ^= (long) (data[tail + i] & 0xff) << (8 * i);
+		}
+		if (remaining > 8) {
+			h2 ^= mixK2(k2);
+		}
+		if (remaining > 0) {
+			h1 ^= mixK1(k1);
+		}
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		byte[] result = new byte[16];
+		putLong(result, 0, h1);
+		putLong(result, 8, h2);
+		return result;
+	}
+
+	private static long mixK1(long k1) {
+		return Long.rotateLeft(k1 * C1, 31) * C2;
+	}
+
+	private static long mixK2(long k2) {
+		return Long.rotateLeft(k2 * C2, 33) * C1;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static long getLong(byte[] data, int index) {
+		long result = 0;
+		for (int i = 7; i >= 0; i--) {
+			result = result << 8 | data[index + i] & 0xff;
+		}
+		return result;
+	}
+
+	private static void putLong(byte[] data, int index, long value) {
+		for (int i = 0; i < 8; i++) {
+			data[index + i] = (byte) (value >>> (8 * i));
+		}
+	}
+}
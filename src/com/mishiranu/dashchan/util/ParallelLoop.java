@@ -0,0 +1,90 @@
+package com.mishiranu.dashchan.util;
+
+import android.os.CancellationSignal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ParallelLoop {
+	public interface Body<E extends Exception> {
+		void run(int index) throws E;
+	}
+
+	private static final int WORKERS = Math.min(Runtime.getRuntime().availableProcessors() - 1, 3);
+	private static final Executor EXECUTOR = WORKERS > 0 ? ConcurrentUtils
+			.newThreadPool(0, WORKERS, 10000, "ParallelLoop", null) : null;
+
+	private ParallelLoop() {}
+
+	// Runs body for every index in chunks, the calling thread takes part in the work.
+	// Cancellation is checked between chunks, remaining chunks are skipped then.
+	public static <E extends Exception> void run(int count, int chunkSize, CancellationSignal signal,
+			Body<E> body) throws E {
+		if (EXECUTOR == null || count < 2 * chunkSize) {
+			for (int i = 0; i < count; i++) {
+				if (signal != null && i % chunkSize == 0) {
+					signal.throwIfCanceled();
+				}
+				body.run(i);
+			}
+			return;
+		}
+
+		int chunks = (count + chunkSize - 1) / chunkSize;
+		AtomicInteger nextChunk = new AtomicInteger();
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		// Count chunks instead of workers, so the caller never waits for workers still queued in the pool
+		CountDownLatch latch = new CountDownLatch(chunks);
+		Runnable worker = () -> {
+			int chunk;
+			while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+				try {
+					if (error.get() == null && (signal == null || !signal.isCanceled())) {
+						int start = chunk * chunkSize;
+						int end = Math.min(start + chunkSize, count);
+						for (int i = start; i < end; i++) {
+							body.run(i);
+						}
+					}
+				} catch (Throwable t) {
+					error.compareAndSet(null, t);
+				} finally {
+					latch.countDown();
+				}
+			}
+		};
+		for (int i = Math.min(WORKERS, chunks - 1); i > 0; i--) {
+			EXECUTOR.execute(worker);
+		}
+		worker.run();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		Throwable t = error.get();
+		if (t != null) {
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			@SuppressWarnings("unchecked")
+			E e = (E) t;
+			throw e;
+		}
+		if (signal != null) {
+			signal.throwIfCanceled();
+		}
+	}
+}